@@ -0,0 +1,82 @@
+package org.landscapelib.voxel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Stores the voxel data of each chunk in separate on-heap arrays for each value.
+ * Released storages are reused for new chunks.
+ */
+public final class ArrayVoxelStorageFactory implements VoxelStorageFactory {
+
+    /**
+     * Released storages by the number of blocks they hold.
+     */
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ArrayVoxelStorage>> freeStorages = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ArrayVoxelStorage>>();
+
+    @Override public VoxelStorage createStorage(VoxelBuffer data) {
+        ArrayVoxelStorage storage = getFreeStorages(data.getBlockCount()).poll();
+        if (storage == null) {
+            storage = new ArrayVoxelStorage(data.getBlockCount());
+        }
+
+        storage.set(data);
+
+        return storage;
+    }
+
+    private ConcurrentLinkedQueue<ArrayVoxelStorage> getFreeStorages(int blockCount) {
+        ConcurrentLinkedQueue<ArrayVoxelStorage> storages = freeStorages.get(blockCount);
+        if (storages == null) {
+            final ConcurrentLinkedQueue<ArrayVoxelStorage> newStorages = new ConcurrentLinkedQueue<ArrayVoxelStorage>();
+            storages = freeStorages.putIfAbsent(blockCount, newStorages);
+            if (storages == null) storages = newStorages;
+        }
+        return storages;
+    }
+
+    private final class ArrayVoxelStorage implements VoxelStorage {
+        private final byte[] primaryMaterial;
+        private final byte[] secondaryMaterial;
+        private final byte[] materialRatio;
+        private final byte[] volume;
+
+        private ArrayVoxelStorage(int blockCount) {
+            primaryMaterial = new byte[blockCount];
+            secondaryMaterial = new byte[blockCount];
+            materialRatio = new byte[blockCount];
+            volume = new byte[blockCount];
+        }
+
+        private void set(VoxelBuffer data) {
+            System.arraycopy(data.getPrimaryMaterial(), 0, primaryMaterial, 0, primaryMaterial.length);
+            System.arraycopy(data.getSecondaryMaterial(), 0, secondaryMaterial, 0, secondaryMaterial.length);
+            System.arraycopy(data.getMaterialRatio(), 0, materialRatio, 0, materialRatio.length);
+            System.arraycopy(data.getVolume(), 0, volume, 0, volume.length);
+        }
+
+        @Override public byte getPrimaryMaterial(int blockIndex) {
+            return primaryMaterial[blockIndex];
+        }
+
+        @Override public byte getSecondaryMaterial(int blockIndex) {
+            return secondaryMaterial[blockIndex];
+        }
+
+        @Override public byte getMaterialRatio(int blockIndex) {
+            return materialRatio[blockIndex];
+        }
+
+        @Override public byte getVolume(int blockIndex) {
+            return volume[blockIndex];
+        }
+
+        @Override public int getMemoryUsageBytes() {
+            return volume.length * 4;
+        }
+
+        @Override public void release() {
+            getFreeStorages(volume.length).add(this);
+        }
+    }
+}
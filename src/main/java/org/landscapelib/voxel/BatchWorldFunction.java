@@ -0,0 +1,25 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * A world function that can calculate several chunks in one call.
+ * Implementations can use this to amortize setup costs and share intermediate values between neighbouring chunks.
+ *
+ * Use BatchWorldFunctionAdapter to calculate batches with a world function that only handles one chunk at a time.
+ */
+public interface BatchWorldFunction extends WorldFunction {
+
+    /**
+     * Calculates the specified chunks.  May be called from several generator threads at the same time.
+     *
+     * Each chunk is reported to its own listener: implementations should call calculationProgress regularly,
+     * and stop calculating a chunk if it returns false, calling calculationAborted for it.
+     * The other chunks in the batch should still be calculated.
+     * When a chunk is completed, calculationReady should be called for it.
+     *
+     * @param chunks chunks to calculate.  Chunks close to each other in the batch are typically neighbours.
+     */
+    void calculateChunks(Array<ChunkCalculation> chunks);
+
+}
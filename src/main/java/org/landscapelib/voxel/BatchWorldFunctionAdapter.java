@@ -0,0 +1,63 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+
+import static org.flowutils.Check.notNull;
+
+/**
+ * Calculates batches of chunks with a world function that only handles one chunk at a time,
+ * by calculating the chunks one after another.
+ */
+public final class BatchWorldFunctionAdapter implements BatchWorldFunction {
+
+    private final WorldFunction worldFunction;
+
+    /**
+     * @return the world function itself if it already supports batches, otherwise an adapter for it.
+     */
+    public static BatchWorldFunction adapt(WorldFunction worldFunction) {
+        if (worldFunction instanceof BatchWorldFunction) {
+            return (BatchWorldFunction) worldFunction;
+        }
+        else {
+            return new BatchWorldFunctionAdapter(worldFunction);
+        }
+    }
+
+    /**
+     * @param worldFunction function to calculate the chunks with.
+     */
+    public BatchWorldFunctionAdapter(WorldFunction worldFunction) {
+        notNull(worldFunction, "worldFunction");
+
+        this.worldFunction = worldFunction;
+    }
+
+    @Override public void calculateChunks(Array<ChunkCalculation> chunks) {
+        for (int i = 0; i < chunks.size; i++) {
+            chunks.get(i).calculate(worldFunction);
+        }
+    }
+
+    @Override public Vector3 getGravitationCenter() {
+        return worldFunction.getGravitationCenter();
+    }
+
+    @Override public void calculateChunk(byte[] primaryMaterial,
+                                         byte[] secondaryMaterial,
+                                         byte[] materialRatio,
+                                         byte[] volume,
+                                         double centerX,
+                                         double centerY,
+                                         double centerZ,
+                                         int dataPointsAlongEachAxis,
+                                         double dataPointDistanceMeters,
+                                         WorldGenerationListener listener) {
+        worldFunction.calculateChunk(primaryMaterial, secondaryMaterial, materialRatio, volume,
+                                     centerX, centerY, centerZ,
+                                     dataPointsAlongEachAxis,
+                                     dataPointDistanceMeters,
+                                     listener);
+    }
+}
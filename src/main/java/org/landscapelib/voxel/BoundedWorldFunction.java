@@ -0,0 +1,33 @@
+package org.landscapelib.voxel;
+
+/**
+ * A world function that can calculate a conservative range for the density inside an axis aligned box.
+ * Used to recognize chunks that are completely empty or completely filled without calculating each data point.
+ */
+public interface BoundedWorldFunction extends WorldFunction {
+
+    /**
+     * Calculates a range that contains the density of every data point inside the box,
+     * when sampled with the specified data point distance.
+     * The range may be larger than the actual range of densities, but never smaller.
+     *
+     * Density is measured so that data points with a density at or below zero are empty (volume 0),
+     * and data points with a density at or above one are completely filled (volume 255).
+     * When the range shows that a chunk is completely empty or filled, its materials are taken from one data point,
+     * so implementations should only report such ranges for boxes with a uniform material.
+     *
+     * May be called from several generator threads at the same time.
+     *
+     * @param dataPointDistanceMeters distance between data points, determines the smallest features included.
+     * @param boundsOut array with at least two elements, the minimum density is stored in the first and the maximum in the second.
+     */
+    void calculateDensityBounds(double minX,
+                                double minY,
+                                double minZ,
+                                double maxX,
+                                double maxY,
+                                double maxZ,
+                                double dataPointDistanceMeters,
+                                double[] boundsOut);
+
+}
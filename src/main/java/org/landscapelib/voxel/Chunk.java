@@ -5,86 +5,138 @@ import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.g3d.*;
 import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
-import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Pool;
 
 
 /**
  * Holds data for a section of voxels.
+ * Renders itself directly from its mesh as a RenderableProvider, so that remeshing only updates the mesh contents,
+ * or keeps the mesh data for merging into the mesh of a ChunkRegion.
  */
 // TODO: Add method to trigger regeneration of a chunk when the world data has changed for the area it is in.  The VoxelLandscape could listen to the world data and update the relevant chunks as needed.
-public final class Chunk implements Pool.Poolable, WorldGenerationListener {
+public final class Chunk implements Pool.Poolable, WorldGenerationListener, RenderableProvider {
 
     /**
-     * Size of a chunk along each side.
-     * Must be a power of two.
+     * Default number of blocks along each side of a chunk.
      */
-    public final static int CHUNK_SIZE = 8;
-    // NOTE: Update this as well if chunk size is changed:
-    private final static int CHUNK_SIZE_SHIFT = 3;
-
-    private final static int CHUNK_SIZE_MASK = CHUNK_SIZE - 1;
+    public final static int DEFAULT_CHUNK_SIZE = 8;
 
     /**
-     * Number of blocks in the chunk at most.
+     * Smallest supported number of blocks along each side of a chunk.
      */
-    private final static int BLOCK_COUNT = CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE;
+    public final static int MIN_CHUNK_SIZE = 4;
 
-    private static final Material DEFAULT_MATERIAL = new Material(ColorAttribute.createDiffuse(Color.GREEN));
+    /**
+     * Largest supported number of blocks along each side of a chunk.
+     * The mesh of a chunk of this size fits in one pooled mesh even in the worst case, where every block side is exposed,
+     * as the 3 * 17 * 16 * 16 block sides have less than 0x10000 vertexes.  Larger chunks could need more.
+     */
+    public final static int MAX_CHUNK_SIZE = 16;
 
-    private static final ModelBuilder MODEL_BUILDER = new ModelBuilder();
+    private static final Color DEFAULT_COLOR = Color.GREEN;
+    private static final Material DEFAULT_MATERIAL = new Material(ColorAttribute.createDiffuse(DEFAULT_COLOR));
 
     private Vector3 center = new Vector3();
     private float chunkSizeInMeters = 1;
 
-    private byte[] primaryMaterial = new byte[BLOCK_COUNT];
-    private byte[] secondaryMaterial = new byte[BLOCK_COUNT];
-
-    /**
-     * Relative amounts of the primary and secondary materials. 255 = all primary material, 0 = 50-50% distribution.
-     */
-    private byte[] materialRatio = new byte[BLOCK_COUNT];
+    // Number of blocks along each side, a power of two
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int chunkSizeShift = getChunkSizeShift(DEFAULT_CHUNK_SIZE);
+    private int chunkSizeMask = DEFAULT_CHUNK_SIZE - 1;
 
     /**
-     * How much of the block that is filled with matter.  0 = nothing, 255 = completely filled.
+     * Voxel data of the chunk, or null if it has not been calculated yet.
      */
-    private byte[] volume = new byte[BLOCK_COUNT];
+    private VoxelStorage voxels;
 
     private boolean modelNeedsRegeneration = true;
-    private ModelInstance modelInstance;
     private Mesh mesh;
+    private int meshIndexCount;
+
+    // True if the mesh has been built for the current location of the chunk
+    private boolean meshUploaded;
+
+    // If true the mesh data is kept for merging into the mesh of a ChunkRegion, instead of being uploaded to a mesh of this chunk.
+    // The copy takes as much memory as the part of the merged mesh uploaded for the chunk, 12 bytes per vertex and 2 per index.
+    private boolean meshBatched;
+    private ChunkMeshData batchedMeshData;
+
+    // Incremented whenever the mesh of the chunk changes, and the version last merged into the meshes of a ChunkRegion
+    private int meshVersion;
+    private int regionMeshVersion = -1;
+    private ChunkMeshTask meshTask;
+
+    // True if building the mesh failed for the current location, so that it is not requested again
+    private boolean meshingFailed;
+
+    // Neighbours whose blocks were known when the latest mesh was requested, as bit flags
+    private int meshedNeighbours;
+
+    // Sides next to another detail level, as bit flags
+    private int detailLevelBorderSides;
     private Material blockMaterial = DEFAULT_MATERIAL;
+    private float colorBits = DEFAULT_COLOR.toFloatBits();
 
     private boolean allSolid;
     private boolean allAir;
 
+    // Sides connected through open blocks, see ChunkFaceConnections
+    private long faceConnections = ChunkFaceConnections.ALL_CONNECTED;
+
     private boolean calculationOngoing = false;
-    private boolean cancelCalulation = false;
+    private boolean calculationAborted = false;
+    private ChunkGenerationTask generationTask;
 
     public Chunk() {
     }
 
     public void setDebugColor(Color color) {
+        // The material is applied when rendering, so the mesh does not need to be rebuilt
         blockMaterial = new Material(ColorAttribute.createDiffuse(color));
-        modelNeedsRegeneration = true;
+        colorBits = color.toFloatBits();
     }
 
     /**
-     * Initializes a chunk and generates the data for it.
+     * @return the color of the chunk as packed float bits, used as the vertex color when the mesh is merged into a region.
+     */
+    float getColorBits() {
+        return colorBits;
+    }
+
+    /**
+     * Initializes a chunk for a new location.  The data for it should be calculated afterwards, see createCalculation.
      *
      * @param center center of the chunk
      * @param chunkSizeInMeters size of the whole chunk along each side, in world units.
-     * @param worldFunction landscape function to use for generating the chunk.
+     * @param chunkSize number of blocks along each side of the chunk.
+     *                  A power of two between MIN_CHUNK_SIZE and MAX_CHUNK_SIZE.
      */
     public void initialize(Vector3 center,
                            float chunkSizeInMeters,
-                           WorldFunction worldFunction) {
+                           int chunkSize) {
+        checkChunkSize(chunkSize, "chunkSize");
+
         setCenter(center);
         setChunkSizeInMeters(chunkSizeInMeters);
 
-        // Get density data
-        calculateDensityData(worldFunction);
+        this.chunkSize = chunkSize;
+        chunkSizeShift = getChunkSizeShift(chunkSize);
+        chunkSizeMask = chunkSize - 1;
+
+        releaseVoxels();
+
+        meshUploaded = false;
+        meshVersion++;
+        faceConnections = ChunkFaceConnections.ALL_CONNECTED;
+        meshedNeighbours = 0;
+        meshingFailed = false;
+        detailLevelBorderSides = 0;
+        calculationOngoing = true;
+        calculationAborted = false;
+        allSolid = false;
+        allAir = false;
     }
 
     /**
@@ -106,7 +158,21 @@ public final class Chunk implements Pool.Poolable, WorldGenerationListener {
     }
 
     public float getBlockSizeInMeters() {
-        return chunkSizeInMeters / CHUNK_SIZE;
+        return chunkSizeInMeters / chunkSize;
+    }
+
+    /**
+     * @return number of blocks along each side of this chunk.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return number of blocks in this chunk.
+     */
+    public int getBlockCount() {
+        return chunkSize * chunkSize * chunkSize;
     }
 
     public void setChunkSizeInMeters(float chunkSizeInMeters) {
@@ -114,60 +180,52 @@ public final class Chunk implements Pool.Poolable, WorldGenerationListener {
     }
 
     /**
-     * @return true if the block at the specified block coordinates inside this chunk (0 .. CHUNK_SIZE) is solid.
+     * @return true if the block at the specified block coordinates inside this chunk (0 .. chunk size) is solid.
      *          If the block coordinates would be too large they are wrapped around to chunk size.
      */
     public boolean isSolid(int blockX, int blockY, int blockZ) {
-        return volume[calculateBlockIndex(blockX, blockY, blockZ)] != 0;
+        return voxels.getVolume(calculateBlockIndex(blockX, blockY, blockZ)) != 0;
     }
 
     /**
-     * @return most abundant material type at the specified block coordinates inside this chunk (0 .. CHUNK_SIZE).
+     * @return most abundant material type at the specified block coordinates inside this chunk (0 .. chunk size).
      *          If the block coordinates would be too large they are wrapped around to chunk size.
      */
     public byte getPrimaryMaterial(int blockX, int blockY, int blockZ) {
-        return primaryMaterial[calculateBlockIndex(blockX, blockY, blockZ)];
+        return voxels.getPrimaryMaterial(calculateBlockIndex(blockX, blockY, blockZ));
     }
 
     /**
-     * @return second most abundant material type at the specified block coordinates inside this chunk (0 .. CHUNK_SIZE).
+     * @return second most abundant material type at the specified block coordinates inside this chunk (0 .. chunk size).
      *          If the block coordinates would be too large they are wrapped around to chunk size.
      */
     public byte getSecondaryMaterial(int blockX, int blockY, int blockZ) {
-        return secondaryMaterial[calculateBlockIndex(blockX, blockY, blockZ)];
+        return voxels.getSecondaryMaterial(calculateBlockIndex(blockX, blockY, blockZ));
     }
 
     /**
      * @return distribution between primary and secondary materials (255 = 100% primary material, 0 = 50% primary material)
-     *         at the specified block coordinates inside this chunk (0 .. CHUNK_SIZE).
+     *         at the specified block coordinates inside this chunk (0 .. chunk size).
      *          If the block coordinates would be too large they are wrapped around to chunk size.
      */
     public byte getMaterialRatio(int blockX, int blockY, int blockZ) {
-        return materialRatio[calculateBlockIndex(blockX, blockY, blockZ)];
+        return voxels.getMaterialRatio(calculateBlockIndex(blockX, blockY, blockZ));
     }
 
     /**
-     * @return volume of material at the specified block coordinates inside this chunk (0 .. CHUNK_SIZE).
+     * @return volume of material at the specified block coordinates inside this chunk (0 .. chunk size).
      *         0 = no material, 255 = 100% of the block filled with materials.
      *          If the block coordinates would be too large they are wrapped around to chunk size.
      */
     public byte getVolume(int blockX, int blockY, int blockZ) {
-        return volume[calculateBlockIndex(blockX, blockY, blockZ)];
+        return voxels.getVolume(calculateBlockIndex(blockX, blockY, blockZ));
     }
 
     /**
-     * Updates the material at the specified block coordinates inside this chunk (0 .. CHUNK_SIZE).
-     * If the block coordinates would be too large they are wrapped around to chunk size.
-     * @deprecated Modifications should be done directly to the worldModel instead of here.  This is not really useful for anything
+     * @return approximate number of bytes used for the voxel data of this chunk, excluding data shared with other chunks.
      */
-    private void setMaterial(int blockX, int blockY, int blockZ, byte primaryMaterial, byte secondaryMaterial, byte materialRatio, byte volume) {
-        final int index = calculateBlockIndex(blockX, blockY, blockZ);
-        this.primaryMaterial[index] = primaryMaterial;
-        this.secondaryMaterial[index] = secondaryMaterial;
-        this.materialRatio[index] = materialRatio;
-        this.volume[index] = volume;
-
-        modelNeedsRegeneration = true;
+    public int getVoxelMemoryUsageBytes() {
+        return voxels != null ? voxels.getMemoryUsageBytes() : 0;
     }
 
     /**
@@ -177,100 +235,324 @@ public final class Chunk implements Pool.Poolable, WorldGenerationListener {
         return modelNeedsRegeneration;
     }
 
-    public void calculateDensityData(WorldFunction worldFunction) {
+    /**
+     * @param buffer buffer to calculate the data into.  Should be stored in the chunk with setVoxels when the calculation is ready.
+     * @param listener listener that is notified about the progress of the calculation.
+     * @return description of the calculation that fills in the data of this chunk.  The calculation may be done on a generator thread.
+     */
+    public ChunkCalculation createCalculation(VoxelBuffer buffer, WorldGenerationListener listener) {
+        final double blockSize = chunkSizeInMeters / chunkSize;
+
+        return new ChunkCalculation(buffer.getPrimaryMaterial(),
+                                    buffer.getSecondaryMaterial(),
+                                    buffer.getMaterialRatio(),
+                                    buffer.getVolume(),
+                                    center.x, center.y, center.z,
+                                    chunkSize,
+                                    blockSize,
+                                    listener);
+    }
 
-        // TODO: If already ongoing, wait for previous one to stop then recalc?
-        calculationOngoing = true;
+    /**
+     * Sets the calculated voxel data of this chunk.  May be called from a generator thread,
+     * before the chunk is handed back to the render thread.
+     */
+    void setVoxels(VoxelStorage voxels) {
+        releaseVoxels();
+        this.voxels = voxels;
+    }
 
-        final double blockSize = chunkSizeInMeters / CHUNK_SIZE;
+    /**
+     * Sets the sides of the chunk that are connected through open blocks.  Called from a generator thread
+     * together with setVoxels, before the chunk is handed back to the render thread.
+     */
+    void setFaceConnections(long faceConnections) {
+        this.faceConnections = faceConnections;
+    }
 
-        // TODO: Execute the calculation on a separate thread with a task executor
-        worldFunction.calculateChunk(primaryMaterial, secondaryMaterial, materialRatio, volume,
-                                     center.x, center.y, center.z,
-                                     CHUNK_SIZE,
-                                     blockSize,
-                                     this);
+    /**
+     * @return true if the two sides of the chunk are connected through open blocks, so that the chunk may not hide
+     *         what is behind one side when seen from the other.  Sides are numbered as in ChunkBorder.
+     *         Always true if the chunk has not been calculated.
+     */
+    public boolean isFaceConnected(int fromSide, int toSide) {
+        return !isCalculated() || ChunkFaceConnections.isConnected(faceConnections, fromSide, toSide);
+    }
 
+    private void releaseVoxels() {
+        if (voxels != null) {
+            voxels.release();
+            voxels = null;
+        }
     }
 
-    public boolean isAllSolid() {
-        return allSolid;
+    /**
+     * @return true if the data for this chunk has been calculated and handed back to the render thread.
+     */
+    public boolean isCalculated() {
+        return !calculationOngoing && voxels != null;
     }
 
-    public boolean isAllAir() {
-        return allAir;
+    /**
+     * @return true if the calculation of the data for this chunk was aborted, e.g. because the world function failed,
+     *         so that the chunk has no data and will not be calculated again at its current location.
+     */
+    public boolean isCalculationAborted() {
+        return calculationAborted;
+    }
+
+    /**
+     * @return true if the data for this chunk is still being calculated.
+     */
+    public boolean isCalculationOngoing() {
+        return calculationOngoing;
+    }
+
+    /**
+     * @return the task calculating the data of this chunk, or null if no calculation is in progress.
+     */
+    ChunkGenerationTask getGenerationTask() {
+        return generationTask;
     }
 
+    void setGenerationTask(ChunkGenerationTask generationTask) {
+        this.generationTask = generationTask;
+    }
 
+    /**
+     * @return the task building the mesh of this chunk, or null if no mesh is being built or waiting for upload.
+     */
+    ChunkMeshTask getMeshTask() {
+        return meshTask;
+    }
 
-    public ModelInstance getModelInstance(ChunkMeshGenerator chunkMeshGenerator) {
-        if (modelInstance == null || modelNeedsRegeneration) {
-            modelInstance = generateMesh(chunkMeshGenerator);
-            modelNeedsRegeneration = false;
+    void setMeshTask(ChunkMeshTask meshTask) {
+        this.meshTask = meshTask;
+    }
+
+    /**
+     * Called on the render thread when a mesher thread starts building the mesh of this chunk.
+     *
+     * @param knownNeighbours neighbours whose blocks are known to the mesher, as bit flags.
+     */
+    void meshRequested(ChunkMeshTask meshTask, int knownNeighbours) {
+        this.meshTask = meshTask;
+        meshedNeighbours = knownNeighbours;
+        modelNeedsRegeneration = false;
+    }
+
+    /**
+     * @return neighbours of the chunk whose blocks were known when the latest mesh was requested,
+     *         as bit flags indexed by neighbour as in ChunkBorder.  If another neighbour has been calculated since,
+     *         the mesh can be rebuilt to leave out the block sides covered by it, or to join the surface to it.
+     */
+    public int getMeshedNeighbours() {
+        return meshedNeighbours;
+    }
+
+    /**
+     * @return sides of the chunk that are next to another detail level, as bit flags indexed by side as in ChunkBorder.
+     */
+    public int getDetailLevelBorderSides() {
+        return detailLevelBorderSides;
+    }
+
+    /**
+     * @param detailLevelBorderSides sides of the chunk that are next to another detail level,
+     *                               as bit flags indexed by side as in ChunkBorder.
+     * @param meshDependsOnSides if true, the mesh is rebuilt when the sides change, as it is stitched to the other detail level along them.
+     */
+    public void setDetailLevelBorderSides(int detailLevelBorderSides, boolean meshDependsOnSides) {
+        if (this.detailLevelBorderSides != detailLevelBorderSides) {
+            this.detailLevelBorderSides = detailLevelBorderSides;
+            if (meshDependsOnSides) modelNeedsRegeneration = true;
         }
+    }
 
-        return modelInstance;
+    /**
+     * Called on the render thread to upload a mesh built by a mesher thread.
+     *
+     * @param meshPool pool to get a mesh of the right size from, if the current mesh is not suitable.
+     */
+    void meshReady(ChunkMeshData meshData, ChunkMeshPool meshPool) {
+        if (meshBatched) {
+            // Keep a copy for the region, the mesh of the region is uploaded when it is rebuilt
+            meshPool.free(mesh);
+            mesh = null;
+            if (batchedMeshData == null) batchedMeshData = new ChunkMeshData();
+            batchedMeshData.set(meshData.getVertexData(), meshData.getVertexDataSize(),
+                                meshData.getIndexData(), meshData.getIndexCount());
+        }
+        else if (meshData.getIndexCount() == 0) {
+            // Nothing to draw, so do not hold on to a pooled mesh
+            meshPool.free(mesh);
+            mesh = null;
+        }
+        else {
+            mesh = meshPool.upload(meshData, mesh);
+        }
+        meshIndexCount = meshData.getIndexCount();
+        meshUploaded = true;
+        meshVersion++;
     }
 
-    private ModelInstance generateMesh(ChunkMeshGenerator chunkMeshGenerator) {
+    /**
+     * Returns the mesh of the chunk to the pool.  Called on the render thread when the chunk is released.
+     */
+    void releaseMesh(ChunkMeshPool meshPool) {
+        meshPool.free(mesh);
+        mesh = null;
+        meshIndexCount = 0;
+        meshUploaded = false;
+        meshVersion++;
+    }
 
-        // Generate mesh for this chunk
-        Mesh newMesh = chunkMeshGenerator.updateMesh(this, mesh);
+    /**
+     * @return true if the mesh data is kept for merging into the mesh of a ChunkRegion, see setMeshBatched.
+     */
+    boolean isMeshBatched() {
+        return meshBatched;
+    }
 
-        // Dispose old mesh if a new mesh was generated instead of updating an old one
-        if (newMesh != mesh && mesh != null) {
-            mesh.dispose();
+    /**
+     * @param meshBatched if true, the mesh data is kept for merging into the mesh of a ChunkRegion instead of being
+     *                    uploaded to a mesh of this chunk, and the chunk does not render itself.
+     *                    The mesh is rebuilt if this changes.
+     */
+    void setMeshBatched(boolean meshBatched) {
+        if (this.meshBatched != meshBatched) {
+            this.meshBatched = meshBatched;
+            modelNeedsRegeneration = true;
         }
+    }
 
-        mesh = newMesh;
+    /**
+     * @return the mesh data to merge into the mesh of a region, or null if the chunk is not batched or has no mesh to show.
+     */
+    ChunkMeshData getBatchedMeshData() {
+        return meshBatched && hasMesh() ? batchedMeshData : null;
+    }
 
-        // We create a new model and model instance each time,
-        // as it seems to be complicated to just update the mesh and material of a model.
-        return createModelInstance(mesh);
+    /**
+     * @return number that changes whenever the mesh of the chunk changes.
+     */
+    int getMeshVersion() {
+        return meshVersion;
     }
 
-    private ModelInstance createModelInstance(final Mesh mesh) {
+    /**
+     * Called by a ChunkRegion when the mesh with the specified version has been merged into its meshes.
+     */
+    void meshMergedToRegion(int meshVersion) {
+        regionMeshVersion = meshVersion;
+    }
 
-        // Create Model from mesh and material
-        MODEL_BUILDER.begin();
-        MODEL_BUILDER.part("chunk", mesh, GL20.GL_TRIANGLES, blockMaterial);
-        final Model model = MODEL_BUILDER.end();
+    /**
+     * @return true if the latest mesh of the chunk is drawn.  Batched chunks are drawn once the ChunkRegion they are in
+     *         has been rebuilt with their current mesh, other chunks as soon as the mesh has been uploaded.
+     *         Also true if there is nothing to draw.
+     */
+    boolean isMeshDrawn() {
+        return !meshBatched || getBatchedMeshData() == null || regionMeshVersion == meshVersion;
+    }
 
-        // Create model instance
-        ModelInstance modelInstance = new ModelInstance(model);
+    /**
+     * Called on the render thread if building the mesh was cancelled, so that it is requested again.
+     */
+    void meshAborted() {
+        modelNeedsRegeneration = true;
+    }
 
-        // Update position
-        modelInstance.transform.setTranslation(center);
+    /**
+     * Called on the render thread if building the mesh failed.  The mesh is not requested again for the current location,
+     * as the failure would most likely repeat.  The previous mesh, if any, is kept.
+     */
+    void meshFailed() {
+        meshingFailed = true;
+        modelNeedsRegeneration = false;
+    }
 
-        return modelInstance;
+    /**
+     * @return true if building the mesh failed for the current location of the chunk, see meshFailed.
+     */
+    public boolean isMeshingFailed() {
+        return meshingFailed;
     }
 
+    public boolean isAllSolid() {
+        return allSolid;
+    }
+
+    public boolean isAllAir() {
+        return allAir;
+    }
+
+
 
     @Override public void reset() {
         modelNeedsRegeneration = true;
-        cancelCalulation = true;
+        meshUploaded = false;
+        meshVersion++;
+
+        releaseVoxels();
+
+        // Request interrupt of any ongoing calculation or meshing, as this chunk moved out of range already
+        if (generationTask != null) {
+            generationTask.cancel();
+        }
+        if (meshTask != null) {
+            meshTask.cancel();
+        }
     }
 
     /**
-     * @return true if this chunk can be rendered.
+     * @return true if the data of this chunk has been calculated and the mesh built from it has been uploaded,
+     *         or there is nothing to render.
      */
     public boolean isReadyToRender() {
-        return !calculationOngoing;
+        return isCalculated() && (allAir || meshUploaded);
     }
 
+    /**
+     * Renders the latest uploaded mesh of the chunk.  Nothing is rendered until the first mesh has been uploaded,
+     * after that the previous mesh is rendered while a new one is being built.
+     * Batched chunks are rendered by their region instead.
+     */
     public void render(ModelBatch modelBatch,
-                       Environment environment,
-                       ChunkMeshGenerator chunkMeshGenerator) {
+                       Environment environment) {
 
         // If calculation of the terrain data is still ongoing, we can't render
-        if (!calculationOngoing) {
-            modelBatch.render(getModelInstance(chunkMeshGenerator), environment);
+        if (hasMesh() && mesh != null) {
+            modelBatch.render(this, environment);
         }
     }
 
+    @Override public void getRenderables(Array<Renderable> renderables, Pool<Renderable> pool) {
+        if (!hasMesh() || mesh == null) return;
+
+        final Renderable renderable = pool.obtain();
+        renderable.mesh = mesh;
+        renderable.meshPartOffset = 0;
+        renderable.meshPartSize = meshIndexCount;
+        renderable.primitiveType = GL20.GL_TRIANGLES;
+        renderable.material = blockMaterial;
+        renderable.bones = null;
+        renderable.shader = null;
+        renderable.userData = null;
+
+        // Place the mesh at the chunk, scaling the packed vertex positions to meters
+        ChunkMeshGenerator.getMeshTransform(this, renderable.worldTransform);
+
+        renderables.add(renderable);
+    }
+
+    private boolean hasMesh() {
+        return !calculationOngoing && meshUploaded && meshIndexCount > 0;
+    }
+
     @Override public boolean calculationProgress(float progressZeroToOne) {
         // Request interrupt of calculation if this chunk moved out of range already (== reset has been called)
-        return !cancelCalulation;
+        return generationTask == null || !generationTask.isCancelled();
     }
 
     @Override public void calculationReady() {
@@ -283,18 +565,22 @@ public final class Chunk implements Pool.Poolable, WorldGenerationListener {
     }
 
     @Override public void calculationAborted() {
+        // The chunk is not reused before an aborted calculation has been handed back,
+        // a new location is calculated with a new task when the chunk is initialized again.
         calculationOngoing = false;
-        cancelCalulation = false;
+        calculationAborted = voxels == null;
 
-        // TODO: If the chunk has been initialized again, but a calculation was ongoing, start a new calculation with the new location here.
+        // Nothing to show if we have no data
+        allAir = voxels == null;
     }
 
     private void updateAllSolidity() {
         // Determine if all blocks in a chunk are solid or air
         allSolid = true;
         allAir = true;
-        for (int i = 0; i < BLOCK_COUNT; i++) {
-            if (volume[i] == 0) {
+        final int blockCount = getBlockCount();
+        for (int i = 0; i < blockCount; i++) {
+            if (voxels.getVolume(i) == 0) {
                 allSolid = false;
 
                 // No need to loop the rest of the blocks if we already determined that not all blocks were air as well
@@ -310,25 +596,43 @@ public final class Chunk implements Pool.Poolable, WorldGenerationListener {
     }
 
     private void getChunkLocalBlockCenter(Vector3 centerOut, int chunkX, int chunkY, int chunkZ) {
-        final float blockSizeInMeters = chunkSizeInMeters / CHUNK_SIZE;
+        final float blockSizeInMeters = chunkSizeInMeters / chunkSize;
         final float centerOffset = 0.5f * chunkSizeInMeters;
         centerOut.x = (0.5f + chunkX) * blockSizeInMeters - centerOffset;
         centerOut.y = (0.5f + chunkY) * blockSizeInMeters - centerOffset;
         centerOut.z = (0.5f + chunkZ) * blockSizeInMeters - centerOffset;
     }
 
-    public static int calculateBlockIndex(int blockX, int blockY, int blockZ) {
+    public int calculateBlockIndex(int blockX, int blockY, int blockZ) {
         // Mask the block coordinates to ensure there is no overflows, without doing if-checks.
         // Shift y and z coordinates to correct bit position.  This works as chunk size is a power of two.
-        return (CHUNK_SIZE_MASK & blockX) |
-               ((CHUNK_SIZE_MASK & blockY) << CHUNK_SIZE_SHIFT) |
-               ((CHUNK_SIZE_MASK & blockZ) << (CHUNK_SIZE_SHIFT * 2));
+        return (chunkSizeMask & blockX) |
+               ((chunkSizeMask & blockY) << chunkSizeShift) |
+               ((chunkSizeMask & blockZ) << (chunkSizeShift * 2));
+    }
+
+    /**
+     * Throws an IllegalArgumentException if the chunk size is not a power of two between MIN_CHUNK_SIZE and MAX_CHUNK_SIZE.
+     */
+    public static void checkChunkSize(int chunkSize, String parameterName) {
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE || Integer.bitCount(chunkSize) != 1) {
+            throw new IllegalArgumentException("The parameter " + parameterName + " should be a power of two between " +
+                                               MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE + ", but it was " + chunkSize);
+        }
+    }
+
+    private static int getChunkSizeShift(int chunkSize) {
+        return Integer.numberOfTrailingZeros(chunkSize);
     }
 
     public void dispose() {
-        if (modelInstance != null && modelInstance.model != null) {
-            modelInstance.model.dispose();
-            modelInstance = null;
+        releaseVoxels();
+
+        if (mesh != null) {
+            mesh.dispose();
+            mesh = null;
         }
+        meshUploaded = false;
+        meshVersion++;
     }
 }
@@ -0,0 +1,210 @@
+package org.landscapelib.voxel;
+
+/**
+ * Copy of the blocks of the neighbouring chunks that touch a chunk,
+ * so that the mesher can leave out block sides hidden by the neighbours, and continue smooth surfaces into them,
+ * without accessing the neighbour chunks, which may be released while the mesh is built on a mesher thread.
+ * Also records which sides are next to another detail level, so that the mesh can be stitched to it.
+ *
+ * Neighbours are numbered starting with the six sides, then the twelve chunks that only touch an edge of the chunk,
+ * and last the eight chunks that only touch a corner, see getNeighbourOffset.
+ * Sides are numbered axis * 2 for the side towards negative coordinates along the axis, and axis * 2 + 1 for the positive side,
+ * the same way as the normal directions of the ChunkMeshGenerator.
+ * The blocks of a side are indexed with the coordinates along the two other axes, u = (axis + 1) % 3 and v = (axis + 2) % 3.
+ *
+ * Neighbours of another detail level are never copied, as their blocks are of a different size,
+ * so the sides next to them are meshed without knowing the neighbouring blocks.
+ * Block side meshes close such sides with walls, like sides next to any unknown neighbour,
+ * while smooth surfaces get skirts along them, see MeshingMode.addsSkirts and setDetailLevelSides.
+ */
+public final class ChunkBorder {
+
+    /**
+     * Number of sides of a chunk.
+     */
+    public static final int SIDE_COUNT = 6;
+
+    /**
+     * Number of neighbours of a chunk, including the chunks that only touch its edges or corners.
+     */
+    public static final int NEIGHBOUR_COUNT = 26;
+
+    /**
+     * Bit flags with all sides set.
+     */
+    public static final int ALL_SIDES = (1 << SIDE_COUNT) - 1;
+
+    /**
+     * Bit flags with all neighbours set.
+     */
+    public static final int ALL_NEIGHBOURS = (1 << NEIGHBOUR_COUNT) - 1;
+
+    // Offset of each neighbour in chunks along each axis, and the neighbour at each offset, indexed by (x + 1) + (y + 1) * 3 + (z + 1) * 9
+    private static final int[] NEIGHBOUR_OFFSETS = new int[NEIGHBOUR_COUNT * 3];
+    private static final int[] NEIGHBOURS_BY_OFFSET = new int[27];
+    static {
+        int neighbour = 0;
+        for (int touchingAxes = 1; touchingAxes <= 3; touchingAxes++) {
+            for (int z = -1; z <= 1; z++) {
+                for (int y = -1; y <= 1; y++) {
+                    for (int x = -1; x <= 1; x++) {
+                        if (Math.abs(x) + Math.abs(y) + Math.abs(z) != touchingAxes) continue;
+
+                        // Sides are ordered by axis, the edges and corners in the same order as blocks
+                        final int index = touchingAxes == 1 ? (x != 0 ? 0 : y != 0 ? 2 : 4) + (x + y + z > 0 ? 1 : 0) : neighbour;
+                        NEIGHBOUR_OFFSETS[index * 3] = x;
+                        NEIGHBOUR_OFFSETS[index * 3 + 1] = y;
+                        NEIGHBOUR_OFFSETS[index * 3 + 2] = z;
+                        NEIGHBOURS_BY_OFFSET[(x + 1) + (y + 1) * 3 + (z + 1) * 9] = index;
+                        neighbour++;
+                    }
+                }
+            }
+        }
+        NEIGHBOURS_BY_OFFSET[13] = -1;
+    }
+
+    private byte[] volumes = new byte[0];
+    private int chunkSize;
+    private int storedBlocksPerSide;
+    private int knownNeighbours;
+    private int detailLevelSides;
+
+    /**
+     * @return offset of the neighbour from the chunk in chunks along the axis, -1, 0 or 1.
+     */
+    public static int getNeighbourOffset(int neighbour, int axis) {
+        return NEIGHBOUR_OFFSETS[neighbour * 3 + axis];
+    }
+
+    /**
+     * @return the neighbour at the specified offset in chunks from the chunk, or -1 if all offsets are zero.
+     */
+    public static int getNeighbour(int offsetX, int offsetY, int offsetZ) {
+        return NEIGHBOURS_BY_OFFSET[(offsetX + 1) + (offsetY + 1) * 3 + (offsetZ + 1) * 9];
+    }
+
+    /**
+     * @return the neighbour containing the block at the specified block coordinates relative to the chunk,
+     *         or -1 if the block is inside the chunk.  The coordinates should be at most one block outside the chunk.
+     */
+    public static int getNeighbourAt(int x, int y, int z, int chunkSize) {
+        return getNeighbour(getBlockOffset(x, chunkSize), getBlockOffset(y, chunkSize), getBlockOffset(z, chunkSize));
+    }
+
+    /**
+     * Clears the border for a chunk with the specified number of blocks along each side.  All neighbours are unknown after this.
+     */
+    public void clear(int chunkSize) {
+        // The blocks are stored in a cube one block larger than the chunk in each direction, of which only the outer layer is used
+        storedBlocksPerSide = chunkSize + 2;
+        final int volumeCount = storedBlocksPerSide * storedBlocksPerSide * storedBlocksPerSide;
+        if (volumes.length < volumeCount) {
+            volumes = new byte[volumeCount];
+        }
+
+        this.chunkSize = chunkSize;
+        knownNeighbours = 0;
+        detailLevelSides = 0;
+    }
+
+    /**
+     * Copies the blocks of the neighbour chunk that touch the chunk: a layer for a side, a row for an edge, or a block for a corner.
+     * The neighbour should have the same chunk size as the chunk the border is for, and its data should be calculated.
+     *
+     * @param neighbourIndex which neighbour the chunk is, see getNeighbourOffset.
+     * @param neighbour neighbouring chunk.
+     */
+    public void setNeighbour(int neighbourIndex, Chunk neighbour) {
+        final int offsetX = getNeighbourOffset(neighbourIndex, 0);
+        final int offsetY = getNeighbourOffset(neighbourIndex, 1);
+        final int offsetZ = getNeighbourOffset(neighbourIndex, 2);
+
+        // Blocks of the neighbour next to the chunk, in the coordinates of the neighbour
+        final int startX = offsetX < 0 ? chunkSize - 1 : 0;
+        final int startY = offsetY < 0 ? chunkSize - 1 : 0;
+        final int startZ = offsetZ < 0 ? chunkSize - 1 : 0;
+        final int endX = offsetX == 0 ? chunkSize : startX + 1;
+        final int endY = offsetY == 0 ? chunkSize : startY + 1;
+        final int endZ = offsetZ == 0 ? chunkSize : startZ + 1;
+
+        for (int z = startZ; z < endZ; z++) {
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    volumes[getIndex(x + offsetX * chunkSize, y + offsetY * chunkSize, z + offsetZ * chunkSize)] = neighbour.getVolume(x, y, z);
+                }
+            }
+        }
+
+        knownNeighbours |= 1 << neighbourIndex;
+    }
+
+    /**
+     * @return bit flags of the sides that are next to another detail level, with bit n set for side n.
+     */
+    public int getDetailLevelSides() {
+        return detailLevelSides;
+    }
+
+    /**
+     * @param detailLevelSides bit flags of the sides that are next to another detail level, with bit n set for side n.
+     *                         The mesh is stitched to the other detail level along these sides.
+     */
+    public void setDetailLevelSides(int detailLevelSides) {
+        this.detailLevelSides = detailLevelSides;
+    }
+
+    /**
+     * @return bit flags of the sides that have the data of the neighbour copied, with bit n set for side n.
+     */
+    public int getKnownSides() {
+        return knownNeighbours & ALL_SIDES;
+    }
+
+    /**
+     * @return bit flags of the neighbours that have their data copied, with bit n set for neighbour n.
+     */
+    public int getKnownNeighbours() {
+        return knownNeighbours;
+    }
+
+    /**
+     * @return true if the data of the specified side or other neighbour has been copied.
+     */
+    public boolean isKnown(int neighbour) {
+        return (knownNeighbours & (1 << neighbour)) != 0;
+    }
+
+    /**
+     * @return true if the side is known and the neighbouring block at the u and v coordinates is solid.
+     */
+    public boolean isSolid(int side, int u, int v) {
+        if (!isKnown(side)) return false;
+
+        final int axis = side / 2;
+        final int layer = (side & 1) != 0 ? chunkSize : -1;
+        switch (axis) {
+            case 0: return volumes[getIndex(layer, u, v)] != 0;
+            case 1: return volumes[getIndex(v, layer, u)] != 0;
+            default: return volumes[getIndex(u, v, layer)] != 0;
+        }
+    }
+
+    /**
+     * @return volume of the neighbouring block at the specified block coordinates relative to the chunk.
+     *         The block should be in a known neighbour, see getNeighbourAt.
+     */
+    public byte getVolume(int x, int y, int z) {
+        return volumes[getIndex(x, y, z)];
+    }
+
+    private int getIndex(int x, int y, int z) {
+        return (x + 1) + ((y + 1) + (z + 1) * storedBlocksPerSide) * storedBlocksPerSide;
+    }
+
+    private static int getBlockOffset(int blockCoordinate, int chunkSize) {
+        if (blockCoordinate < 0) return -1;
+        else if (blockCoordinate >= chunkSize) return 1;
+        else return 0;
+    }
+}
@@ -0,0 +1,95 @@
+package org.landscapelib.voxel;
+
+/**
+ * Describes one chunk to calculate, as passed to a BatchWorldFunction.
+ * The parameters correspond to the parameters of WorldFunction.calculateChunk.
+ */
+public final class ChunkCalculation {
+
+    private final byte[] primaryMaterial;
+    private final byte[] secondaryMaterial;
+    private final byte[] materialRatio;
+    private final byte[] volume;
+    private final double centerX;
+    private final double centerY;
+    private final double centerZ;
+    private final int dataPointsAlongEachAxis;
+    private final double dataPointDistanceMeters;
+    private final WorldGenerationListener listener;
+
+    public ChunkCalculation(byte[] primaryMaterial,
+                            byte[] secondaryMaterial,
+                            byte[] materialRatio,
+                            byte[] volume,
+                            double centerX,
+                            double centerY,
+                            double centerZ,
+                            int dataPointsAlongEachAxis,
+                            double dataPointDistanceMeters,
+                            WorldGenerationListener listener) {
+        this.primaryMaterial = primaryMaterial;
+        this.secondaryMaterial = secondaryMaterial;
+        this.materialRatio = materialRatio;
+        this.volume = volume;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.dataPointsAlongEachAxis = dataPointsAlongEachAxis;
+        this.dataPointDistanceMeters = dataPointDistanceMeters;
+        this.listener = listener;
+    }
+
+    public byte[] getPrimaryMaterial() {
+        return primaryMaterial;
+    }
+
+    public byte[] getSecondaryMaterial() {
+        return secondaryMaterial;
+    }
+
+    public byte[] getMaterialRatio() {
+        return materialRatio;
+    }
+
+    public byte[] getVolume() {
+        return volume;
+    }
+
+    public double getCenterX() {
+        return centerX;
+    }
+
+    public double getCenterY() {
+        return centerY;
+    }
+
+    public double getCenterZ() {
+        return centerZ;
+    }
+
+    public int getDataPointsAlongEachAxis() {
+        return dataPointsAlongEachAxis;
+    }
+
+    public double getDataPointDistanceMeters() {
+        return dataPointDistanceMeters;
+    }
+
+    /**
+     * @return listener to notify about the progress of this chunk.
+     */
+    public WorldGenerationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Calculates this chunk with the specified single chunk world function.
+     */
+    public void calculate(WorldFunction worldFunction) {
+        worldFunction.calculateChunk(primaryMaterial, secondaryMaterial, materialRatio, volume,
+                                     centerX, centerY, centerZ,
+                                     dataPointsAlongEachAxis,
+                                     dataPointDistanceMeters,
+                                     listener);
+    }
+}
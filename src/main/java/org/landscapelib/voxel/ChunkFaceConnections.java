@@ -0,0 +1,134 @@
+package org.landscapelib.voxel;
+
+import java.util.Arrays;
+
+/**
+ * Calculates which sides of a chunk are connected to each other through open blocks, so that chunks hidden behind
+ * closed terrain can be left out by traversing from the camera to neighbouring chunks only along connected sides.
+ * Blocks are open if they are less than half full, which also covers the blocks in front of smooth surfaces.
+ *
+ * The connections are stored as bit flags in a long, with bit fromSide * SIDE_COUNT + toSide set if the sides are connected,
+ * and the sides numbered as in ChunkBorder.
+ * A calculator reuses its scratch buffers, so each generator thread needs its own.
+ */
+final class ChunkFaceConnections {
+
+    /**
+     * Connections of a chunk where every side is connected to every other side, such as an all air chunk.
+     */
+    static final long ALL_CONNECTED = (1L << (ChunkBorder.SIDE_COUNT * ChunkBorder.SIDE_COUNT)) - 1;
+
+    /**
+     * Connections of a chunk where no sides are connected, such as an all solid chunk.
+     */
+    static final long NONE_CONNECTED = 0;
+
+    /**
+     * Volume below which a block is open, the same as the volume of the smooth surface.
+     */
+    private static final int OPEN_VOLUME_LIMIT = 128;
+
+    // Blocks already visited by the flood fill of the current chunk, marked with the stamp of the chunk
+    private int[] visitStamps = new int[0];
+    private int visitStamp = 0;
+
+    // Blocks waiting to be visited by the flood fill
+    private int[] openBlocks = new int[0];
+
+    /**
+     * @return true if the connections contain a path through open blocks from the first side to the second.
+     */
+    static boolean isConnected(long connections, int fromSide, int toSide) {
+        return (connections & (1L << (fromSide * ChunkBorder.SIDE_COUNT + toSide))) != 0;
+    }
+
+    /**
+     * Flood fills the open blocks of a chunk, and connects the sides touched by each area of connected open blocks.
+     *
+     * @param volumes volumes of the blocks of the chunk, with x changing fastest and z slowest.
+     * @param chunkSize number of blocks along each side of the chunk, a power of two.
+     * @return the connected sides as bit flags.
+     */
+    long calculate(byte[] volumes, int chunkSize) {
+        final int blockCount = chunkSize * chunkSize * chunkSize;
+        if (visitStamps.length < blockCount) {
+            visitStamps = new int[blockCount];
+            openBlocks = new int[blockCount];
+            visitStamp = 0;
+        }
+        if (visitStamp == Integer.MAX_VALUE) {
+            Arrays.fill(visitStamps, 0);
+            visitStamp = 0;
+        }
+        visitStamp++;
+
+        final int shift = Integer.numberOfTrailingZeros(chunkSize);
+        final int mask = chunkSize - 1;
+        final int strideY = chunkSize;
+        final int strideZ = chunkSize * chunkSize;
+
+        long connections = NONE_CONNECTED;
+        for (int start = 0; start < blockCount; start++) {
+            if (visitStamps[start] == visitStamp || !isOpen(volumes[start])) continue;
+
+            // Fill the area of open blocks connected to the start block, collecting the sides it touches
+            int sides = 0;
+            int openBlockCount = 0;
+            visitStamps[start] = visitStamp;
+            openBlocks[openBlockCount++] = start;
+            while (openBlockCount > 0) {
+                final int index = openBlocks[--openBlockCount];
+                final int x = index & mask;
+                final int y = (index >> shift) & mask;
+                final int z = index >> (shift * 2);
+
+                if (x == 0) sides |= 1;
+                else openBlockCount = visit(index - 1, volumes, openBlockCount);
+                if (x == mask) sides |= 1 << 1;
+                else openBlockCount = visit(index + 1, volumes, openBlockCount);
+                if (y == 0) sides |= 1 << 2;
+                else openBlockCount = visit(index - strideY, volumes, openBlockCount);
+                if (y == mask) sides |= 1 << 3;
+                else openBlockCount = visit(index + strideY, volumes, openBlockCount);
+                if (z == 0) sides |= 1 << 4;
+                else openBlockCount = visit(index - strideZ, volumes, openBlockCount);
+                if (z == mask) sides |= 1 << 5;
+                else openBlockCount = visit(index + strideZ, volumes, openBlockCount);
+            }
+
+            connections |= connectSides(sides);
+            if (connections == ALL_CONNECTED) break;
+        }
+
+        return connections;
+    }
+
+    private int visit(int index, byte[] volumes, int openBlockCount) {
+        if (visitStamps[index] != visitStamp && isOpen(volumes[index])) {
+            visitStamps[index] = visitStamp;
+            openBlocks[openBlockCount++] = index;
+        }
+        return openBlockCount;
+    }
+
+    /**
+     * @return connections between all of the specified sides.
+     */
+    private static long connectSides(int sides) {
+        long connections = NONE_CONNECTED;
+        for (int fromSide = 0; fromSide < ChunkBorder.SIDE_COUNT; fromSide++) {
+            if ((sides & (1 << fromSide)) == 0) continue;
+
+            for (int toSide = 0; toSide < ChunkBorder.SIDE_COUNT; toSide++) {
+                if ((sides & (1 << toSide)) != 0) {
+                    connections |= 1L << (fromSide * ChunkBorder.SIDE_COUNT + toSide);
+                }
+            }
+        }
+        return connections;
+    }
+
+    private static boolean isOpen(byte volume) {
+        return (volume & 0xFF) < OPEN_VOLUME_LIMIT;
+    }
+}
@@ -0,0 +1,133 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.utils.Array;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A group of neighbouring chunks that are calculated together on a generator thread with one call to a BatchWorldFunction.
+ *
+ * Batches are ordered so that the ones with chunks close to the camera are calculated first,
+ * and of equally distant batches the ones with smaller (more detailed) chunks first.
+ */
+final class ChunkGenerationBatch implements Runnable, Comparable<ChunkGenerationBatch> {
+
+    private static final AtomicLong NEXT_SEQUENCE_NUMBER = new AtomicLong();
+
+    private final BatchWorldFunction worldFunction;
+    private final BoundedWorldFunction boundedWorldFunction;
+    private final float chunkSizeMeters;
+    private final long sequenceNumber = NEXT_SEQUENCE_NUMBER.getAndIncrement();
+    private final Array<ChunkGenerationTask> tasks = new Array<ChunkGenerationTask>();
+
+    private float distanceToCamera = Float.POSITIVE_INFINITY;
+
+    // Guarded by this
+    private boolean started;
+
+    /**
+     * @param worldFunction function to calculate the chunks with.
+     * @param boundedWorldFunction function used to recognize completely empty or filled chunks before calculating them,
+     *                             or null to calculate all chunks.
+     * @param chunkSizeMeters size of the chunks in the batch.
+     */
+    ChunkGenerationBatch(BatchWorldFunction worldFunction, BoundedWorldFunction boundedWorldFunction, float chunkSizeMeters) {
+        this.worldFunction = worldFunction;
+        this.boundedWorldFunction = boundedWorldFunction;
+        this.chunkSizeMeters = chunkSizeMeters;
+    }
+
+    /**
+     * Adds a task to the batch.  Should be called before the batch is submitted.
+     */
+    void add(ChunkGenerationTask task) {
+        tasks.add(task);
+        task.setBatch(this);
+
+        distanceToCamera = Math.min(distanceToCamera, task.getDistanceToCamera());
+    }
+
+    /**
+     * @return number of chunks in this batch.
+     */
+    int size() {
+        return tasks.size;
+    }
+
+    /**
+     * Removes a task from the batch if the batch has not yet started calculating.
+     *
+     * @return true if the task was removed, false if the batch was already started.
+     */
+    synchronized boolean removeIfNotStarted(ChunkGenerationTask task) {
+        if (started) return false;
+
+        tasks.removeValue(task, true);
+        return true;
+    }
+
+    @Override public void run() {
+        final Array<ChunkCalculation> calculations;
+        synchronized (this) {
+            started = true;
+
+            calculations = new Array<ChunkCalculation>(tasks.size);
+            for (int i = 0; i < tasks.size; i++) {
+                final ChunkGenerationTask task = tasks.get(i);
+                if (task.isCancelled()) {
+                    // The chunk was released before we got to it
+                    task.calculationAborted();
+                }
+                else {
+                    calculations.add(task.startCalculation());
+                }
+            }
+        }
+
+        if (calculations.size <= 0) return;
+
+        try {
+            if (boundedWorldFunction != null) {
+                removeUniformChunks(calculations);
+                if (calculations.size <= 0) return;
+            }
+
+            worldFunction.calculateChunks(calculations);
+        }
+        catch (RuntimeException e) {
+            // Make sure the chunks are handed back even if the world function fails, so that they can be released.
+            for (int i = 0; i < calculations.size; i++) {
+                final ChunkGenerationTask task = (ChunkGenerationTask) calculations.get(i).getListener();
+                if (!task.isFinished()) {
+                    task.calculationAborted();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Completes the chunks that the density bounds show to be completely empty or filled,
+     * and removes them from the calculations.
+     */
+    private void removeUniformChunks(Array<ChunkCalculation> calculations) {
+        final double[] bounds = new double[2];
+        for (int i = calculations.size - 1; i >= 0; i--) {
+            final ChunkCalculation calculation = calculations.get(i);
+            final ChunkGenerationTask task = (ChunkGenerationTask) calculation.getListener();
+            if (task.completeIfUniform(boundedWorldFunction, calculation, bounds)) {
+                calculations.removeIndex(i);
+            }
+        }
+    }
+
+    @Override public int compareTo(ChunkGenerationBatch other) {
+        if (distanceToCamera < other.distanceToCamera) return -1;
+        else if (distanceToCamera > other.distanceToCamera) return 1;
+        else if (chunkSizeMeters < other.chunkSizeMeters) return -1;
+        else if (chunkSizeMeters > other.chunkSizeMeters) return 1;
+        else if (sequenceNumber < other.sequenceNumber) return -1;
+        else if (sequenceNumber > other.sequenceNumber) return 1;
+        else return 0;
+    }
+}
@@ -0,0 +1,202 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Tracks the calculation of the density data for one chunk on a generator thread,
+ * and hands the chunk back to the render thread through a queue of finished tasks when done.
+ *
+ * Tasks are calculated as part of a ChunkGenerationBatch.
+ */
+final class ChunkGenerationTask implements WorldGenerationListener {
+
+    private final Chunk chunk;
+    private final ChunkManager chunkManager;
+    private final float distanceToCamera;
+
+    private volatile boolean cancelled;
+    private volatile boolean aborted;
+    private volatile boolean finished;
+
+    // Only accessed from the generator thread
+    private VoxelBuffer buffer;
+
+    // Only accessed from the render thread
+    private boolean releaseWhenDone;
+    private ChunkGenerationBatch batch;
+
+    /**
+     * @param chunk chunk to calculate.  Should already be initialized with its location and size.
+     * @param cameraPosition current camera position, used to prioritize the task.
+     * @param chunkManager manager to get calculation buffers from, and to hand the task back to when it has finished or was aborted.
+     */
+    ChunkGenerationTask(Chunk chunk,
+                        Vector3 cameraPosition,
+                        ChunkManager chunkManager) {
+        this.chunk = chunk;
+        this.chunkManager = chunkManager;
+
+        distanceToCamera = chunk.getCenter().dst(cameraPosition);
+    }
+
+    /**
+     * @return the chunk calculated by this task.
+     */
+    Chunk getChunk() {
+        return chunk;
+    }
+
+    /**
+     * Called on the generator thread when the batch containing this task starts.
+     *
+     * @return the calculation for the chunk, writing into a temporary buffer that is stored in the chunk when the calculation is ready.
+     */
+    ChunkCalculation startCalculation() {
+        buffer = chunkManager.obtainVoxelBuffer(chunk.getBlockCount());
+        return chunk.createCalculation(buffer, this);
+    }
+
+    /**
+     * Called on the generator thread after startCalculation.  Checks the density bounds of the chunk,
+     * and if they show that the chunk is completely empty or completely filled,
+     * stores uniform voxel data in the chunk and hands the task back without calculating each data point.
+     *
+     * @param boundedWorldFunction function to get the density bounds from.
+     * @param calculation the calculation returned by startCalculation.
+     * @param bounds temporary array with at least two elements.
+     * @return true if the chunk was uniform and the task is finished, false if the chunk should be calculated normally.
+     */
+    boolean completeIfUniform(BoundedWorldFunction boundedWorldFunction, ChunkCalculation calculation, double[] bounds) {
+        final int dataPoints = calculation.getDataPointsAlongEachAxis();
+        final double dataPointDistance = calculation.getDataPointDistanceMeters();
+
+        // Bounds of the data points, not the chunk, as that is where the density is sampled
+        final double halfExtent = 0.5 * (dataPoints - 1) * dataPointDistance;
+        final double minX = calculation.getCenterX() - halfExtent;
+        final double minY = calculation.getCenterY() - halfExtent;
+        final double minZ = calculation.getCenterZ() - halfExtent;
+        boundedWorldFunction.calculateDensityBounds(minX, minY, minZ,
+                                                    calculation.getCenterX() + halfExtent,
+                                                    calculation.getCenterY() + halfExtent,
+                                                    calculation.getCenterZ() + halfExtent,
+                                                    dataPointDistance,
+                                                    bounds);
+
+        final byte volume;
+        if (bounds[1] <= 0) volume = 0;
+        else if (bounds[0] >= 1) volume = (byte) 0xFF;
+        else return false;
+
+        // Sample a single data point to get the materials, it is stored at the first index of the buffer
+        final byte[] primaryMaterial = buffer.getPrimaryMaterial();
+        final byte[] secondaryMaterial = buffer.getSecondaryMaterial();
+        final byte[] materialRatio = buffer.getMaterialRatio();
+        boundedWorldFunction.calculateChunk(primaryMaterial,
+                                            secondaryMaterial,
+                                            materialRatio,
+                                            buffer.getVolume(),
+                                            minX, minY, minZ,
+                                            1,
+                                            dataPointDistance,
+                                            null);
+
+        chunk.setFaceConnections(volume == 0 ? ChunkFaceConnections.ALL_CONNECTED : ChunkFaceConnections.NONE_CONNECTED);
+        chunk.setVoxels(UniformVoxelStorage.get(primaryMaterial[0],
+                                                secondaryMaterial[0],
+                                                materialRatio[0],
+                                                volume));
+        freeBuffer();
+
+        finished = true;
+        chunkManager.taskFinished(this);
+        return true;
+    }
+
+    /**
+     * @return distance from the chunk center to the camera when the task was created.
+     */
+    float getDistanceToCamera() {
+        return distanceToCamera;
+    }
+
+    /**
+     * @return the batch this task is calculated in.
+     */
+    ChunkGenerationBatch getBatch() {
+        return batch;
+    }
+
+    void setBatch(ChunkGenerationBatch batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * @return true if the calculation was aborted before it was completed.
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return true if the task has been completed or aborted and handed back.
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Requests the calculation to stop.  If it has not started yet it will not be started,
+     * otherwise the world function stops at its next progress notification.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the calculation has been requested to stop.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the chunk was released while it was still being calculated,
+     *         and should be returned to the pool when the task is finished.
+     */
+    boolean isReleaseWhenDone() {
+        return releaseWhenDone;
+    }
+
+    void setReleaseWhenDone(boolean releaseWhenDone) {
+        this.releaseWhenDone = releaseWhenDone;
+    }
+
+    @Override public boolean calculationProgress(float progressZeroToOne) {
+        return !cancelled;
+    }
+
+    @Override public void calculationReady() {
+        // Store the calculated data in the chunk in the generator thread, so that the render thread does not need to
+        chunk.setFaceConnections(chunkManager.getFaceConnections().calculate(buffer.getVolume(), chunk.getChunkSize()));
+        chunk.setVoxels(chunkManager.getVoxelStorageFactory().createStorage(buffer));
+        freeBuffer();
+
+        finished = true;
+        chunkManager.taskFinished(this);
+    }
+
+    @Override public void calculationAborted() {
+        freeBuffer();
+
+        aborted = true;
+        finished = true;
+        chunkManager.taskFinished(this);
+    }
+
+    private void freeBuffer() {
+        if (buffer != null) {
+            chunkManager.freeVoxelBuffer(buffer);
+            buffer = null;
+        }
+    }
+}
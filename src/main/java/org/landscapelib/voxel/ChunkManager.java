@@ -1,22 +1,73 @@
 package org.landscapelib.voxel;
 
-import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Pool;
+import org.flowutils.Check;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.flowutils.Check.notNull;
 
 /**
+ * Generates and releases chunks.
  *
+ * The density data of new chunks is calculated in the background by a pool of generator threads, closest chunks first.
+ * Neighbouring chunks can be calculated together in batches, see generateChunks.
+ * Finished chunks are handed back to the render thread in update().
+ * Optionally large chunks are split into z-slabs that are calculated in parallel, to get them ready sooner.
+ *
+ * Meshes of calculated chunks are built by mesher threads, see requestMesh, and uploaded to the GPU in update(),
+ * within a per frame budget so that a camera move that exposes many chunks does not stall a single frame.
  */
-// TODO: Add executor, chunk density calculation tasks,
-// TODO   and a step to voxel landscape where visibility of chunks is updated based on whether more detailed chunks have finished calculating their density
-// TODO: Also determine if a chunk is at the edge of the visible area when a LOD is moved/generated, if so, update the mesh to merge with a lower lod along the appropriate sides (store lower lod sides in a byte as bit flags?)
-// TODO: Do not generate solid surfaces along chunk edges.  Marching cubes should help with that.
 public class ChunkManager {
 
+    /**
+     * Number of generator threads used by default.  Leaves one processor for the render thread.
+     */
+    public static final int DEFAULT_GENERATOR_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /**
+     * Number of mesher threads used by default.
+     */
+    public static final int DEFAULT_MESHER_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+
+    /**
+     * Default maximum number of bytes of mesh data uploaded to the GPU per frame.
+     */
+    public static final int DEFAULT_MESH_UPLOAD_BYTES_PER_FRAME = 1024 * 1024;
+
+    /**
+     * Default maximum time spent uploading mesh data to the GPU per frame.
+     */
+    public static final float DEFAULT_MESH_UPLOAD_MILLISECONDS_PER_FRAME = 2f;
+
     private final Array<Chunk> chunks = new Array<Chunk>();
 
-    private final WorldFunction worldFunction;
+    /**
+     * Default maximum number of chunks calculated together in one batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+
+    private final BatchWorldFunction worldFunction;
+
+    /**
+     * The world function if it can provide density bounds, used to skip calculating empty and filled chunks, otherwise null.
+     */
+    private final BoundedWorldFunction boundedWorldFunction;
+
+    /**
+     * Meshes of released chunks, reused for other chunks.  Only accessed from the render thread.
+     */
+    private final ChunkMeshPool meshPool = new ChunkMeshPool();
 
     private final Pool<Chunk> chunkPool = new Pool<Chunk>(100, 10000) {
         @Override protected Chunk newObject() {
@@ -24,6 +75,9 @@ public class ChunkManager {
         }
 
         @Override public void free(Chunk chunk) {
+            // The mesh fits other chunks as well as the next location of this one
+            chunk.releaseMesh(meshPool);
+
             int previousNumberOfPooledChunks = getFree();
 
             super.free(chunk);
@@ -35,15 +89,188 @@ public class ChunkManager {
         }
     };
 
+    /**
+     * Executor running chunk generation tasks, or null if chunks are calculated directly in the calling thread.
+     */
+    private final ThreadPoolExecutor generatorExecutor;
+
+    /**
+     * Function used for chunks that are large enough to be calculated in parallel slabs, or null if not used.
+     */
+    private final BatchWorldFunction parallelWorldFunction;
+    private final ThreadPoolExecutor samplerExecutor;
+    private final float parallelSamplingMinChunkSizeMeters;
+
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private volatile VoxelStorageFactory voxelStorageFactory = new CompressingVoxelStorageFactory();
+
+    /**
+     * Buffers that chunks are calculated into before their data is stored, by the number of blocks in the chunk.
+     * Shared by the generator threads.
+     */
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<VoxelBuffer>> freeVoxelBuffers = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<VoxelBuffer>>();
+
+    private final ConcurrentLinkedQueue<ChunkGenerationTask> finishedTasks = new ConcurrentLinkedQueue<ChunkGenerationTask>();
+
+    // Chunks whose generation was started but that have not been handed back yet.  Only accessed from the render thread.
+    private int generatingChunkCount;
+
+    /**
+     * Executor building chunk meshes, or null if meshes are built directly in the calling thread.
+     */
+    private final ThreadPoolExecutor mesherExecutor;
+
+    /**
+     * Mesh generators of each mesher thread, by meshing mode.
+     */
+    private final ThreadLocal<ChunkMeshGenerator[]> meshGenerators = new ThreadLocal<ChunkMeshGenerator[]>() {
+        @Override protected ChunkMeshGenerator[] initialValue() {
+            return new ChunkMeshGenerator[MeshingMode.values().length];
+        }
+    };
+
+    /**
+     * Calculators for the face connections of chunks, for each generator thread.
+     */
+    private final ThreadLocal<ChunkFaceConnections> faceConnections = new ThreadLocal<ChunkFaceConnections>() {
+        @Override protected ChunkFaceConnections initialValue() {
+            return new ChunkFaceConnections();
+        }
+    };
+
+    private final ConcurrentLinkedQueue<ChunkMeshData> freeMeshData = new ConcurrentLinkedQueue<ChunkMeshData>();
+
+    // Only accessed from the render thread
+    private final Array<ChunkBorder> freeBorders = new Array<ChunkBorder>();
+
+    /**
+     * Built meshes waiting for upload, in the order they were finished.
+     */
+    private final ConcurrentLinkedQueue<ChunkMeshTask> finishedMeshTasks = new ConcurrentLinkedQueue<ChunkMeshTask>();
+
+    private int meshUploadBytesPerFrame = DEFAULT_MESH_UPLOAD_BYTES_PER_FRAME;
+    private long meshUploadNanosPerFrame = (long) (DEFAULT_MESH_UPLOAD_MILLISECONDS_PER_FRAME * 1000000);
+
+    // Mesh data uploaded since the latest call to update, by update itself and by the regions of the detail levels
+    private int frameUploadedBytes;
+    private long frameUploadNanos;
+
+    /**
+     * @param worldFunction function used to calculate the contents of chunks.
+     */
     public ChunkManager(WorldFunction worldFunction) {
-        this.worldFunction = worldFunction;
+        this(worldFunction, DEFAULT_GENERATOR_THREAD_COUNT);
     }
 
-    public Chunk generateChunk(Vector3 chunkCenter, float chunkSizeMeters) {
-        // Get pooled chunk, if available.
-        final Chunk chunk = chunkPool.obtain();
+    /**
+     * @param worldFunction function used to calculate the contents of chunks.
+     * @param generatorThreadCount number of background threads to calculate chunks with.
+     *                             If zero, chunks are calculated directly in the thread calling generateChunk.
+     */
+    public ChunkManager(WorldFunction worldFunction, int generatorThreadCount) {
+        this(worldFunction, generatorThreadCount, 0, 0);
+    }
+
+    /**
+     * @param worldFunction function used to calculate the contents of chunks.
+     * @param generatorThreadCount number of background threads to calculate chunks with.
+     *                             If zero, chunks are calculated directly in the thread calling generateChunk.
+     * @param samplerThreadCount number of additional threads used to calculate the z-slabs of large chunks in parallel.
+     *                           Zero to calculate each chunk in a single thread.
+     *                           Only used if the world function is a SlabWorldFunction.
+     * @param parallelSamplingMinChunkSizeMeters chunks of this size or larger are split into slabs that are calculated in parallel.
+     */
+    public ChunkManager(WorldFunction worldFunction,
+                        int generatorThreadCount,
+                        int samplerThreadCount,
+                        float parallelSamplingMinChunkSizeMeters) {
+        this(worldFunction, generatorThreadCount, samplerThreadCount, parallelSamplingMinChunkSizeMeters, DEFAULT_MESHER_THREAD_COUNT);
+    }
+
+    /**
+     * @param worldFunction function used to calculate the contents of chunks.
+     * @param generatorThreadCount number of background threads to calculate chunks with.
+     *                             If zero, chunks are calculated directly in the thread calling generateChunk.
+     * @param samplerThreadCount number of additional threads used to calculate the z-slabs of large chunks in parallel.
+     *                           Zero to calculate each chunk in a single thread.
+     *                           Only used if the world function is a SlabWorldFunction.
+     * @param parallelSamplingMinChunkSizeMeters chunks of this size or larger are split into slabs that are calculated in parallel.
+     * @param mesherThreadCount number of background threads to build chunk meshes with.
+     *                          If zero, meshes are built directly in the thread calling requestMesh.
+     */
+    public ChunkManager(WorldFunction worldFunction,
+                        int generatorThreadCount,
+                        int samplerThreadCount,
+                        float parallelSamplingMinChunkSizeMeters,
+                        int mesherThreadCount) {
+        notNull(worldFunction, "worldFunction");
+        Check.positiveOrZero(generatorThreadCount, "generatorThreadCount");
+        Check.positiveOrZero(samplerThreadCount, "samplerThreadCount");
+        Check.positiveOrZero(parallelSamplingMinChunkSizeMeters, "parallelSamplingMinChunkSizeMeters");
+        Check.positiveOrZero(mesherThreadCount, "mesherThreadCount");
+
+        this.worldFunction = BatchWorldFunctionAdapter.adapt(worldFunction);
+        boundedWorldFunction = worldFunction instanceof BoundedWorldFunction ? (BoundedWorldFunction) worldFunction : null;
+        this.parallelSamplingMinChunkSizeMeters = parallelSamplingMinChunkSizeMeters;
+
+        if (generatorThreadCount > 0) {
+            generatorExecutor = createExecutor(generatorThreadCount, new PriorityBlockingQueue<Runnable>(), "ChunkGenerator-");
+        }
+        else {
+            generatorExecutor = null;
+        }
+
+        if (samplerThreadCount > 0 && worldFunction instanceof SlabWorldFunction) {
+            samplerExecutor = createExecutor(samplerThreadCount, new LinkedBlockingQueue<Runnable>(), "ChunkSampler-");
+
+            // The generator thread calculates one slab itself.  Chunks large enough for this are calculated one at a time.
+            parallelWorldFunction = new BatchWorldFunctionAdapter(new ParallelSlabWorldFunction((SlabWorldFunction) worldFunction,
+                                                                                                samplerExecutor,
+                                                                                                samplerThreadCount + 1));
+        }
+        else {
+            samplerExecutor = null;
+            parallelWorldFunction = null;
+        }
+
+        if (mesherThreadCount > 0) {
+            mesherExecutor = createExecutor(mesherThreadCount, new PriorityBlockingQueue<Runnable>(), "ChunkMesher-");
+        }
+        else {
+            mesherExecutor = null;
+        }
+    }
+
+    /**
+     * Starts generating a chunk.  The returned chunk is not ready to render until its calculation has finished,
+     * and it has been handed back in update().
+     *
+     * @param chunkCenter center of the chunk in world coordinates.
+     * @param chunkSizeMeters size of the chunk along each side.
+     * @param cameraPosition current camera position, chunks closer to the camera are calculated first.
+     * @return the new chunk, with the default number of blocks along each side.
+     */
+    public Chunk generateChunk(Vector3 chunkCenter, float chunkSizeMeters, Vector3 cameraPosition) {
+        return generateChunk(chunkCenter, chunkSizeMeters, Chunk.DEFAULT_CHUNK_SIZE, cameraPosition);
+    }
+
+    /**
+     * Starts generating a chunk.  The returned chunk is not ready to render until its calculation has finished,
+     * and it has been handed back in update().
+     *
+     * @param chunkCenter center of the chunk in world coordinates.
+     * @param chunkSizeMeters size of the chunk along each side.
+     * @param chunkSize number of blocks along each side of the chunk, a power of two between Chunk.MIN_CHUNK_SIZE and Chunk.MAX_CHUNK_SIZE.
+     * @param cameraPosition current camera position, chunks closer to the camera are calculated first.
+     * @return the new chunk.
+     */
+    public Chunk generateChunk(Vector3 chunkCenter, float chunkSizeMeters, int chunkSize, Vector3 cameraPosition) {
+        Chunk.checkChunkSize(chunkSize, "chunkSize");
 
-        chunk.initialize(chunkCenter, chunkSizeMeters, worldFunction);
+        final ChunkGenerationBatch batch = new ChunkGenerationBatch(getWorldFunctionForChunk(chunkSizeMeters), boundedWorldFunction, chunkSizeMeters);
+        final Chunk chunk = createChunk(chunkCenter, chunkSizeMeters, chunkSize, cameraPosition, batch);
+        submit(batch);
 
         //System.out.println("ChunkManager.generateChunk");
         //System.out.println("pooled chunks = " + chunkPool.getFree());
@@ -51,11 +278,551 @@ public class ChunkManager {
         return chunk;
     }
 
+    /**
+     * Starts generating several chunks of the same size, e.g. a slab of chunks that was exposed when the camera moved.
+     * Neighbouring chunks are calculated together in batches of at most maxBatchSize chunks,
+     * so the chunk centers should be listed in an order where neighbouring chunks are close to each other.
+     * The returned chunks are not ready to render until their calculation has finished,
+     * and they have been handed back in update().
+     *
+     * @param chunkCenters centers of the chunks in world coordinates.
+     * @param chunkSizeMeters size of the chunks along each side.
+     * @param cameraPosition current camera position, chunks closer to the camera are calculated first.
+     * @param generatedChunksOut the new chunks are added to this array, in the same order as the chunk centers.
+     *                           They have the default number of blocks along each side.
+     */
+    public void generateChunks(Array<Vector3> chunkCenters,
+                               float chunkSizeMeters,
+                               Vector3 cameraPosition,
+                               Array<Chunk> generatedChunksOut) {
+        generateChunks(chunkCenters, chunkSizeMeters, Chunk.DEFAULT_CHUNK_SIZE, cameraPosition, generatedChunksOut);
+    }
+
+    /**
+     * Starts generating several chunks of the same size, e.g. a slab of chunks that was exposed when the camera moved.
+     * Neighbouring chunks are calculated together in batches of at most maxBatchSize chunks,
+     * so the chunk centers should be listed in an order where neighbouring chunks are close to each other.
+     * The returned chunks are not ready to render until their calculation has finished,
+     * and they have been handed back in update().
+     *
+     * @param chunkCenters centers of the chunks in world coordinates.
+     * @param chunkSizeMeters size of the chunks along each side.
+     * @param chunkSize number of blocks along each side of the chunks, a power of two between Chunk.MIN_CHUNK_SIZE and Chunk.MAX_CHUNK_SIZE.
+     * @param cameraPosition current camera position, chunks closer to the camera are calculated first.
+     * @param generatedChunksOut the new chunks are added to this array, in the same order as the chunk centers.
+     */
+    public void generateChunks(Array<Vector3> chunkCenters,
+                               float chunkSizeMeters,
+                               int chunkSize,
+                               Vector3 cameraPosition,
+                               Array<Chunk> generatedChunksOut) {
+        Chunk.checkChunkSize(chunkSize, "chunkSize");
+
+        final BatchWorldFunction batchWorldFunction = getWorldFunctionForChunk(chunkSizeMeters);
+
+        ChunkGenerationBatch batch = null;
+        for (int i = 0; i < chunkCenters.size; i++) {
+            if (batch == null) {
+                batch = new ChunkGenerationBatch(batchWorldFunction, boundedWorldFunction, chunkSizeMeters);
+            }
+
+            generatedChunksOut.add(createChunk(chunkCenters.get(i), chunkSizeMeters, chunkSize, cameraPosition, batch));
+
+            if (batch.size() >= maxBatchSize) {
+                submit(batch);
+                batch = null;
+            }
+        }
+
+        if (batch != null) {
+            submit(batch);
+        }
+    }
+
+    private Chunk createChunk(Vector3 chunkCenter,
+                              float chunkSizeMeters,
+                              int chunkSize,
+                              Vector3 cameraPosition,
+                              ChunkGenerationBatch batch) {
+        // Get pooled chunk, if available.
+        final Chunk chunk = chunkPool.obtain();
+
+        chunk.initialize(chunkCenter, chunkSizeMeters, chunkSize);
+
+        final ChunkGenerationTask task = new ChunkGenerationTask(chunk, cameraPosition, this);
+        chunk.setGenerationTask(task);
+        batch.add(task);
+        generatingChunkCount++;
+
+        return chunk;
+    }
+
+    private void submit(ChunkGenerationBatch batch) {
+        // Calculate the chunks in the background
+        if (generatorExecutor != null) {
+            generatorExecutor.execute(batch);
+        }
+        else {
+            batch.run();
+        }
+    }
+
+    private BatchWorldFunction getWorldFunctionForChunk(float chunkSizeMeters) {
+        if (parallelWorldFunction != null && chunkSizeMeters >= parallelSamplingMinChunkSizeMeters) {
+            return parallelWorldFunction;
+        }
+        else {
+            return worldFunction;
+        }
+    }
+
+    /**
+     * @return number of threads calculating chunks in the background, or zero if chunks are calculated directly in the
+     *         thread calling generateChunk.
+     */
+    public int getGeneratorThreadCount() {
+        return generatorExecutor != null ? generatorExecutor.getCorePoolSize() : 0;
+    }
+
+    /**
+     * @return number of chunks whose generation has been started but that have not been handed back in update yet,
+     *         including the chunks still waiting for a generator thread.
+     */
+    public int getGeneratingChunkCount() {
+        return generatingChunkCount;
+    }
+
+    /**
+     * @return maximum number of chunks calculated together in one call to the world function.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize maximum number of chunks calculated together in one call to the world function.
+     *                     Smaller batches spread better over the generator threads,
+     *                     larger batches allow the world function to share more work between neighbouring chunks.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        Check.positive(maxBatchSize, "maxBatchSize");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return factory used to create the storage that chunks keep their voxel data in.
+     */
+    public VoxelStorageFactory getVoxelStorageFactory() {
+        return voxelStorageFactory;
+    }
+
+    /**
+     * @param voxelStorageFactory factory used to create the storage that chunks keep their voxel data in.
+     *                            Used for chunks calculated after this call.
+     *                            Defaults to a CompressingVoxelStorageFactory storing chunks that do not compress in on-heap arrays.
+     *                            E.g. an OffHeapVoxelStorageFactory can be used to keep the voxel data outside the heap.
+     */
+    public void setVoxelStorageFactory(VoxelStorageFactory voxelStorageFactory) {
+        notNull(voxelStorageFactory, "voxelStorageFactory");
+        this.voxelStorageFactory = voxelStorageFactory;
+    }
+
+    /**
+     * Starts building the mesh of a chunk whose calculation has finished.
+     * The chunk keeps rendering its previous mesh, if any, until the new mesh has been uploaded in update().
+     * Does nothing if the mesh of the chunk is already being built, or if building it failed before, see Chunk.isMeshingFailed.
+     *
+     * @param chunk chunk to mesh.
+     * @param meshingMode how to build the mesh.
+     * @param cameraPosition current camera position, chunks closer to the camera are meshed first.
+     */
+    public void requestMesh(Chunk chunk, MeshingMode meshingMode, Vector3 cameraPosition) {
+        requestMesh(chunk, meshingMode, null, cameraPosition);
+    }
+
+    /**
+     * Starts building the mesh of a chunk whose calculation has finished, leaving out block sides along the chunk edges
+     * that are covered by the neighbouring chunks, and stitching the mesh to other detail levels along the sides
+     * flagged with Chunk.setDetailLevelBorderSides.
+     * The chunk keeps rendering its previous mesh, if any, until the new mesh has been uploaded in update().
+     * Does nothing if the mesh of the chunk is already being built.
+     *
+     * @param chunk chunk to mesh.
+     * @param meshingMode how to build the mesh.
+     * @param neighbours the chunks next to the chunk, indexed by neighbour as in ChunkBorder, or null if not known.
+     *                   Only the neighbours that the meshing mode uses are read, see MeshingMode.getBorderNeighbours.
+     *                   Neighbours that are null, not calculated yet, or of a different chunk size are treated as unknown.
+     *                   The neighbours that were known are stored in the chunk, see Chunk.getMeshedNeighbours.
+     * @param cameraPosition current camera position, chunks closer to the camera are meshed first.
+     */
+    public void requestMesh(Chunk chunk, MeshingMode meshingMode, Chunk[] neighbours, Vector3 cameraPosition) {
+        notNull(chunk, "chunk");
+        notNull(meshingMode, "meshingMode");
+
+        if (chunk.getMeshTask() != null || chunk.isCalculationOngoing() || chunk.isMeshingFailed()) return;
+
+        // Copy the touching blocks of the neighbours, as they may be released while the mesh is built
+        ChunkBorder border = null;
+        if (neighbours != null) {
+            border = freeBorders.size > 0 ? freeBorders.pop() : new ChunkBorder();
+            border.clear(chunk.getChunkSize());
+
+            final int borderNeighbours = meshingMode.getBorderNeighbours();
+            for (int i = 0; i < neighbours.length && i < ChunkBorder.NEIGHBOUR_COUNT; i++) {
+                final Chunk neighbour = neighbours[i];
+                if ((borderNeighbours & (1 << i)) != 0 &&
+                    neighbour != null && neighbour.isCalculated() && neighbour.getChunkSize() == chunk.getChunkSize()) {
+                    border.setNeighbour(i, neighbour);
+                }
+            }
+
+            if (meshingMode.addsSkirts()) {
+                border.setDetailLevelSides(chunk.getDetailLevelBorderSides());
+            }
+        }
+
+        final ChunkMeshTask task = new ChunkMeshTask(chunk, meshingMode, border, cameraPosition, this);
+        chunk.meshRequested(task, border != null ? border.getKnownNeighbours() : 0);
+
+        if (mesherExecutor != null) {
+            mesherExecutor.execute(task);
+        }
+        else {
+            task.run();
+        }
+    }
+
+    /**
+     * @return maximum number of bytes of mesh data uploaded to the GPU per frame.
+     */
+    public int getMeshUploadBytesPerFrame() {
+        return meshUploadBytesPerFrame;
+    }
+
+    /**
+     * @return maximum time in milliseconds spent uploading mesh data to the GPU per frame.
+     */
+    public float getMeshUploadMillisecondsPerFrame() {
+        return meshUploadNanosPerFrame / 1000000f;
+    }
+
+    /**
+     * Sets how much mesh data is uploaded to the GPU per frame.  The budget covers the chunk meshes uploaded in update,
+     * and the merged meshes of chunk regions rebuilt when the detail levels are rendered after it.
+     * Uploading stops when either limit is reached, the rest of the meshes are uploaded in later frames.
+     * At least one mesh is uploaded each frame, even if it is larger than the budget.
+     *
+     * @param maxBytesPerFrame maximum number of bytes of vertex and index data to upload per frame.
+     * @param maxMillisecondsPerFrame maximum time to spend uploading per frame.
+     */
+    public void setMeshUploadBudget(int maxBytesPerFrame, float maxMillisecondsPerFrame) {
+        Check.positive(maxBytesPerFrame, "maxBytesPerFrame");
+        Check.positive(maxMillisecondsPerFrame, "maxMillisecondsPerFrame");
+
+        meshUploadBytesPerFrame = maxBytesPerFrame;
+        meshUploadNanosPerFrame = (long) (maxMillisecondsPerFrame * 1000000);
+    }
+
+    /**
+     * @return number of built meshes waiting for upload.
+     */
+    public int getPendingMeshUploadCount() {
+        return finishedMeshTasks.size();
+    }
+
+    /**
+     * @return pool of the chunk meshes, also used for the merged meshes of chunk regions.  Only used from the render thread.
+     */
+    ChunkMeshPool getMeshPool() {
+        return meshPool;
+    }
+
+    /**
+     * @return a generator for the meshing mode, reserved for the calling thread.  Called from mesher threads.
+     */
+    ChunkMeshGenerator getMeshGenerator(MeshingMode meshingMode) {
+        final ChunkMeshGenerator[] generators = meshGenerators.get();
+        ChunkMeshGenerator generator = generators[meshingMode.ordinal()];
+        if (generator == null) {
+            generator = new ChunkMeshGenerator(meshingMode);
+            generators[meshingMode.ordinal()] = generator;
+        }
+        return generator;
+    }
+
+    /**
+     * @return mesh data to build a chunk mesh into.  Called from mesher threads.
+     */
+    ChunkMeshData obtainMeshData() {
+        final ChunkMeshData meshData = freeMeshData.poll();
+        return meshData != null ? meshData : new ChunkMeshData();
+    }
+
+    /**
+     * Returns mesh data obtained with obtainMeshData for reuse.
+     */
+    void freeMeshData(ChunkMeshData meshData) {
+        freeMeshData.add(meshData);
+    }
+
+    /**
+     * Called by a mesh task when it has built the mesh or was aborted.  Called from mesher threads.
+     */
+    void meshTaskFinished(ChunkMeshTask task) {
+        finishedMeshTasks.add(task);
+    }
+
+    /**
+     * @return a calculator for the face connections of chunks, reserved for the calling thread.  Called from generator threads.
+     */
+    ChunkFaceConnections getFaceConnections() {
+        return faceConnections.get();
+    }
+
+    /**
+     * @return a buffer to calculate a chunk with the specified number of blocks into.  Called from generator threads.
+     */
+    VoxelBuffer obtainVoxelBuffer(int blockCount) {
+        final VoxelBuffer buffer = getFreeVoxelBuffers(blockCount).poll();
+        return buffer != null ? buffer : new VoxelBuffer(blockCount);
+    }
+
+    /**
+     * Returns a buffer obtained with obtainVoxelBuffer for reuse.  Called from generator threads.
+     */
+    void freeVoxelBuffer(VoxelBuffer buffer) {
+        getFreeVoxelBuffers(buffer.getBlockCount()).add(buffer);
+    }
+
+    private ConcurrentLinkedQueue<VoxelBuffer> getFreeVoxelBuffers(int blockCount) {
+        ConcurrentLinkedQueue<VoxelBuffer> buffers = freeVoxelBuffers.get(blockCount);
+        if (buffers == null) {
+            final ConcurrentLinkedQueue<VoxelBuffer> newBuffers = new ConcurrentLinkedQueue<VoxelBuffer>();
+            buffers = freeVoxelBuffers.putIfAbsent(blockCount, newBuffers);
+            if (buffers == null) buffers = newBuffers;
+        }
+        return buffers;
+    }
+
+    /**
+     * Called by a generation task when it has finished or was aborted.  Called from generator threads.
+     */
+    void taskFinished(ChunkGenerationTask task) {
+        finishedTasks.add(task);
+    }
+
+    /**
+     * Hands chunks that have finished calculating over to the render thread,
+     * and uploads built chunk meshes within the mesh upload budget.
+     * Should be called from the render thread, e.g. once per frame.
+     */
+    public void update() {
+        frameUploadedBytes = 0;
+        frameUploadNanos = 0;
+
+        handOverCalculatedChunks();
+        uploadMeshes();
+    }
+
+    private void handOverCalculatedChunks() {
+        ChunkGenerationTask task;
+        while ((task = finishedTasks.poll()) != null) {
+            final Chunk chunk = task.getChunk();
+            chunk.setGenerationTask(null);
+            generatingChunkCount--;
+
+            if (task.isAborted()) {
+                chunk.calculationAborted();
+            }
+            else {
+                chunk.calculationReady();
+            }
+
+            // Return chunks that were released during the calculation to the pool now that no thread is using them anymore
+            if (task.isReleaseWhenDone()) {
+                chunkPool.free(chunk);
+            }
+        }
+    }
+
+    /**
+     * @return true if mesh data of the specified size can still be uploaded to the GPU this frame within the mesh upload budget.
+     *         The first upload of each frame is always allowed, so that meshes larger than the budget are not stalled.
+     */
+    boolean isWithinMeshUploadBudget(int sizeBytes) {
+        return frameUploadedBytes == 0 ||
+               (frameUploadedBytes + sizeBytes <= meshUploadBytesPerFrame &&
+                frameUploadNanos <= meshUploadNanosPerFrame);
+    }
+
+    /**
+     * Counts mesh data uploaded to the GPU against the mesh upload budget of this frame.
+     *
+     * @param sizeBytes number of bytes of vertex and index data uploaded.
+     * @param nanos time spent uploading.
+     */
+    void meshUploaded(int sizeBytes, long nanos) {
+        frameUploadedBytes += sizeBytes;
+        frameUploadNanos += nanos;
+    }
+
+    private void uploadMeshes() {
+        ChunkMeshTask task;
+        while ((task = finishedMeshTasks.peek()) != null) {
+            final Chunk chunk = task.getChunk();
+            final ChunkMeshData meshData = task.getMeshData();
+            final boolean upload = !task.isAborted() && !task.isReleaseWhenDone();
+
+            // Batched meshes are only copied here, and uploaded when their region is rebuilt.
+            // Leave the rest for the next frames when the budget is used up.
+            if (upload && !chunk.isMeshBatched() && !isWithinMeshUploadBudget(meshData.getSizeBytes())) {
+                break;
+            }
+
+            finishedMeshTasks.poll();
+            chunk.setMeshTask(null);
+
+            if (upload) {
+                final long startTime = System.nanoTime();
+                chunk.meshReady(meshData, meshPool);
+                if (!chunk.isMeshBatched()) meshUploaded(meshData.getSizeBytes(), System.nanoTime() - startTime);
+            }
+            else if (task.isAborted() && !task.isReleaseWhenDone()) {
+                if (task.isFailed()) chunk.meshFailed();
+                else chunk.meshAborted();
+            }
+
+            if (!task.isAborted()) {
+                freeMeshData(meshData);
+            }
+            freeBorder(task);
+
+            // Return chunks that were released during meshing to the pool now that no thread is using them anymore
+            if (task.isReleaseWhenDone()) {
+                chunkPool.free(chunk);
+            }
+        }
+    }
+
+    private void freeBorder(ChunkMeshTask task) {
+        if (task.getBorder() != null) {
+            freeBorders.add(task.getBorder());
+        }
+    }
+
+    /**
+     * Releases a chunk that is no longer needed.  If the chunk is still being calculated the calculation is cancelled.
+     */
     public void releaseChunk(Chunk chunkToRelease) {
         chunks.removeValue(chunkToRelease, true);
-        chunkPool.free(chunkToRelease);
+
+        final ChunkGenerationTask task = chunkToRelease.getGenerationTask();
+        if (task != null) {
+            task.cancel();
+
+            final ChunkGenerationBatch batch = task.getBatch();
+            if (batch.removeIfNotStarted(task)) {
+                // The calculation had not started yet, so the chunk can be reused right away
+                chunkToRelease.setGenerationTask(null);
+                generatingChunkCount--;
+                chunkToRelease.calculationAborted();
+                chunkPool.free(chunkToRelease);
+
+                // Drop the whole batch if nothing is left in it
+                if (batch.size() <= 0 && generatorExecutor != null) {
+                    generatorExecutor.remove(batch);
+                }
+            }
+            else {
+                // A generator thread is still writing to the chunk, it stops at its next progress check.
+                // Free the chunk when the task has been handed back.
+                task.setReleaseWhenDone(true);
+            }
+        }
+        else if (chunkToRelease.getMeshTask() != null) {
+            final ChunkMeshTask meshTask = chunkToRelease.getMeshTask();
+            meshTask.cancel();
+
+            if (mesherExecutor != null && mesherExecutor.remove(meshTask)) {
+                // The mesh was not started yet, so the chunk can be reused right away
+                chunkToRelease.setMeshTask(null);
+                freeBorder(meshTask);
+                chunkPool.free(chunkToRelease);
+            }
+            else {
+                // A mesher thread may still be reading the chunk, or the mesh is waiting for upload.
+                // Free the chunk when the task has been handed back.
+                meshTask.setReleaseWhenDone(true);
+            }
+        }
+        else {
+            chunkPool.free(chunkToRelease);
+        }
 
         //System.out.println("ChunkManager.releaseChunk");
     }
 
+    /**
+     * @return number of chunks waiting for a generator thread.
+     */
+    public int getQueuedChunkCount() {
+        if (generatorExecutor == null) return 0;
+
+        int count = 0;
+        for (Runnable batch : generatorExecutor.getQueue()) {
+            count += ((ChunkGenerationBatch) batch).size();
+        }
+        return count;
+    }
+
+    /**
+     * Stops the generator threads.  Chunks that were still being calculated are not handed back.
+     */
+    public void dispose() {
+        if (generatorExecutor != null) {
+            generatorExecutor.shutdownNow();
+        }
+
+        if (samplerExecutor != null) {
+            samplerExecutor.shutdownNow();
+        }
+
+        if (mesherExecutor != null) {
+            mesherExecutor.shutdownNow();
+        }
+
+        finishedTasks.clear();
+        finishedMeshTasks.clear();
+
+        meshPool.dispose();
+    }
+
+
+    private static ThreadPoolExecutor createExecutor(int threadCount, BlockingQueue<Runnable> queue, String threadNamePrefix) {
+        return new ThreadPoolExecutor(threadCount,
+                                      threadCount,
+                                      0L,
+                                      TimeUnit.MILLISECONDS,
+                                      queue,
+                                      new GeneratorThreadFactory(threadNamePrefix));
+    }
+
+    /**
+     * Creates daemon threads with slightly lower priority than the render thread.
+     */
+    private static final class GeneratorThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String threadNamePrefix;
+
+        private GeneratorThreadFactory(String threadNamePrefix) {
+            this.threadNamePrefix = threadNamePrefix;
+        }
+
+        @Override public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package org.landscapelib.voxel;
+
+/**
+ * Vertex and index data of a chunk mesh, built on a mesher thread and uploaded to a Mesh on the render thread.
+ * The data is in the packed vertex format of the ChunkMeshGenerator.
+ * Instances are reused between chunks, so only meshes waiting for upload need one.
+ */
+public final class ChunkMeshData {
+
+    private float[] vertexData = new float[0];
+    private short[] indexData = new short[0];
+    private int vertexDataSize;
+    private int indexCount;
+
+    /**
+     * @return the vertex data, valid up to getVertexDataSize.
+     */
+    public float[] getVertexData() {
+        return vertexData;
+    }
+
+    /**
+     * @return number of floats of vertex data.
+     */
+    public int getVertexDataSize() {
+        return vertexDataSize;
+    }
+
+    /**
+     * @return the triangle indexes, valid up to getIndexCount.
+     */
+    public short[] getIndexData() {
+        return indexData;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return number of bytes uploaded to the GPU for this mesh.
+     */
+    public int getSizeBytes() {
+        return vertexDataSize * 4 + indexCount * 2;
+    }
+
+    /**
+     * @return number of vertexes in the mesh.
+     */
+    public int getVertexCount() {
+        return vertexDataSize / ChunkMeshGenerator.VERTEX_ATTRIBUTE_DATA_SIZE;
+    }
+
+    /**
+     * Removes all vertexes and indexes, keeping the arrays.
+     */
+    void clear() {
+        vertexDataSize = 0;
+        indexCount = 0;
+    }
+
+    /**
+     * Adds the mesh of a chunk after the current data, moved by whole blocks and colored with the specified packed color.
+     * Used for merging the meshes of neighbouring chunks.
+     */
+    void append(ChunkMeshData source, int blocksX, int blocksY, int blocksZ, float color) {
+        final int firstVertex = getVertexCount();
+        ensureCapacity(vertexDataSize + source.vertexDataSize, indexCount + source.indexCount);
+
+        ChunkMeshGenerator.copyMovedVertexes(source.vertexData, source.vertexDataSize,
+                                             vertexData, vertexDataSize,
+                                             blocksX, blocksY, blocksZ,
+                                             color);
+
+        // Indexes are unsigned shorts
+        for (int i = 0; i < source.indexCount; i++) {
+            indexData[indexCount + i] = (short) ((source.indexData[i] & 0xFFFF) + firstVertex);
+        }
+
+        vertexDataSize += source.vertexDataSize;
+        indexCount += source.indexCount;
+    }
+
+    /**
+     * Copies the specified mesh data, growing the arrays if needed.
+     */
+    void set(float[] vertexData, int vertexDataSize, short[] indexData, int indexCount) {
+        if (this.vertexData.length < vertexDataSize) {
+            this.vertexData = new float[vertexDataSize];
+        }
+        if (this.indexData.length < indexCount) {
+            this.indexData = new short[indexCount];
+        }
+
+        System.arraycopy(vertexData, 0, this.vertexData, 0, vertexDataSize);
+        System.arraycopy(indexData, 0, this.indexData, 0, indexCount);
+        this.vertexDataSize = vertexDataSize;
+        this.indexCount = indexCount;
+    }
+
+    private void ensureCapacity(int vertexDataSize, int indexCount) {
+        if (vertexData.length < vertexDataSize) {
+            final float[] newVertexData = new float[Math.max(vertexDataSize, vertexData.length * 2)];
+            System.arraycopy(vertexData, 0, newVertexData, 0, this.vertexDataSize);
+            vertexData = newVertexData;
+        }
+        if (indexData.length < indexCount) {
+            final short[] newIndexData = new short[Math.max(indexCount, indexData.length * 2)];
+            System.arraycopy(indexData, 0, newIndexData, 0, this.indexCount);
+            indexData = newIndexData;
+        }
+    }
+}
@@ -1,27 +1,102 @@
 package org.landscapelib.voxel;
 
+import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.VertexAttribute;
 import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.flowutils.Check.notNull;
 
 /**
- *
+ * Builds the meshes of chunks.
+ * A generator reuses its scratch buffers between chunks, so each thread that meshes chunks needs its own generator.
  */
 public class ChunkMeshGenerator {
 
-    private static final int VERTEXES_PER_SIDE = Chunk.CHUNK_SIZE + 1;
-    private static final int MAX_VERTEXES = 8 // 8 possible neighboring blocks for each vertex
-                                            * VERTEXES_PER_SIDE * VERTEXES_PER_SIDE * VERTEXES_PER_SIDE; // (chunk size + 1) ^ 3 vertexes.
-    private static final int MAX_INDEXES = 3 // Triangles
-                                           * 2 // 2 triangles per side
-                                           * 6 // 6 sides per block
-                                           * Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE; // Chunk size ^ 3 blocks
+    /**
+     * Largest number of vertexes in one mesh, as vertexes are addressed with 16 bit indexes.
+     */
+    static final int MAX_VERTEXES = 0x10000;
+
+    /**
+     * Largest number of triangle indexes in one mesh, so that the mesh fits in the largest meshes of the ChunkMeshPool.
+     */
+    static final int MAX_INDEXES = ChunkMeshPool.MAX_INDEXES;
+
+    /**
+     * Number of blocks to initially reserve mesh data for, grown as needed.
+     */
+    private static final int INITIAL_BLOCK_CAPACITY = Chunk.DEFAULT_CHUNK_SIZE * Chunk.DEFAULT_CHUNK_SIZE * Chunk.DEFAULT_CHUNK_SIZE;
+
+    private static final int VERTEXES_PER_BLOCK_SIDE = 4; // Corners of the side, at most
+    private static final int INDEXES_PER_BLOCK_SIDE = 6; // 2 triangles for each side
+
+    private static final int NORMAL_DIRECTIONS = 6;
+
+    /**
+     * Volume at or above which a data point is inside the smooth surface.
+     */
+    private static final int SURFACE_VOLUME = 128;
+
+    /**
+     * Distance in blocks that skirts extend from the edge of a smooth surface into the terrain, along chunk sides next
+     * to another detail level.  The blocks of the neighbouring detail levels are twice or half as large,
+     * so their surfaces differ from this one by about a block.
+     */
+    private static final float SKIRT_DEPTH_BLOCKS = 2f;
 
-    private static final VertexAttributes VERTEX_ATTRIBUTES = new VertexAttributes(VertexAttribute.Position(),
-                                                                                   VertexAttribute.Normal(),
-                                                                                   VertexAttribute.ColorUnpacked());
+    /**
+     * Pairs of corners of a cell connected by the cell edges.  Corner bits are 1 for x, 2 for y and 4 for z.
+     */
+    private static final int[] CELL_EDGES = {0, 1,  2, 3,  4, 5,  6, 7,  // Along x
+                                             0, 2,  1, 3,  4, 6,  5, 7,  // Along y
+                                             0, 4,  1, 5,  2, 6,  3, 7}; // Along z
 
-    private static final int VERTEX_ATTRIBUTE_DATA_SIZE = VERTEX_ATTRIBUTES.vertexSize / 4; // Size in floats
+    /**
+     * Alias of the vertex attribute with the packed position and normal, decoded by the {@link ChunkShader}.
+     * The first component holds x + y * PACKED_COMPONENT_RANGE, and the second z + normal * PACKED_COMPONENT_RANGE.
+     * As vertex attributes are floats, the packed values are kept below 2^24 so that they are exact.
+     */
+    public static final String PACKED_ATTRIBUTE_ALIAS = "a_packed";
+
+    /**
+     * Range of each value packed into a component of the packed attribute.
+     */
+    public static final int PACKED_COMPONENT_RANGE = 4096;
+
+    /**
+     * Positions are stored in steps of this fraction of a block, relative to the lowest corner of the chunk.
+     * The chunk transform scales them to meters.
+     */
+    public static final int POSITION_STEPS_PER_BLOCK = 64;
+
+    /**
+     * Normals are octahedral encoded, with this many steps along each of the two coordinates.
+     * An even number of steps places the middle value at zero, so that axis aligned normals are exact.
+     */
+    public static final int NORMAL_STEPS = 62;
+
+    /**
+     * Range of each of the two normal coordinates in the packed normal.
+     */
+    public static final int NORMAL_COORDINATE_RANGE = 64;
+
+    static final VertexAttributes VERTEX_ATTRIBUTES = new VertexAttributes(new VertexAttribute(VertexAttributes.Usage.Generic, 2, PACKED_ATTRIBUTE_ALIAS),
+                                                                                   VertexAttribute.ColorPacked());
+
+    /**
+     * Number of floats of vertex data for each vertex: the two components of the packed attribute, and the packed color.
+     */
+    public static final int VERTEX_ATTRIBUTE_DATA_SIZE = VERTEX_ATTRIBUTES.vertexSize / 4;
+
+    private static final float VERTEX_COLOR = Color.WHITE.toFloatBits();
 
     /**
      * Fraction that new chunk mesh size has to be under the previous one to create a new mesh (to free up unused memory from previously used exceptionally complicated chunks).
@@ -29,15 +104,232 @@ public class ChunkMeshGenerator {
     private static final float RECREATE_MESH_THRESHOLD = 0.1f;
     private static final boolean ALWAYS_RECREATE_MESH = false;
 
-    private float[] vertexData = new float[VERTEX_ATTRIBUTE_DATA_SIZE * MAX_VERTEXES];
-    private short[] indexData = new short[MAX_INDEXES];
+    // The buffers are sized for the surface of a typical chunk, and grown for chunks with more complicated surfaces
+    private float[] vertexData = new float[VERTEX_ATTRIBUTE_DATA_SIZE * VERTEXES_PER_BLOCK_SIDE * INITIAL_BLOCK_CAPACITY];
+    private short[] indexData = new short[INDEXES_PER_BLOCK_SIDE * INITIAL_BLOCK_CAPACITY];
 
-    private short vertexCount = 0;
+    private int vertexCount = 0;
     private int indexCount = 0;
 
+    private final MeshingMode meshingMode;
+
+    // Materials of the exposed block sides in one slice of the chunk, used for greedy meshing.  Zero where there is no side.
+    private int[] sideMask = new int[Chunk.DEFAULT_CHUNK_SIZE * Chunk.DEFAULT_CHUNK_SIZE];
+
+    // Volumes at the sample points, the index of the vertex in each cell, and the sample positions, used for surface nets
+    private int[] sampleVolumes = new int[0];
+    private int[] cellVertexes = new int[0];
+    private float[] samplePositions = new float[0];
+
+    // Unpacked positions and normals of the surface net vertexes, 6 floats per vertex, used for adding skirts
+    private float[] netVertexes = new float[0];
+    private final int[] cornerVolumes = new int[8];
+
+    // Block coordinates and side corner coordinates used when meshing block sides, indexed by axis
+    private final int[] blockPos = new int[3];
+    private final int[] neighbourPos = new int[3];
+    private final int[] cornerPos = new int[3];
+
+    // Vertexes already added for each block corner and normal direction, used to share vertexes between block sides.
+    // An entry is only valid if its stamp matches the stamp of the mesh being generated, so the table does not need clearing.
+    private int[] cornerVertexes = new int[0];
+    private int[] cornerVertexStamps = new int[0];
+    private int meshStamp = 0;
+
+    // Block corners along each side of the chunk being meshed
+    private int cornersPerSide;
+
+    // Blocks of the neighbouring chunks of the chunk being meshed, or null if they are not known
+    private ChunkBorder border;
+
+    /**
+     * Creates a mesh generator that merges block sides with greedy meshing.
+     */
+    public ChunkMeshGenerator() {
+        this(MeshingMode.GREEDY);
+    }
+
+    /**
+     * @param meshingMode how to build the meshes of the chunks.
+     */
+    public ChunkMeshGenerator(MeshingMode meshingMode) {
+        notNull(meshingMode, "meshingMode");
+
+        this.meshingMode = meshingMode;
+    }
+
+    /**
+     * @return how the meshes of the chunks are built.
+     */
+    public MeshingMode getMeshingMode() {
+        return meshingMode;
+    }
+
+    /**
+     * @return true if the mesh uses the packed vertex format of the chunk meshes, and should be rendered with a {@link ChunkShader}.
+     */
+    public static boolean isChunkMesh(Mesh mesh) {
+        final VertexAttribute packedAttribute = mesh.getVertexAttributes().findByUsage(VertexAttributes.Usage.Generic);
+        return packedAttribute != null && PACKED_ATTRIBUTE_ALIAS.equals(packedAttribute.alias);
+    }
+
+    /**
+     * Sets the transform that places a mesh generated for the chunk at the chunk, and scales the packed positions to meters.
+     */
+    public static void getMeshTransform(Chunk chunk, Matrix4 transformOut) {
+        final Vector3 center = chunk.getCenter();
+        final float corner = -0.5f * chunk.getChunkSizeInMeters();
+        getMeshTransform(center.x + corner, center.y + corner, center.z + corner, chunk.getBlockSizeInMeters(), transformOut);
+    }
+
+    /**
+     * Sets the transform that places a mesh with the lowest corner at the specified world position,
+     * and scales the packed positions to meters.
+     */
+    public static void getMeshTransform(float cornerX, float cornerY, float cornerZ, float blockSizeMeters, Matrix4 transformOut) {
+        final float scale = blockSizeMeters / POSITION_STEPS_PER_BLOCK;
+        transformOut.setToTranslationAndScaling(cornerX, cornerY, cornerZ, scale, scale, scale);
+    }
+
+    /**
+     * Copies packed vertex data, moving the vertexes by whole blocks and replacing their color.
+     * Used for merging the meshes of neighbouring chunks.  The moved positions should stay within the packed component range.
+     */
+    static void copyMovedVertexes(float[] source, int sourceSize,
+                                  float[] target, int targetOffset,
+                                  int blocksX, int blocksY, int blocksZ,
+                                  float color) {
+        // The packed values are whole numbers below 2^24, so the offsets are added exactly
+        final float offsetXY = (blocksX + blocksY * PACKED_COMPONENT_RANGE) * POSITION_STEPS_PER_BLOCK;
+        final float offsetZ = blocksZ * POSITION_STEPS_PER_BLOCK;
+        for (int i = 0; i < sourceSize; i += VERTEX_ATTRIBUTE_DATA_SIZE) {
+            target[targetOffset + i] = source[i] + offsetXY;
+            target[targetOffset + i + 1] = source[i + 1] + offsetZ;
+            target[targetOffset + i + 2] = color;
+        }
+    }
+
+    /**
+     * Generates the mesh of the chunk and uploads it.  Should be called on the render thread.
+     *
+     * @param mesh previous mesh of the chunk, reused if the new mesh fits in it, or null if there was none.
+     * @return the mesh with the new data, a new mesh if the old one was not suitable.
+     */
     public Mesh updateMesh(Chunk chunk, Mesh mesh) {
+        generateMeshData(chunk);
+
+        return uploadMesh(vertexData, vertexCount * VERTEX_ATTRIBUTE_DATA_SIZE, indexData, indexCount, mesh);
+    }
+
+    /**
+     * Generates the mesh data of the chunk without touching any GL resources, so it can be called on a mesher thread.
+     * The data can be uploaded with a ChunkMeshPool on the render thread.
+     *
+     * @param meshDataOut the vertexes and indexes of the generated mesh are copied to this.
+     */
+    public void generateMeshData(Chunk chunk, ChunkMeshData meshDataOut) {
+        generateMeshData(chunk, null, meshDataOut);
+    }
+
+    /**
+     * Generates the mesh data of the chunk without touching any GL resources, so it can be called on a mesher thread.
+     * The data can be uploaded with a ChunkMeshPool on the render thread.
+     *
+     * @param border blocks of the neighbouring chunks, used to leave out block sides along the chunk edges that are
+     *               covered by solid neighbouring blocks, or null to create all sides along the chunk edges.
+     *               With MeshingMode.SURFACE_NETS the surface is sampled from the blocks of the known neighbours, so that it
+     *               meets their surfaces, and the sides next to another detail level get skirts.
+     * @param meshDataOut the vertexes and indexes of the generated mesh are copied to this.
+     */
+    public void generateMeshData(Chunk chunk, ChunkBorder border, ChunkMeshData meshDataOut) {
+        generateMesh(chunk, border);
+
+        meshDataOut.set(vertexData, vertexCount * VERTEX_ATTRIBUTE_DATA_SIZE, indexData, indexCount);
+    }
+
+    /**
+     * Generates the mesh of the chunk into the buffers of this generator, without needing a GL context,
+     * so that meshes can be built on a server, baked in advance, or benchmarked.
+     * The result can be copied out with copyMeshData, and is valid until the next mesh is generated.
+     *
+     * @param border blocks of the neighbouring chunks, or null to create all sides along the chunk edges.
+     *               See {@link #generateMeshData(Chunk, ChunkBorder, ChunkMeshData)}.
+     * @return number of vertexes in the generated mesh.
+     */
+    public int generateMesh(Chunk chunk, ChunkBorder border) {
+        notNull(chunk, "chunk");
 
+        this.border = border;
         generateMeshData(chunk);
+        this.border = null;
+
+        return vertexCount;
+    }
+
+    /**
+     * @return number of vertexes in the last generated mesh.
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return number of floats of vertex data in the last generated mesh.
+     */
+    public int getVertexDataSize() {
+        return vertexCount * VERTEX_ATTRIBUTE_DATA_SIZE;
+    }
+
+    /**
+     * @return number of triangle indexes in the last generated mesh.
+     */
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * Copies the last generated mesh to the start of the specified arrays.
+     *
+     * @param vertexDataOut array for the vertex data, with room for at least getVertexDataSize floats.
+     * @param indexDataOut array for the triangle indexes, with room for at least getIndexCount indexes.
+     * @return number of indexes copied.
+     */
+    public int copyMeshData(float[] vertexDataOut, short[] indexDataOut) {
+        notNull(vertexDataOut, "vertexDataOut");
+        notNull(indexDataOut, "indexDataOut");
+        if (vertexDataOut.length < getVertexDataSize()) throw new IllegalArgumentException("The vertex data array should have room for " + getVertexDataSize() + " floats, but it has " + vertexDataOut.length);
+        if (indexDataOut.length < indexCount) throw new IllegalArgumentException("The index array should have room for " + indexCount + " indexes, but it has " + indexDataOut.length);
+
+        System.arraycopy(vertexData, 0, vertexDataOut, 0, getVertexDataSize());
+        System.arraycopy(indexData, 0, indexDataOut, 0, indexCount);
+
+        return indexCount;
+    }
+
+    /**
+     * Puts the last generated mesh into the specified buffers at their current positions, advancing the positions.
+     * The indexes refer to the vertexes counting from the position of the vertex buffer.
+     *
+     * @param vertexDataOut buffer for the vertex data, with at least getVertexDataSize floats remaining.
+     * @param indexDataOut buffer for the triangle indexes, with at least getIndexCount shorts remaining.
+     * @return number of indexes put into the index buffer.
+     * @throws BufferOverflowException if either buffer does not have enough room, in which case neither buffer is changed.
+     */
+    public int copyMeshData(FloatBuffer vertexDataOut, ShortBuffer indexDataOut) {
+        notNull(vertexDataOut, "vertexDataOut");
+        notNull(indexDataOut, "indexDataOut");
+        if (vertexDataOut.remaining() < getVertexDataSize() || indexDataOut.remaining() < indexCount) {
+            throw new BufferOverflowException();
+        }
+
+        vertexDataOut.put(vertexData, 0, getVertexDataSize());
+        indexDataOut.put(indexData, 0, indexCount);
+
+        return indexCount;
+    }
+
+    private static Mesh uploadMesh(float[] vertexData, int vertexDataSize, short[] indexData, int indexCount, Mesh mesh) {
+        final int vertexCount = vertexDataSize / VERTEX_ATTRIBUTE_DATA_SIZE;
 
         // Check if the data fits inside the old mesh, or if the old mesh is too large and should be recreated
         if (ALWAYS_RECREATE_MESH ||
@@ -50,7 +342,7 @@ public class ChunkMeshGenerator {
         }
 
         // Set the data
-        mesh.setVertices(vertexData, 0, vertexCount * VERTEX_ATTRIBUTE_DATA_SIZE);
+        mesh.setVertices(vertexData, 0, vertexDataSize);
         mesh.setIndices(indexData, 0, indexCount);
 
         return mesh;
@@ -60,17 +352,16 @@ public class ChunkMeshGenerator {
         vertexCount = 0;
         indexCount = 0;
 
-        float x0;
-        float x1;
-        float y0;
-        float y1;
-        float z0;
-        float z1;
-
-        float blockSize = chunk.getBlockSizeInMeters();
-        float offs = -chunk.getChunkSizeInMeters() * 0.5f;
+        switch (meshingMode) {
+            case BLOCK_FACES: startSharedVertexes(chunk); generateBlockFaces(chunk); break;
+            case GREEDY: startSharedVertexes(chunk); generateGreedyFaces(chunk); break;
+            case SURFACE_NETS: generateSurfaceNet(chunk); break;
+            default: throw new IllegalStateException("Unknown meshing mode " + meshingMode);
+        }
+    }
 
-        final int chunkSize = Chunk.CHUNK_SIZE;
+    private void generateBlockFaces(Chunk chunk) {
+        final int chunkSize = chunk.getChunkSize();
 
         // Fill up data
         for (int z = 0; z < chunkSize; z++) {
@@ -79,87 +370,575 @@ public class ChunkMeshGenerator {
                     boolean solid = chunk.isSolid(x, y, z);
 
                     if (solid) {
-                        // Determine corners
-                        x0 = offs + x * blockSize;
-                        x1 = x0 + blockSize;
-                        y0 = offs + y * blockSize;
-                        y1 = y0 + blockSize;
-                        z0 = offs + z * blockSize;
-                        z1 = z0 + blockSize;
-
-
                         // Determine what walls are needed
-                        // A wall is needed if the neighboring block in some direction is non-solid or a chunk edge.
-                        boolean wallAtx0 = x == 0 || !chunk.isSolid(x - 1, y, z);
-                        boolean wallAtx1 = x == chunkSize - 1 || !chunk.isSolid(x + 1, y, z);
-                        boolean wallAty0 = y == 0 || !chunk.isSolid(x, y - 1, z);
-                        boolean wallAty1 = y == chunkSize - 1 || !chunk.isSolid(x, y + 1, z);
-                        boolean wallAtz0 = z == 0 || !chunk.isSolid(x, y, z - 1);
-                        boolean wallAtz1 = z == chunkSize - 1 || !chunk.isSolid(x, y, z + 1);
+                        // A wall is needed if the neighboring block in some direction is non-solid,
+                        // or at a chunk edge unless the block in the neighbouring chunk is known to be solid.
+                        boolean wallAtx0 = x == 0 ? !isBorderSolid(0, y, z) : !chunk.isSolid(x - 1, y, z);
+                        boolean wallAtx1 = x == chunkSize - 1 ? !isBorderSolid(1, y, z) : !chunk.isSolid(x + 1, y, z);
+                        boolean wallAty0 = y == 0 ? !isBorderSolid(2, z, x) : !chunk.isSolid(x, y - 1, z);
+                        boolean wallAty1 = y == chunkSize - 1 ? !isBorderSolid(3, z, x) : !chunk.isSolid(x, y + 1, z);
+                        boolean wallAtz0 = z == 0 ? !isBorderSolid(4, x, y) : !chunk.isSolid(x, y, z - 1);
+                        boolean wallAtz1 = z == chunkSize - 1 ? !isBorderSolid(5, x, y) : !chunk.isSolid(x, y, z + 1);
 
                         // Create walls
-                        if (wallAtx0) addQuad(x0,y0,z0, x0,y0,z1, x0,y1,z1, x0,y1,z0, -1,  0,  0);
-                        if (wallAtx1) addQuad(x1,y0,z0, x1,y1,z0, x1,y1,z1, x1,y0,z1,  1,  0,  0);
-                        if (wallAty0) addQuad(x0,y0,z0, x1,y0,z0, x1,y0,z1, x0,y0,z1,  0, -1,  0);
-                        if (wallAty1) addQuad(x0,y1,z0, x0,y1,z1, x1,y1,z1, x1,y1,z0,  0,  1,  0);
-                        if (wallAtz0) addQuad(x0,y0,z0, x0,y1,z0, x1,y1,z0, x1,y0,z0,  0,  0, -1);
-                        if (wallAtz1) addQuad(x0,y0,z1, x1,y0,z1, x1,y1,z1, x0,y1,z1,  0,  0,  1);
+                        if (wallAtx0) addRectangle(0, -1, x,     y, y + 1, z, z + 1);
+                        if (wallAtx1) addRectangle(0,  1, x + 1, y, y + 1, z, z + 1);
+                        if (wallAty0) addRectangle(1, -1, y,     z, z + 1, x, x + 1);
+                        if (wallAty1) addRectangle(1,  1, y + 1, z, z + 1, x, x + 1);
+                        if (wallAtz0) addRectangle(2, -1, z,     x, x + 1, y, y + 1);
+                        if (wallAtz1) addRectangle(2,  1, z + 1, x, x + 1, y, y + 1);
+                    }
+                }
+            }
+        }
+    }
 
+    private void generateGreedyFaces(Chunk chunk) {
+        final int chunkSize = chunk.getChunkSize();
+
+        if (sideMask.length < chunkSize * chunkSize) {
+            sideMask = new int[chunkSize * chunkSize];
+        }
+
+        // Loop the axes, and the two directions along each
+        for (int axis = 0; axis < 3; axis++) {
+            // The other two axes span the slices, in an order where u x v points along the axis
+            final int u = (axis + 1) % 3;
+            final int v = (axis + 2) % 3;
+
+            for (int direction = -1; direction <= 1; direction += 2) {
+                final int borderSide = axis * 2 + (direction > 0 ? 1 : 0);
+
+                for (int slice = 0; slice < chunkSize; slice++) {
+
+                    // Find the exposed sides in this slice facing in the direction
+                    boolean anySides = false;
+                    blockPos[axis] = slice;
+                    neighbourPos[axis] = slice + direction;
+                    final boolean neighbourOutside = neighbourPos[axis] < 0 || neighbourPos[axis] >= chunkSize;
+                    for (int j = 0; j < chunkSize; j++) {
+                        blockPos[v] = j;
+                        neighbourPos[v] = j;
+                        for (int i = 0; i < chunkSize; i++) {
+                            blockPos[u] = i;
+                            neighbourPos[u] = i;
+
+                            // A side is needed if the neighboring block in the direction is non-solid,
+                            // or at a chunk edge unless the block in the neighbouring chunk is known to be solid.
+                            int side = 0;
+                            if (chunk.isSolid(blockPos[0], blockPos[1], blockPos[2]) &&
+                                (neighbourOutside ? !isBorderSolid(borderSide, i, j) : !chunk.isSolid(neighbourPos[0], neighbourPos[1], neighbourPos[2]))) {
+                                side = 1 + (chunk.getPrimaryMaterial(blockPos[0], blockPos[1], blockPos[2]) & 0xFF);
+                                anySides = true;
+                            }
+                            sideMask[i + j * chunkSize] = side;
+                        }
+                    }
+
+                    if (!anySides) continue;
+
+                    // The sides are in the plane at the start or end of the blocks in the slice
+                    final int plane = direction > 0 ? slice + 1 : slice;
+
+                    // Merge the sides into rectangles, growing each first along u and then along v
+                    for (int j = 0; j < chunkSize; j++) {
+                        for (int i = 0; i < chunkSize; ) {
+                            final int side = sideMask[i + j * chunkSize];
+                            if (side == 0) {
+                                i++;
+                                continue;
+                            }
+
+                            int width = 1;
+                            while (i + width < chunkSize && sideMask[i + width + j * chunkSize] == side) {
+                                width++;
+                            }
+
+                            int height = 1;
+                            while (j + height < chunkSize && isSideRow(side, i, j + height, width, chunkSize)) {
+                                height++;
+                            }
+
+                            // Clear the merged sides
+                            for (int h = 0; h < height; h++) {
+                                for (int w = 0; w < width; w++) {
+                                    sideMask[i + w + (j + h) * chunkSize] = 0;
+                                }
+                            }
+
+                            addRectangle(axis, direction, plane, i, i + width, j, j + height);
+
+                            i += width;
+                        }
                     }
                 }
             }
         }
     }
 
-    private void addQuad(float x0,float y0,float z0,
-                         float x1,float y1,float z1,
-                         float x2,float y2,float z2,
-                         float x3,float y3,float z3,
-                         float xn,float yn,float zn) {
-        addTriangle(x0,y0,z0,  x1,y1,z1,  x2,y2,z2,  xn,yn,zn);
-        addTriangle(x2,y2,z2,  x3,y3,z3,  x0,y0,z0,  xn,yn,zn);
+    /**
+     * @return true if the block of the neighbouring chunk on the side at the u and v coordinates is known to be solid.
+     */
+    private boolean isBorderSolid(int side, int u, int v) {
+        return border != null && border.isSolid(side, u, v);
     }
 
-    private void addTriangle(float x0, float y0, float z0,
-                             float x1, float y1, float z1,
-                             float x2, float y2, float z2,
-                             float xn, float yn, float zn) {
+    /**
+     * @return true if the sides in the row from i to i + width all have the specified material.
+     */
+    private boolean isSideRow(int side, int i, int j, int width, int chunkSize) {
+        final int rowStart = i + j * chunkSize;
+        for (int w = 0; w < width; w++) {
+            if (sideMask[rowStart + w] != side) return false;
+        }
+        return true;
+    }
 
-        short a = addVertex(x0, y0, z0,  xn, yn, zn);
-        short b = addVertex(x1, y1, z1,  xn, yn, zn);
-        short c = addVertex(x2, y2, z2,  xn, yn, zn);
+    /**
+     * Adds a rectangle in the plane perpendicular to the axis, spanning u0..u1 and v0..v1 along the other two axes,
+     * in the order where u x v points along the axis.  Coordinates are in block corners.
+     * The rectangle faces the direction (-1 or 1) along the axis.
+     */
+    private void addRectangle(int axis, int direction, int plane,
+                              int u0, int u1, int v0, int v1) {
+        final int u = (axis + 1) % 3;
+        final int v = (axis + 2) % 3;
+        final int normalDirection = axis * 2 + (direction > 0 ? 1 : 0);
+
+        cornerPos[axis] = plane;
+        cornerPos[u] = u0; cornerPos[v] = v0;
+        final int a = getSharedVertex(normalDirection, axis, direction);
+        cornerPos[u] = u1; cornerPos[v] = v0;
+        final int b = getSharedVertex(normalDirection, axis, direction);
+        cornerPos[u] = u1; cornerPos[v] = v1;
+        final int c = getSharedVertex(normalDirection, axis, direction);
+        cornerPos[u] = u0; cornerPos[v] = v1;
+        final int d = getSharedVertex(normalDirection, axis, direction);
+
+        // Leave out rectangles that no longer fit in the 16 bit indexes.  Only happens for very large and noisy chunks.
+        if (a < 0 || b < 0 || c < 0 || d < 0) return;
+
+        // Counter clockwise when seen from the direction the rectangle faces
+        if (direction > 0) addQuad(a, b, c, d);
+        else               addQuad(a, d, c, b);
+    }
 
-        indexData[indexCount++] = a;
-        indexData[indexCount++] = b;
-        indexData[indexCount++] = c;
+    /**
+     * Prepares the table of shared vertexes for meshing the sides of the blocks of the chunk.
+     */
+    private void startSharedVertexes(Chunk chunk) {
+        cornersPerSide = chunk.getChunkSize() + 1;
+
+        final int tableSize = cornersPerSide * cornersPerSide * cornersPerSide * NORMAL_DIRECTIONS;
+        if (cornerVertexes.length < tableSize) {
+            cornerVertexes = new int[tableSize];
+            cornerVertexStamps = new int[tableSize];
+            meshStamp = 0;
+        }
+
+        // Invalidate the vertexes of the previous mesh
+        meshStamp++;
+        if (meshStamp == 0) {
+            Arrays.fill(cornerVertexStamps, 0);
+            meshStamp = 1;
+        }
     }
 
+    /**
+     * @return index of the vertex at the block corner in cornerPos with the specified normal,
+     *         added if there was no such vertex yet, or -1 if the mesh is full.
+     */
+    private int getSharedVertex(int normalDirection, int axis, int direction) {
+        final int key = ((cornerPos[2] * cornersPerSide + cornerPos[1]) * cornersPerSide + cornerPos[0]) * NORMAL_DIRECTIONS + normalDirection;
+        if (cornerVertexStamps[key] == meshStamp) {
+            return cornerVertexes[key];
+        }
+
+        if (vertexCount >= MAX_VERTEXES) return -1;
+        ensureCapacity(vertexCount + 1, indexCount);
+
+        final int vertex = addVertex(cornerPos[0],
+                                     cornerPos[1],
+                                     cornerPos[2],
+                                     axis == 0 ? direction : 0,
+                                     axis == 1 ? direction : 0,
+                                     axis == 2 ? direction : 0) & 0xFFFF;
+        cornerVertexes[key] = vertex;
+        cornerVertexStamps[key] = meshStamp;
+        return vertex;
+    }
+
+    private void generateSurfaceNet(Chunk chunk) {
+        final int chunkSize = chunk.getChunkSize();
+
+        // The samples are at the block centers, with an extra layer on each side from the blocks of the neighbouring chunks,
+        // so that the cells between this chunk and a neighbour are the same in both, and the surface extends into them.
+        final int points = chunkSize + 2;
+        final int cells = points - 1;
+        if (sampleVolumes.length < points * points * points) {
+            sampleVolumes = new int[points * points * points];
+            cellVertexes = new int[cells * cells * cells];
+            samplePositions = new float[points];
+        }
+
+        // Sample positions are in blocks from the lowest corner of the chunk
+        for (int i = 0; i < points; i++) {
+            samplePositions[i] = i - 0.5f;
+        }
+
+        int sampleIndex = 0;
+        for (int z = 0; z < points; z++) {
+            final boolean insideZ = z > 0 && z <= chunkSize;
+            for (int y = 0; y < points; y++) {
+                final boolean insideY = insideZ && y > 0 && y <= chunkSize;
+                for (int x = 0; x < points; x++) {
+                    if (insideY && x > 0 && x <= chunkSize) {
+                        sampleVolumes[sampleIndex++] = chunk.getVolume(x - 1, y - 1, z - 1) & 0xFF;
+                    }
+                    else {
+                        sampleVolumes[sampleIndex++] = getOutsideVolume(chunk, x - 1, y - 1, z - 1, chunkSize);
+                    }
+                }
+            }
+        }
+
+        // Place one vertex in each cell that the surface passes through, at the average of the points where it crosses the cell edges
+        int cellIndex = 0;
+        for (int z = 0; z < cells; z++) {
+            for (int y = 0; y < cells; y++) {
+                for (int x = 0; x < cells; x++) {
+                    cellVertexes[cellIndex++] = addCellVertex(x, y, z, points, cells);
+                }
+            }
+        }
+
+        // Connect the vertexes of the four cells around each cell edge that the surface crosses
+        final int[] cellSteps = {1, cells, cells * cells};
+        final int[] sampleSteps = {1, points, points * points};
+        final int[] cellPos = new int[3];
+        cellIndex = 0;
+        for (int z = 0; z < cells; z++) {
+            for (int y = 0; y < cells; y++) {
+                for (int x = 0; x < cells; x++, cellIndex++) {
+                    final int vertex = cellVertexes[cellIndex];
+                    if (vertex < 0) continue;
+
+                    final int firstSample = x + y * points + z * points * points;
+                    final boolean firstInside = sampleVolumes[firstSample] >= SURFACE_VOLUME;
+                    cellPos[0] = x;
+                    cellPos[1] = y;
+                    cellPos[2] = z;
+
+                    // Check the three edges starting from the first corner of the cell.
+                    // Edges starting from a block of a neighbour are left to the mesh of the neighbour.
+                    for (int axis = 0; axis < 3; axis++) {
+                        final boolean otherInside = sampleVolumes[firstSample + sampleSteps[axis]] >= SURFACE_VOLUME;
+                        if (firstInside == otherInside) continue;
+
+                        // The cells before this one along the other two axes share the edge
+                        final int u = (axis + 1) % 3;
+                        final int v = (axis + 2) % 3;
+                        if (cellPos[axis] == 0 || cellPos[u] == 0 || cellPos[v] == 0) continue;
+
+                        final int a = vertex;
+                        final int b = cellVertexes[cellIndex - cellSteps[u]];
+                        final int c = cellVertexes[cellIndex - cellSteps[u] - cellSteps[v]];
+                        final int d = cellVertexes[cellIndex - cellSteps[v]];
+                        if (b < 0 || c < 0 || d < 0) continue;
+
+                        // Face from the inside towards the outside
+                        if (firstInside) addQuad(a, b, c, d);
+                        else addQuad(a, d, c, b);
+                    }
+                }
+            }
+        }
+
+        // Hang skirts from the edges of the surface along the sides next to another detail level
+        if (border != null) {
+            for (int side = 0; side < ChunkBorder.SIDE_COUNT; side++) {
+                if ((border.getDetailLevelSides() & (1 << side)) != 0) {
+                    addSkirts(side, chunkSize, points, cells);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return volume of the block one block outside the chunk at the specified block coordinates, from the known neighbours.
+     *         Along sides where the neighbour is not known, the blocks of the chunk are repeated,
+     *         so that the surface of the chunk ends at the side, the same way as in the chunk on the other side.
+     */
+    private int getOutsideVolume(Chunk chunk, int x, int y, int z, int chunkSize) {
+        if (border != null) {
+            final int neighbour = ChunkBorder.getNeighbourAt(x, y, z, chunkSize);
+            if (border.isKnown(neighbour)) return border.getVolume(x, y, z) & 0xFF;
+
+            // Move into the chunk along the axes where the side is not known, the block may then be in a known side
+            if ((x < 0 && !border.isKnown(0)) || (x >= chunkSize && !border.isKnown(1))) x = clampToChunk(x, chunkSize);
+            if ((y < 0 && !border.isKnown(2)) || (y >= chunkSize && !border.isKnown(3))) y = clampToChunk(y, chunkSize);
+            if ((z < 0 && !border.isKnown(4)) || (z >= chunkSize && !border.isKnown(5))) z = clampToChunk(z, chunkSize);
+
+            final int movedNeighbour = ChunkBorder.getNeighbourAt(x, y, z, chunkSize);
+            if (movedNeighbour >= 0 && border.isKnown(movedNeighbour)) return border.getVolume(x, y, z) & 0xFF;
+        }
+
+        return chunk.getVolume(clampToChunk(x, chunkSize), clampToChunk(y, chunkSize), clampToChunk(z, chunkSize)) & 0xFF;
+    }
+
+    /**
+     * Adds skirts along the edges where the surface meets the specified side of the chunk.
+     * The surface of the neighbouring detail level meets the same side at a slightly different place,
+     * the skirts extend the surface into the terrain so that no crack is visible between them.
+     */
+    private void addSkirts(int side, int chunkSize, int points, int cells) {
+        final int axis = side / 2;
+        final int u = (axis + 1) % 3;
+        final int v = (axis + 2) % 3;
+        final int[] sampleSteps = {1, points, points * points};
+        final int[] cellSteps = {1, cells, cells * cells};
+
+        // Sample layer and cell layer at the side
+        final int sampleLayer = ((side & 1) != 0 ? points - 1 : 0) * sampleSteps[axis];
+        final int cellLayer = ((side & 1) != 0 ? cells - 1 : 0) * cellSteps[axis];
+
+        // The surface meets the side where an edge between two samples in the side layer is crossed,
+        // the edges along v join the cells before and after them along u, and the other way around
+        for (int pass = 0; pass < 2; pass++) {
+            final int across = pass == 0 ? u : v;
+            final int along = pass == 0 ? v : u;
+
+            for (int k = 1; k < cells; k++) {
+                for (int m = 0; m < cells; m++) {
+                    final int sample = sampleLayer + k * sampleSteps[across] + m * sampleSteps[along];
+                    final boolean inside = sampleVolumes[sample] >= SURFACE_VOLUME;
+                    if (inside == sampleVolumes[sample + sampleSteps[along]] >= SURFACE_VOLUME) continue;
+
+                    final int cell = cellLayer + k * cellSteps[across] + m * cellSteps[along];
+                    final int a = cellVertexes[cell - cellSteps[across]];
+                    final int b = cellVertexes[cell];
+                    if (a < 0 || b < 0) continue;
+
+                    final int skirtA = addSkirtVertex(a, axis, chunkSize);
+                    final int skirtB = addSkirtVertex(b, axis, chunkSize);
+                    if (skirtA < 0 || skirtB < 0) return;
+
+                    // Visible from both sides, as the crack can be seen from either side of the edge
+                    addQuad(a, b, skirtB, skirtA);
+                    addQuad(a, skirtA, skirtB, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return index of a copy of the surface net vertex moved into the terrain along the chunk side perpendicular to the axis,
+     *         or -1 if the mesh is full.
+     */
+    private int addSkirtVertex(int vertex, int axis, int chunkSize) {
+        if (vertexCount >= MAX_VERTEXES) return -1;
+
+        final int offset = vertex * 6;
+        final float normalX = netVertexes[offset + 3];
+        final float normalY = netVertexes[offset + 4];
+        final float normalZ = netVertexes[offset + 5];
+
+        // Move against the normal, within the plane of the side
+        float dx = axis == 0 ? 0 : -normalX;
+        float dy = axis == 1 ? 0 : -normalY;
+        float dz = axis == 2 ? 0 : -normalZ;
+        final float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (length > 0) {
+            final float scale = SKIRT_DEPTH_BLOCKS / length;
+            dx *= scale;
+            dy *= scale;
+            dz *= scale;
+        }
+
+        // Stay inside the chunk, as positions are packed relative to its corner
+        ensureCapacity(vertexCount + 1, indexCount);
+        return addVertex(clampToChunk(netVertexes[offset] + dx, chunkSize),
+                         clampToChunk(netVertexes[offset + 1] + dy, chunkSize),
+                         clampToChunk(netVertexes[offset + 2] + dz, chunkSize),
+                         normalX, normalY, normalZ) & 0xFFFF;
+    }
+
+    /**
+     * @return index of the vertex added for the cell, or -1 if the surface does not pass through the cell.
+     */
+    private int addCellVertex(int cellX, int cellY, int cellZ, int points, int cells) {
+        final int firstSample = cellX + cellY * points + cellZ * points * points;
+        int insideCorners = 0;
+        for (int corner = 0; corner < 8; corner++) {
+            final int volume = sampleVolumes[firstSample +
+                                             (corner & 1) +
+                                             ((corner >> 1) & 1) * points +
+                                             ((corner >> 2) & 1) * points * points];
+            cornerVolumes[corner] = volume;
+            if (volume >= SURFACE_VOLUME) insideCorners |= 1 << corner;
+        }
+
+        // No surface if all corners are on the same side
+        if (insideCorners == 0 || insideCorners == 0xFF) return -1;
+
+        if (vertexCount >= MAX_VERTEXES) return -1;
+
+        final float x0 = samplePositions[cellX];
+        final float y0 = samplePositions[cellY];
+        final float z0 = samplePositions[cellZ];
+        final float sizeX = samplePositions[cellX + 1] - x0;
+        final float sizeY = samplePositions[cellY + 1] - y0;
+        final float sizeZ = samplePositions[cellZ + 1] - z0;
+
+        // Average the points where the surface crosses the edges, in cell coordinates
+        float sumX = 0;
+        float sumY = 0;
+        float sumZ = 0;
+        int crossings = 0;
+        for (int i = 0; i < CELL_EDGES.length; i += 2) {
+            final int cornerA = CELL_EDGES[i];
+            final int cornerB = CELL_EDGES[i + 1];
+            final int volumeA = cornerVolumes[cornerA];
+            final int volumeB = cornerVolumes[cornerB];
+            if ((volumeA >= SURFACE_VOLUME) != (volumeB >= SURFACE_VOLUME)) {
+                final float t = (SURFACE_VOLUME - 0.5f - volumeA) / (volumeB - volumeA);
+                sumX += (cornerA & 1) + ((cornerB & 1) - (cornerA & 1)) * t;
+                sumY += ((cornerA >> 1) & 1) + (((cornerB >> 1) & 1) - ((cornerA >> 1) & 1)) * t;
+                sumZ += ((cornerA >> 2) & 1) + (((cornerB >> 2) & 1) - ((cornerA >> 2) & 1)) * t;
+                crossings++;
+            }
+        }
+
+        float x = x0 + sizeX * sumX / crossings;
+        float y = y0 + sizeY * sumY / crossings;
+        float z = z0 + sizeZ * sumZ / crossings;
+
+        // Cells between this chunk and a neighbour have their vertexes moved onto the side of the chunk,
+        // as positions are packed relative to the chunk.  The neighbour calculates the same vertex from the same samples
+        // and moves it onto the same side, so the surfaces meet.  The index of the last cell equals the chunk size.
+        if (cellX == 0) x = 0;
+        else if (cellX == cells - 1) x = cells - 1;
+        if (cellY == 0) y = 0;
+        else if (cellY == cells - 1) y = cells - 1;
+        if (cellZ == 0) z = 0;
+        else if (cellZ == cells - 1) z = cells - 1;
+
+        // The normal points from higher volumes towards lower, out of the terrain
+        final int[] c = cornerVolumes;
+        float normalX = -((c[1] - c[0]) + (c[3] - c[2]) + (c[5] - c[4]) + (c[7] - c[6])) / sizeX;
+        float normalY = -((c[2] - c[0]) + (c[3] - c[1]) + (c[6] - c[4]) + (c[7] - c[5])) / sizeY;
+        float normalZ = -((c[4] - c[0]) + (c[5] - c[1]) + (c[6] - c[2]) + (c[7] - c[3])) / sizeZ;
+        final float normalLength = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+        if (normalLength > 0) {
+            normalX /= normalLength;
+            normalY /= normalLength;
+            normalZ /= normalLength;
+        }
+
+        ensureCapacity(vertexCount + 1, indexCount);
+
+        // Keep the unpacked vertex for skirts
+        if (netVertexes.length < (vertexCount + 1) * 6) {
+            netVertexes = Arrays.copyOf(netVertexes, Math.max((vertexCount + 1) * 6, netVertexes.length * 2));
+        }
+        final int netOffset = vertexCount * 6;
+        netVertexes[netOffset] = x;
+        netVertexes[netOffset + 1] = y;
+        netVertexes[netOffset + 2] = z;
+        netVertexes[netOffset + 3] = normalX;
+        netVertexes[netOffset + 4] = normalY;
+        netVertexes[netOffset + 5] = normalZ;
+
+        return addVertex(x, y, z, normalX, normalY, normalZ) & 0xFFFF;
+    }
+
+    private static int clampToChunk(int blockCoordinate, int chunkSize) {
+        if (blockCoordinate < 0) return 0;
+        else if (blockCoordinate >= chunkSize) return chunkSize - 1;
+        else return blockCoordinate;
+    }
+
+    private static float clampToChunk(float position, int chunkSize) {
+        if (position < 0) return 0;
+        else if (position > chunkSize) return chunkSize;
+        else return position;
+    }
+
+    /**
+     * Adds two triangles between four already added vertexes, in counter clockwise order when seen from the front.
+     * Indexes above 32767 wrap to negative shorts, they are read as unsigned values when rendering.
+     * The quad is left out if the mesh already has MAX_INDEXES indexes.  Never happens for chunks up to Chunk.MAX_CHUNK_SIZE.
+     */
+    private void addQuad(int a, int b, int c, int d) {
+        if (indexCount + 6 > MAX_INDEXES) return;
+        ensureCapacity(vertexCount, indexCount + 6);
+
+        indexData[indexCount++] = (short) a;
+        indexData[indexCount++] = (short) b;
+        indexData[indexCount++] = (short) c;
+        indexData[indexCount++] = (short) c;
+        indexData[indexCount++] = (short) d;
+        indexData[indexCount++] = (short) a;
+    }
+
+    private void ensureCapacity(int vertexes, int indexes) {
+        if (vertexes * VERTEX_ATTRIBUTE_DATA_SIZE > vertexData.length) {
+            final float[] newVertexData = new float[Math.max(vertexes * VERTEX_ATTRIBUTE_DATA_SIZE, vertexData.length * 2)];
+            System.arraycopy(vertexData, 0, newVertexData, 0, vertexCount * VERTEX_ATTRIBUTE_DATA_SIZE);
+            vertexData = newVertexData;
+        }
+
+        if (indexes > indexData.length) {
+            final short[] newIndexData = new short[Math.max(indexes, indexData.length * 2)];
+            System.arraycopy(indexData, 0, newIndexData, 0, indexCount);
+            indexData = newIndexData;
+        }
+    }
+
+    /**
+     * Adds a vertex at the position given in blocks from the lowest corner of the chunk, with the specified unit length normal.
+     */
     private short addVertex(float x, float y, float z,
-                           float normalX, float normalY, float normalZ) {
+                            float normalX, float normalY, float normalZ) {
 
         int offset = vertexCount * VERTEX_ATTRIBUTE_DATA_SIZE;
 
-        // Position
-        vertexData[offset++] = x;
-        vertexData[offset++] = y;
-        vertexData[offset++] = z;
+        // Position, quantized to fractions of a block
+        final int packedX = Math.round(x * POSITION_STEPS_PER_BLOCK);
+        final int packedY = Math.round(y * POSITION_STEPS_PER_BLOCK);
+        final int packedZ = Math.round(z * POSITION_STEPS_PER_BLOCK);
 
-        // Normal
-        vertexData[offset++] = normalX;
-        vertexData[offset++] = normalY;
-        vertexData[offset++] = normalZ;
+        // Position and normal
+        vertexData[offset++] = packedX + packedY * PACKED_COMPONENT_RANGE;
+        vertexData[offset++] = packedZ + packNormal(normalX, normalY, normalZ) * PACKED_COMPONENT_RANGE;
 
-        // Color (unpacked)
-        vertexData[offset++] = 1f;
-        vertexData[offset++] = 1f;
-        vertexData[offset++] = 1f;
-        vertexData[offset++] = 1f;
+        // Color (packed)
+        vertexData[offset++] = VERTEX_COLOR;
 
-        short addedVertexIndex = vertexCount;
+        short addedVertexIndex = (short) vertexCount;
 
         vertexCount++;
 
         return addedVertexIndex;
     }
 
+    /**
+     * @return the normal encoded as the two coordinates of its octahedral projection.
+     */
+    private static int packNormal(float normalX, float normalY, float normalZ) {
+        // Project onto the octahedron, and fold the lower half over the upper half
+        final float sum = Math.abs(normalX) + Math.abs(normalY) + Math.abs(normalZ);
+        float u = sum > 0 ? normalX / sum : 0;
+        float v = sum > 0 ? normalY / sum : 0;
+        if (normalZ < 0) {
+            final float foldedU = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+            v = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+            u = foldedU;
+        }
+
+        final int packedU = Math.round((u * 0.5f + 0.5f) * NORMAL_STEPS);
+        final int packedV = Math.round((v * 0.5f + 0.5f) * NORMAL_STEPS);
+        return packedU + packedV * NORMAL_COORDINATE_RANGE;
+    }
+
 }
@@ -0,0 +1,136 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import org.flowutils.Check;
+
+/**
+ * Reuses the GL meshes of chunks, so that remeshing a chunk or moving it to a new location only updates the
+ * vertex and index buffer contents instead of creating new GL buffers.
+ *
+ * Meshes are pooled by capacity class.  A class holds meshes with room for a power of two number of vertexes,
+ * and six times as many indexes, which fits both block side meshes and surface nets.
+ * Only used from the render thread.
+ */
+public final class ChunkMeshPool implements Disposable {
+
+    /**
+     * Default maximum number of free meshes kept in each capacity class.
+     */
+    public static final int DEFAULT_MAX_FREE_MESHES_PER_CLASS = 64;
+
+    private static final int MIN_VERTEX_CAPACITY_SHIFT = 8;
+    private static final int MAX_VERTEX_CAPACITY_SHIFT = 16; // Vertexes are addressed with 16 bit indexes
+    private static final int INDEXES_PER_VERTEX = 6;
+
+    /**
+     * Number of indexes that fit in the meshes of the largest capacity class.
+     */
+    static final int MAX_INDEXES = (1 << MAX_VERTEX_CAPACITY_SHIFT) * INDEXES_PER_VERTEX;
+
+    private final Array<Array<Mesh>> freeMeshes = new Array<Array<Mesh>>();
+    private final int maxFreeMeshesPerClass;
+
+    public ChunkMeshPool() {
+        this(DEFAULT_MAX_FREE_MESHES_PER_CLASS);
+    }
+
+    /**
+     * @param maxFreeMeshesPerClass maximum number of free meshes kept in each capacity class, further freed meshes are disposed.
+     */
+    public ChunkMeshPool(int maxFreeMeshesPerClass) {
+        Check.positiveOrZero(maxFreeMeshesPerClass, "maxFreeMeshesPerClass");
+        this.maxFreeMeshesPerClass = maxFreeMeshesPerClass;
+
+        for (int shift = MIN_VERTEX_CAPACITY_SHIFT; shift <= MAX_VERTEX_CAPACITY_SHIFT; shift++) {
+            freeMeshes.add(new Array<Mesh>());
+        }
+    }
+
+    /**
+     * Uploads mesh data, reusing the previous mesh if it is of the right capacity class.
+     *
+     * @param meshData data to upload.
+     * @param mesh previous mesh obtained from this pool, or null if there was none.  Freed if it is not reused.
+     * @return the mesh with the data.
+     * @throws IllegalArgumentException if the data has more vertexes or indexes than fit in the largest capacity class.
+     */
+    public Mesh upload(ChunkMeshData meshData, Mesh mesh) {
+        final int vertexCount = meshData.getVertexDataSize() / ChunkMeshGenerator.VERTEX_ATTRIBUTE_DATA_SIZE;
+        if (vertexCount > ChunkMeshGenerator.MAX_VERTEXES || meshData.getIndexCount() > MAX_INDEXES) {
+            throw new IllegalArgumentException("The mesh data has " + vertexCount + " vertexes and " + meshData.getIndexCount() + " indexes, " +
+                                               "but at most " + ChunkMeshGenerator.MAX_VERTEXES + " vertexes and " + MAX_INDEXES + " indexes fit in a mesh");
+        }
+        final int capacityClass = getCapacityClass(vertexCount, meshData.getIndexCount());
+
+        if (mesh == null || getCapacityClass(mesh.getMaxVertices(), mesh.getMaxIndices()) != capacityClass) {
+            free(mesh);
+            mesh = obtain(capacityClass);
+        }
+
+        mesh.setVertices(meshData.getVertexData(), 0, meshData.getVertexDataSize());
+        mesh.setIndices(meshData.getIndexData(), 0, meshData.getIndexCount());
+
+        return mesh;
+    }
+
+    /**
+     * Returns a mesh obtained with upload to the pool, or disposes it if the pool for its capacity class is full.
+     * Does nothing if the mesh is null.
+     */
+    public void free(Mesh mesh) {
+        if (mesh == null) return;
+
+        final Array<Mesh> meshes = freeMeshes.get(getCapacityClass(mesh.getMaxVertices(), mesh.getMaxIndices()));
+        if (meshes.size < maxFreeMeshesPerClass) {
+            meshes.add(mesh);
+        }
+        else {
+            mesh.dispose();
+        }
+    }
+
+    /**
+     * @return number of free meshes in the pool.
+     */
+    public int getFreeCount() {
+        int count = 0;
+        for (Array<Mesh> meshes : freeMeshes) {
+            count += meshes.size;
+        }
+        return count;
+    }
+
+    /**
+     * Disposes the free meshes.
+     */
+    @Override public void dispose() {
+        for (Array<Mesh> meshes : freeMeshes) {
+            for (Mesh mesh : meshes) {
+                mesh.dispose();
+            }
+            meshes.clear();
+        }
+    }
+
+    private Mesh obtain(int capacityClass) {
+        final Array<Mesh> meshes = freeMeshes.get(capacityClass);
+        if (meshes.size > 0) {
+            return meshes.pop();
+        }
+        else {
+            final int vertexCapacity = 1 << (capacityClass + MIN_VERTEX_CAPACITY_SHIFT);
+            return new Mesh(false, vertexCapacity, vertexCapacity * INDEXES_PER_VERTEX, ChunkMeshGenerator.VERTEX_ATTRIBUTES);
+        }
+    }
+
+    /**
+     * @return index of the smallest capacity class with room for the vertexes and indexes.
+     */
+    private static int getCapacityClass(int vertexCount, int indexCount) {
+        final int vertexes = Math.max(vertexCount, (indexCount + INDEXES_PER_VERTEX - 1) / INDEXES_PER_VERTEX);
+        final int shift = vertexes <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(vertexes - 1);
+        return Math.min(Math.max(shift, MIN_VERTEX_CAPACITY_SHIFT), MAX_VERTEX_CAPACITY_SHIFT) - MIN_VERTEX_CAPACITY_SHIFT;
+    }
+}
@@ -0,0 +1,138 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.math.Vector3;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the mesh data of one chunk on a mesher thread,
+ * and hands it back to the render thread for upload through a queue of finished mesh tasks.
+ *
+ * Tasks are ordered so that chunks close to the camera are meshed first.
+ */
+final class ChunkMeshTask implements Runnable, Comparable<ChunkMeshTask> {
+
+    private static final AtomicLong NEXT_SEQUENCE_NUMBER = new AtomicLong();
+
+    private final Chunk chunk;
+    private final MeshingMode meshingMode;
+    private final ChunkBorder border;
+    private final ChunkManager chunkManager;
+    private final float distanceToCamera;
+    private final long sequenceNumber = NEXT_SEQUENCE_NUMBER.getAndIncrement();
+
+    private volatile boolean cancelled;
+    private volatile boolean aborted;
+    private volatile boolean failed;
+
+    // Written by the mesher thread before the task is handed back
+    private volatile ChunkMeshData meshData;
+
+    // Only accessed from the render thread
+    private boolean releaseWhenDone;
+
+    /**
+     * @param chunk chunk to mesh.  Its voxel data should already be calculated.
+     * @param meshingMode how to build the mesh.
+     * @param border copy of the blocks of the neighbouring chunks, or null if not used.
+     * @param cameraPosition current camera position, used to prioritize the task.
+     * @param chunkManager manager to get the mesh generator and mesh data from, and to hand the task back to when it has finished.
+     */
+    ChunkMeshTask(Chunk chunk,
+                  MeshingMode meshingMode,
+                  ChunkBorder border,
+                  Vector3 cameraPosition,
+                  ChunkManager chunkManager) {
+        this.chunk = chunk;
+        this.meshingMode = meshingMode;
+        this.border = border;
+        this.chunkManager = chunkManager;
+
+        distanceToCamera = chunk.getCenter().dst(cameraPosition);
+    }
+
+    /**
+     * @return the chunk meshed by this task.
+     */
+    Chunk getChunk() {
+        return chunk;
+    }
+
+    /**
+     * @return copy of the blocks of the neighbouring chunks used for the mesh, or null if not used.
+     */
+    ChunkBorder getBorder() {
+        return border;
+    }
+
+    /**
+     * @return the generated mesh data, or null if the task was aborted, see isAborted.
+     */
+    ChunkMeshData getMeshData() {
+        return meshData;
+    }
+
+    /**
+     * @return true if the task was cancelled before the mesh was generated, or if generating the mesh failed.
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return true if the task was aborted because generating the mesh failed, see isAborted.
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Requests the task to not generate the mesh if it has not started yet.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the chunk was released while it was still being meshed,
+     *         and should be returned to the pool when the task is handed back.
+     */
+    boolean isReleaseWhenDone() {
+        return releaseWhenDone;
+    }
+
+    void setReleaseWhenDone(boolean releaseWhenDone) {
+        this.releaseWhenDone = releaseWhenDone;
+    }
+
+    @Override public void run() {
+        boolean started = false;
+        ChunkMeshData data = null;
+        try {
+            if (!cancelled) {
+                started = true;
+                data = chunkManager.obtainMeshData();
+                chunkManager.getMeshGenerator(meshingMode).generateMeshData(chunk, border, data);
+                meshData = data;
+            }
+        }
+        finally {
+            // Hand the task back as aborted if it was cancelled or generating the mesh failed, so that the chunk can be released.
+            // Any exception or error is still passed on to the executor.
+            if (meshData == null) {
+                if (data != null) chunkManager.freeMeshData(data);
+                failed = started;
+                aborted = true;
+            }
+            chunkManager.meshTaskFinished(this);
+        }
+    }
+
+    @Override public int compareTo(ChunkMeshTask other) {
+        if (distanceToCamera < other.distanceToCamera) return -1;
+        else if (distanceToCamera > other.distanceToCamera) return 1;
+        else if (sequenceNumber < other.sequenceNumber) return -1;
+        else if (sequenceNumber > other.sequenceNumber) return 1;
+        else return 0;
+    }
+}
@@ -0,0 +1,340 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.g3d.Material;
+import com.badlogic.gdx.graphics.g3d.Renderable;
+import com.badlogic.gdx.graphics.g3d.RenderableProvider;
+import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * Merges the meshes of the chunks in a cubical region of a detail level into a few larger meshes, so that the region
+ * is drawn with one draw call per merged mesh instead of one per chunk.
+ *
+ * The chunks rendered in the region are listed again each frame between begin and end.  The merged meshes only need
+ * rebuilding when the listed chunks, their location, or their meshes differ from the previous build.  Regions that moved
+ * or lost chunks are rebuilt right away, so that they do not draw chunks that were released or are now rendered by
+ * another detail level.  The other rebuilds are done within the mesh upload budget of the ChunkManager, until then
+ * the previous merged meshes are rendered.
+ * The chunk colors are baked into the vertex colors.  Only used from the render thread.
+ */
+final class ChunkRegion implements RenderableProvider {
+
+    /**
+     * Largest size of a region along each side in blocks, so that the packed vertex positions of all chunks in the region
+     * fit in the packed component range.  Positions reach the far side of the region, so the region is kept below the range,
+     * at the largest power of two.
+     */
+    static final int MAX_REGION_SIZE_BLOCKS = ChunkMeshGenerator.PACKED_COMPONENT_RANGE / ChunkMeshGenerator.POSITION_STEPS_PER_BLOCK / 2;
+
+    private static final Material REGION_MATERIAL = new Material(ColorAttribute.createDiffuse(Color.WHITE));
+
+    private final int chunkSize;
+    private final float blockSizeMeters;
+    private final float regionSizeMeters;
+
+    // Region coordinates, in units of the region size
+    private long regionX;
+    private long regionY;
+    private long regionZ;
+    private boolean assigned;
+    private boolean moved;
+
+    // Chunks in the latest build, and the chunks listed for this frame, with their mesh versions and locations in chunks
+    private final Array<Chunk> chunks = new Array<Chunk>();
+    private final IntArray chunkStates = new IntArray();
+    private final Array<Chunk> listedChunks = new Array<Chunk>();
+    private final IntArray listedChunkStates = new IntArray();
+
+    // Listed chunks that can be seen from the camera through open blocks
+    private int reachableChunkCount;
+
+    // Size of the mesh data of the listed chunks, whether it differs from the latest build,
+    // and whether chunks in the latest build are not listed anymore at the same location
+    private int listedSizeBytes;
+    private boolean rebuildNeeded;
+    private boolean chunksRemoved;
+
+    private final Array<Mesh> meshes = new Array<Mesh>();
+    private final IntArray meshIndexCounts = new IntArray();
+    private final Matrix4 transform = new Matrix4();
+
+    /**
+     * @param chunkSize number of blocks along each side of the chunks.
+     * @param chunkSizeMeters size of the chunks in meters.
+     */
+    ChunkRegion(int chunkSize, float chunkSizeMeters) {
+        this.chunkSize = chunkSize;
+        this.blockSizeMeters = chunkSizeMeters / chunkSize;
+        this.regionSizeMeters = getRegionSizeInChunks(chunkSize) * chunkSizeMeters;
+    }
+
+    /**
+     * @return number of chunks along each side of a region with the specified chunk size.
+     *         If this is one, merging the meshes would not reduce the number of draw calls.
+     */
+    static int getRegionSizeInChunks(int chunkSize) {
+        return Math.max(1, MAX_REGION_SIZE_BLOCKS / chunkSize);
+    }
+
+    /**
+     * Starts listing the chunks rendered in the region for this frame.
+     */
+    void begin() {
+        listedChunks.clear();
+        listedChunkStates.clear();
+        reachableChunkCount = 0;
+        listedSizeBytes = 0;
+    }
+
+    /**
+     * Places the region at the specified region coordinates.  The meshes of a previous location are kept until the region
+     * is rebuilt, see isChunksRemoved.
+     */
+    void setLocation(long regionX, long regionY, long regionZ) {
+        if (!assigned || this.regionX != regionX || this.regionY != regionY || this.regionZ != regionZ) {
+            this.regionX = regionX;
+            this.regionY = regionY;
+            this.regionZ = regionZ;
+            moved = assigned;
+            assigned = true;
+
+            ChunkMeshGenerator.getMeshTransform(regionX * regionSizeMeters,
+                                                regionY * regionSizeMeters,
+                                                regionZ * regionSizeMeters,
+                                                blockSizeMeters,
+                                                transform);
+        }
+    }
+
+    /**
+     * Lists a chunk to render in the region this frame.  Chunks without a mesh are skipped.
+     *
+     * @param x location of the chunk in the region along the x axis, in chunks.
+     * @param y location of the chunk in the region along the y axis, in chunks.
+     * @param z location of the chunk in the region along the z axis, in chunks.
+     * @param reachable true if the chunk can be seen from the camera through open blocks.  The merged meshes
+     *                  do not depend on this, so that they are not rebuilt when the camera moves.
+     */
+    void add(Chunk chunk, int x, int y, int z, boolean reachable) {
+        final ChunkMeshData meshData = chunk.getBatchedMeshData();
+        if (meshData == null) return;
+
+        if (reachable) reachableChunkCount++;
+        listedSizeBytes += meshData.getSizeBytes();
+        listedChunks.add(chunk);
+        listedChunkStates.add(chunk.getMeshVersion());
+        listedChunkStates.add(x | (y << 8) | (z << 16));
+    }
+
+    /**
+     * Ends listing the chunks of this frame, and checks whether the merged meshes need rebuilding, see isRebuildNeeded
+     * and isChunksRemoved.  The merged meshes are rendered until the region is rebuilt.
+     */
+    void end() {
+        rebuildNeeded = moved || !isListedSameAsBuilt();
+        chunksRemoved = moved || (rebuildNeeded && isBuiltChunkRemoved());
+    }
+
+    /**
+     * @return true if the chunks listed this frame differ from the ones in the merged meshes.
+     */
+    boolean isRebuildNeeded() {
+        return rebuildNeeded;
+    }
+
+    /**
+     * @return true if the region moved, or if chunks in the merged meshes are not listed this frame at the same location.
+     *         The region should then be rebuilt right away, as the merged meshes show chunks that are not rendered
+     *         by this detail level anymore.
+     */
+    boolean isChunksRemoved() {
+        return chunksRemoved;
+    }
+
+    /**
+     * @return number of bytes of vertex and index data uploaded if the region is rebuilt with the chunks listed this frame.
+     */
+    int getListedSizeBytes() {
+        return listedSizeBytes;
+    }
+
+    /**
+     * Rebuilds the merged meshes from the chunks listed this frame.  Should be called after end.
+     *
+     * @param meshPool pool to get the merged meshes from and return them to.
+     * @param mergedMeshData buffer used for merging the chunk meshes.
+     */
+    void rebuild(ChunkMeshPool meshPool, ChunkMeshData mergedMeshData) {
+        chunks.clear();
+        chunks.addAll(listedChunks);
+        chunkStates.clear();
+        chunkStates.addAll(listedChunkStates);
+        rebuildNeeded = false;
+        chunksRemoved = false;
+        moved = false;
+
+        mergeChunks(meshPool, mergedMeshData);
+    }
+
+    private boolean isBuiltChunkRemoved() {
+        for (int i = 0; i < chunks.size; i++) {
+            if (!isListed(chunks.get(i), chunkStates.get(i * 2 + 1))) return true;
+        }
+        return false;
+    }
+
+    private boolean isListed(Chunk chunk, int location) {
+        for (int i = 0; i < listedChunks.size; i++) {
+            if (listedChunks.get(i) == chunk && listedChunkStates.get(i * 2 + 1) == location) return true;
+        }
+        return false;
+    }
+
+    private boolean isListedSameAsBuilt() {
+        if (listedChunks.size != chunks.size) return false;
+
+        for (int i = 0; i < chunks.size; i++) {
+            if (listedChunks.get(i) != chunks.get(i) ||
+                listedChunkStates.get(i * 2) != chunkStates.get(i * 2) ||
+                listedChunkStates.get(i * 2 + 1) != chunkStates.get(i * 2 + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of merged meshes, each drawn with one draw call.
+     */
+    int getMeshCount() {
+        return meshes.size;
+    }
+
+    /**
+     * @return number of chunks merged into the meshes.
+     */
+    int getChunkCount() {
+        return chunks.size;
+    }
+
+    /**
+     * @return number of chunks listed this frame that can be seen from the camera through open blocks.
+     *         If there are none, the region is hidden.
+     */
+    int getReachableChunkCount() {
+        return reachableChunkCount;
+    }
+
+    /**
+     * @return the center of the region in world coordinates.
+     */
+    Vector3 getCenter(Vector3 centerOut) {
+        return centerOut.set((regionX + 0.5f) * regionSizeMeters,
+                             (regionY + 0.5f) * regionSizeMeters,
+                             (regionZ + 0.5f) * regionSizeMeters);
+    }
+
+    /**
+     * @return size of the region along each side in meters.
+     */
+    float getSizeMeters() {
+        return regionSizeMeters;
+    }
+
+    @Override public void getRenderables(Array<Renderable> renderables, Pool<Renderable> pool) {
+        for (int i = 0; i < meshes.size; i++) {
+            final Renderable renderable = pool.obtain();
+            renderable.mesh = meshes.get(i);
+            renderable.meshPartOffset = 0;
+            renderable.meshPartSize = meshIndexCounts.get(i);
+            renderable.primitiveType = GL20.GL_TRIANGLES;
+            renderable.material = REGION_MATERIAL;
+            renderable.bones = null;
+            renderable.shader = null;
+            renderable.userData = null;
+            renderable.worldTransform.set(transform);
+            renderables.add(renderable);
+        }
+    }
+
+    /**
+     * Disposes the merged meshes.
+     */
+    void dispose() {
+        for (Mesh mesh : meshes) {
+            mesh.dispose();
+        }
+        meshes.clear();
+        meshIndexCounts.clear();
+        chunks.clear();
+        chunkStates.clear();
+        listedChunks.clear();
+        listedChunkStates.clear();
+        assigned = false;
+        moved = false;
+        rebuildNeeded = false;
+        chunksRemoved = false;
+    }
+
+    private void mergeChunks(ChunkMeshPool meshPool, ChunkMeshData mergedMeshData) {
+        int meshCount = 0;
+        mergedMeshData.clear();
+
+        for (int i = 0; i < chunks.size; i++) {
+            final Chunk chunk = chunks.get(i);
+            final ChunkMeshData chunkMeshData = chunk.getBatchedMeshData();
+            final int location = chunkStates.get(i * 2 + 1);
+
+            // Start a new merged mesh when the vertexes would not be addressable with 16 bit indexes anymore,
+            // or the indexes would not fit in the largest pooled mesh
+            if (mergedMeshData.getIndexCount() > 0 &&
+                (mergedMeshData.getVertexCount() + chunkMeshData.getVertexCount() > ChunkMeshGenerator.MAX_VERTEXES ||
+                 mergedMeshData.getIndexCount() + chunkMeshData.getIndexCount() > ChunkMeshPool.MAX_INDEXES)) {
+                upload(meshCount++, meshPool, mergedMeshData);
+                mergedMeshData.clear();
+            }
+
+            mergedMeshData.append(chunkMeshData,
+                                  (location & 0xFF) * chunkSize,
+                                  ((location >> 8) & 0xFF) * chunkSize,
+                                  ((location >> 16) & 0xFF) * chunkSize,
+                                  chunk.getColorBits());
+            chunk.meshMergedToRegion(chunkStates.get(i * 2));
+        }
+
+        if (mergedMeshData.getIndexCount() > 0) {
+            upload(meshCount++, meshPool, mergedMeshData);
+        }
+
+        // Return meshes that are not needed anymore
+        freeMeshes(meshPool, meshCount);
+    }
+
+    /**
+     * Returns the merged meshes after the specified number of first meshes to the pool.
+     */
+    private void freeMeshes(ChunkMeshPool meshPool, int keptMeshCount) {
+        while (meshes.size > keptMeshCount) {
+            meshPool.free(meshes.pop());
+            meshIndexCounts.pop();
+        }
+    }
+
+    private void upload(int meshIndex, ChunkMeshPool meshPool, ChunkMeshData meshData) {
+        if (meshIndex < meshes.size) {
+            meshes.set(meshIndex, meshPool.upload(meshData, meshes.get(meshIndex)));
+            meshIndexCounts.set(meshIndex, meshData.getIndexCount());
+        }
+        else {
+            meshes.add(meshPool.upload(meshData, null));
+            meshIndexCounts.add(meshData.getIndexCount());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.g3d.Environment;
+import com.badlogic.gdx.graphics.g3d.Renderable;
+import com.badlogic.gdx.graphics.g3d.Shader;
+import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
+import com.badlogic.gdx.graphics.g3d.environment.DirectionalLight;
+import com.badlogic.gdx.graphics.g3d.utils.RenderContext;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+
+import static org.landscapelib.voxel.ChunkMeshGenerator.*;
+
+/**
+ * Renders chunk meshes with the packed vertex format of the ChunkMeshGenerator,
+ * lit with the ambient light and the first directional light of the environment.
+ */
+public class ChunkShader implements Shader {
+
+    private static final String VERTEX_SHADER =
+            "attribute vec2 " + PACKED_ATTRIBUTE_ALIAS + ";\n" +
+            "attribute vec4 a_color;\n" +
+            "uniform mat4 u_projViewTrans;\n" +
+            "uniform mat4 u_worldTrans;\n" +
+            "uniform vec4 u_diffuseColor;\n" +
+            "uniform vec3 u_ambientLight;\n" +
+            "uniform vec3 u_lightColor;\n" +
+            "uniform vec3 u_lightDirection;\n" +
+            "varying vec4 v_color;\n" +
+            "\n" +
+            "void main() {\n" +
+            "    // Unpack x + y * range and z + normal * range\n" +
+            "    float y = floor((" + PACKED_ATTRIBUTE_ALIAS + ".x + 0.5) / " + PACKED_COMPONENT_RANGE + ".0);\n" +
+            "    float x = " + PACKED_ATTRIBUTE_ALIAS + ".x - y * " + PACKED_COMPONENT_RANGE + ".0;\n" +
+            "    float packedNormal = floor((" + PACKED_ATTRIBUTE_ALIAS + ".y + 0.5) / " + PACKED_COMPONENT_RANGE + ".0);\n" +
+            "    float z = " + PACKED_ATTRIBUTE_ALIAS + ".y - packedNormal * " + PACKED_COMPONENT_RANGE + ".0;\n" +
+            "\n" +
+            "    // Decode the octahedral normal\n" +
+            "    float normalV = floor((packedNormal + 0.5) / " + NORMAL_COORDINATE_RANGE + ".0);\n" +
+            "    float normalU = packedNormal - normalV * " + NORMAL_COORDINATE_RANGE + ".0;\n" +
+            "    vec2 octahedral = vec2(normalU, normalV) * (2.0 / " + NORMAL_STEPS + ".0) - 1.0;\n" +
+            "    vec3 normal = vec3(octahedral, 1.0 - abs(octahedral.x) - abs(octahedral.y));\n" +
+            "    if (normal.z < 0.0) {\n" +
+            "        normal.xy = (1.0 - abs(octahedral.yx)) * vec2(octahedral.x >= 0.0 ? 1.0 : -1.0,\n" +
+            "                                                      octahedral.y >= 0.0 ? 1.0 : -1.0);\n" +
+            "    }\n" +
+            "    normal = normalize((u_worldTrans * vec4(normal, 0.0)).xyz);\n" +
+            "\n" +
+            "    float lambert = max(dot(normal, -u_lightDirection), 0.0);\n" +
+            "    v_color = a_color * u_diffuseColor * vec4(u_ambientLight + u_lightColor * lambert, 1.0);\n" +
+            "    gl_Position = u_projViewTrans * u_worldTrans * vec4(x, y, z, 1.0);\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#ifdef GL_ES\n" +
+            "precision mediump float;\n" +
+            "#endif\n" +
+            "varying vec4 v_color;\n" +
+            "\n" +
+            "void main() {\n" +
+            "    gl_FragColor = v_color;\n" +
+            "}\n";
+
+    private ShaderProgram program;
+
+    @Override public void init() {
+        program = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        if (!program.isCompiled()) {
+            throw new IllegalStateException("Could not compile chunk shader: " + program.getLog());
+        }
+    }
+
+    @Override public int compareTo(Shader other) {
+        return 0;
+    }
+
+    @Override public boolean canRender(Renderable instance) {
+        return ChunkMeshGenerator.isChunkMesh(instance.mesh);
+    }
+
+    @Override public void begin(Camera camera, RenderContext context) {
+        program.begin();
+        program.setUniformMatrix("u_projViewTrans", camera.combined);
+
+        context.setDepthTest(GL20.GL_LEQUAL);
+        context.setDepthMask(true);
+        context.setCullFace(GL20.GL_BACK);
+    }
+
+    @Override public void render(Renderable renderable) {
+        program.setUniformMatrix("u_worldTrans", renderable.worldTransform);
+
+        final ColorAttribute diffuse = renderable.material == null ? null : renderable.material.get(ColorAttribute.class, ColorAttribute.Diffuse);
+        program.setUniformf("u_diffuseColor", diffuse != null ? diffuse.color : Color.WHITE);
+
+        setLights(renderable.environment);
+
+        renderable.mesh.render(program, renderable.primitiveType, renderable.meshPartOffset, renderable.meshPartSize);
+    }
+
+    private void setLights(Environment environment) {
+        final ColorAttribute ambient = environment == null ? null : environment.get(ColorAttribute.class, ColorAttribute.AmbientLight);
+        if (ambient != null) program.setUniformf("u_ambientLight", ambient.color.r, ambient.color.g, ambient.color.b);
+        else program.setUniformf("u_ambientLight", 1, 1, 1);
+
+        if (environment != null && environment.directionalLights.size > 0) {
+            final DirectionalLight light = environment.directionalLights.get(0);
+            program.setUniformf("u_lightColor", light.color.r, light.color.g, light.color.b);
+            program.setUniformf("u_lightDirection", light.direction);
+        }
+        else {
+            program.setUniformf("u_lightColor", 0, 0, 0);
+            program.setUniformf("u_lightDirection", 0, -1, 0);
+        }
+    }
+
+    @Override public void end() {
+        program.end();
+    }
+
+    @Override public void dispose() {
+        if (program != null) {
+            program.dispose();
+            program = null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.graphics.g3d.Renderable;
+import com.badlogic.gdx.graphics.g3d.Shader;
+import com.badlogic.gdx.graphics.g3d.utils.DefaultShaderProvider;
+
+/**
+ * Shader provider for a ModelBatch that renders chunk meshes with a {@link ChunkShader},
+ * and other models with the default shaders.
+ */
+public class ChunkShaderProvider extends DefaultShaderProvider {
+
+    @Override protected Shader createShader(Renderable renderable) {
+        if (ChunkMeshGenerator.isChunkMesh(renderable.mesh)) {
+            return new ChunkShader();
+        }
+        else {
+            return super.createShader(renderable);
+        }
+    }
+}
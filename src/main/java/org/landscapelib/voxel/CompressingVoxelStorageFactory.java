@@ -0,0 +1,131 @@
+package org.landscapelib.voxel;
+
+import static org.flowutils.Check.notNull;
+
+/**
+ * Picks the most compact storage for each chunk:
+ * chunks where all voxels are the same share a UniformVoxelStorage,
+ * chunks with few different voxels use a palette with bit-packed indexes,
+ * and other chunks are stored with the wrapped factory.
+ */
+public final class CompressingVoxelStorageFactory implements VoxelStorageFactory {
+
+    private static final int HASH_TABLE_SIZE = PaletteVoxelStorage.MAX_PALETTE_SIZE * 2;
+    private static final int HASH_TABLE_MASK = HASH_TABLE_SIZE - 1;
+
+    private final VoxelStorageFactory fullStorageFactory;
+
+    /**
+     * Scratch space for finding the palette of a chunk, one per generator thread.
+     */
+    private final ThreadLocal<PaletteBuilder> paletteBuilder = new ThreadLocal<PaletteBuilder>() {
+        @Override protected PaletteBuilder initialValue() {
+            return new PaletteBuilder();
+        }
+    };
+
+    public CompressingVoxelStorageFactory() {
+        this(new ArrayVoxelStorageFactory());
+    }
+
+    /**
+     * @param fullStorageFactory factory used for chunks that do not compress well.
+     */
+    public CompressingVoxelStorageFactory(VoxelStorageFactory fullStorageFactory) {
+        notNull(fullStorageFactory, "fullStorageFactory");
+
+        this.fullStorageFactory = fullStorageFactory;
+    }
+
+    @Override public VoxelStorage createStorage(VoxelBuffer data) {
+        final int blockCount = data.getBlockCount();
+
+        final PaletteBuilder palette = paletteBuilder.get();
+        if (!palette.build(data)) {
+            // Too many different voxels
+            return fullStorageFactory.createStorage(data);
+        }
+
+        if (palette.size == 1) {
+            return UniformVoxelStorage.get(data.getPrimaryMaterial()[0],
+                                           data.getSecondaryMaterial()[0],
+                                           data.getMaterialRatio()[0],
+                                           data.getVolume()[0]);
+        }
+        else if (PaletteVoxelStorage.calculateMemoryUsageBytes(palette.size, blockCount) < blockCount * 4) {
+            return new PaletteVoxelStorage(palette.entries, palette.size, palette.voxelIndexes, blockCount);
+        }
+        else {
+            return fullStorageFactory.createStorage(data);
+        }
+    }
+
+    /**
+     * Collects the distinct voxels of a chunk using a small open addressing hash table.
+     */
+    private static final class PaletteBuilder {
+        private final int[] entries = new int[PaletteVoxelStorage.MAX_PALETTE_SIZE];
+        private final int[] hashKeys = new int[HASH_TABLE_SIZE];
+        private final int[] hashValues = new int[HASH_TABLE_SIZE];
+        private int[] voxelIndexes = new int[0];
+        private int size;
+
+        /**
+         * @return true if the palette was built, false if the data has more distinct voxels than fit in a palette.
+         */
+        boolean build(VoxelBuffer data) {
+            final int blockCount = data.getBlockCount();
+            if (voxelIndexes.length < blockCount) {
+                voxelIndexes = new int[blockCount];
+            }
+
+            // Hash values are palette index + 1, so that zero marks an empty slot
+            for (int i = 0; i < HASH_TABLE_SIZE; i++) {
+                hashValues[i] = 0;
+            }
+            size = 0;
+
+            final byte[] primaryMaterial = data.getPrimaryMaterial();
+            final byte[] secondaryMaterial = data.getSecondaryMaterial();
+            final byte[] materialRatio = data.getMaterialRatio();
+            final byte[] volume = data.getVolume();
+
+            int previousVoxel = 0;
+            int previousIndex = -1;
+            for (int i = 0; i < blockCount; i++) {
+                final int voxel = UniformVoxelStorage.packVoxel(primaryMaterial[i], secondaryMaterial[i], materialRatio[i], volume[i]);
+
+                // Runs of identical voxels are common, skip the lookup for them
+                if (voxel != previousVoxel || previousIndex < 0) {
+                    previousIndex = findOrAdd(voxel);
+                    if (previousIndex < 0) return false;
+                    previousVoxel = voxel;
+                }
+
+                voxelIndexes[i] = previousIndex;
+            }
+
+            return true;
+        }
+
+        private int findOrAdd(int voxel) {
+            int slot = hash(voxel) & HASH_TABLE_MASK;
+            while (hashValues[slot] != 0) {
+                if (hashKeys[slot] == voxel) return hashValues[slot] - 1;
+                slot = (slot + 1) & HASH_TABLE_MASK;
+            }
+
+            if (size >= entries.length) return -1;
+
+            entries[size] = voxel;
+            hashKeys[slot] = voxel;
+            hashValues[slot] = ++size;
+            return size - 1;
+        }
+
+        private static int hash(int value) {
+            value *= 0x9E3779B9;
+            return value ^ (value >>> 16);
+        }
+    }
+}
@@ -4,9 +4,15 @@ import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.g3d.Environment;
 import com.badlogic.gdx.graphics.g3d.ModelBatch;
+import com.badlogic.gdx.math.Plane;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import org.flowutils.Check;
 
+import java.util.Arrays;
+import java.util.Comparator;
+
 import static org.flowutils.Check.notNull;
 
 /**
@@ -14,15 +20,36 @@ import static org.flowutils.Check.notNull;
  */
 public class DetailLevel {
 
+    /**
+     * Number of chunks along each side of the blocks of chunks that are tested against the view frustum as a whole,
+     * before testing the individual chunks.
+     */
+    private static final int CULLING_BLOCK_SIZE = 4;
+
+    // Boxes of chunk locations relative to the lowest corner of the stored area are stored as
+    // the start x, y and z (inclusive) followed by the end x, y and z (exclusive)
+    private static final int BOX_SIZE = 6;
+
+    // Side used for the chunk of the camera, where the traversal of chunks reachable from the camera starts
+    private static final int NO_SIDE = -1;
+
+    // Results of testing a box against the view frustum
+    private static final int OUTSIDE_FRUSTUM = 0;
+    private static final int INTERSECTS_FRUSTUM = 1;
+    private static final int INSIDE_FRUSTUM = 2;
+
+    // Chunks indexed by their world chunk coordinates wrapped to the storage size, so that moving the center
+    // only replaces the chunks in the slabs that scroll out and in
     private final Chunk[] chunks;
-    private final Chunk[] tempChunks;
 
     private final WorldFunction worldFunction;
 
     private final Camera camera;
     private final float chunkSizeMeters;
+    private final int chunkSize;
     private final ChunkManager chunkManager;
     private final DetailLevel higherDetailLevel;
+    private DetailLevel lowerDetailLevel;
 
     private long centerChunkX;
     private long centerChunkY;
@@ -47,23 +74,94 @@ public class DetailLevel {
     private Vector3 boundingVolumeEnd;
 
     private Vector3 temp = new Vector3();
+    private final int[] slabPos = new int[3];
+
+    private final Array<Vector3> missingChunkCenters = new Array<Vector3>();
+    private final IntArray missingChunkIndexes = new IntArray();
+    private final Array<Vector3> freeChunkCenters = new Array<Vector3>();
+
+    // Missing chunks waiting to be generated, with the distance from the camera in chunks in the upper bits
+    // and the location relative to the lowest corner of the stored area in the lower bits, so that they sort center out.
+    // The chunks before nextQueuedChunk have already been generated.
+    private long[] queuedChunkKeys = new long[64];
+    private int queuedChunkCount;
+    private int nextQueuedChunk;
+
+    // The visible area and the hole when missing chunks were last generated, and scratch boxes used for finding the newly visible locations
+    private final int[] visibleBox = new int[BOX_SIZE];
+    private final int[] previousVisibleBox = new int[BOX_SIZE];
+    private final int[] holeBox = new int[BOX_SIZE];
+    private final int[] previousHoleBox = new int[BOX_SIZE];
+    private final int[] shiftedBox = new int[BOX_SIZE];
+    private final int[] remainingBox = new int[BOX_SIZE];
+    private final int[] slabBox = new int[BOX_SIZE];
+    private final Array<Chunk> generatedChunks = new Array<Chunk>();
+    private final Chunk[] neighbours = new Chunk[ChunkBorder.NEIGHBOUR_COUNT];
 
     private final ChunkMeshGenerator chunkMeshGenerator;
 
+    // Regions that merge the meshes of neighbouring chunks, indexed by the region coordinates wrapped to the region grid,
+    // or null if the chunks are too large to merge
+    private final ChunkRegion[] regions;
+    private final int regionSize;
+    private final int regionGridSize;
+    private final ChunkMeshData mergedMeshData = new ChunkMeshData();
+
+    // Regions whose chunks changed this frame, rebuilt closest to the camera first
+    private final Array<ChunkRegion> changedRegions = new Array<ChunkRegion>();
+    private final Vector3 regionCenterA = new Vector3();
+    private final Vector3 regionCenterB = new Vector3();
+    private final Comparator<ChunkRegion> regionDistanceComparator = new Comparator<ChunkRegion>() {
+        @Override public int compare(ChunkRegion a, ChunkRegion b) {
+            return Float.compare(a.getCenter(regionCenterA).dst2(camera.position),
+                                 b.getCenter(regionCenterB).dst2(camera.position));
+        }
+    };
+
+    // Chunks left out of the latest frame as they were outside the view frustum
+    private int culledChunkCount;
+    private final Vector3 cullingCenter = new Vector3();
+
+    // Chunks reachable from the camera through open blocks in the latest frame are marked with the stamp of the frame,
+    // indexed by the coordinates relative to the lowest corner of the stored area.  For the marked chunks the traversal
+    // also keeps the sides they were entered from, and the sides they were left through, as bit flags.
+    private final int[] reachableStamps;
+    private final byte[] enteredSides;
+    private final byte[] exitSides;
+    private int reachableStamp = 0;
+    private final IntArray traversalQueue = new IntArray();
+    private final int[] traversalPos = new int[3];
+
+    // Chunks left out of the latest frame as they could not be seen through open blocks
+    private int occludedChunkCount;
+
+    // Chunks in the hole that are still rendered, as the higher detail level is not yet ready to render their area,
+    // marked with the stamp of the latest update and indexed by the coordinates relative to the lowest corner of the stored area.
+    // Chunks that overlap the hole are also still rendered, as the higher detail level is ready to render their area,
+    // but the merged meshes of its regions have not yet been rebuilt with the chunks in it.
+    private final int[] holeCoverStamps;
+    private final int[] holeOverlapStamps;
+    private int holeCoverStamp = 0;
+    private final int[] holeCoverBox = new int[BOX_SIZE];
+    private final Vector3 coverCenter = new Vector3();
+    private final Vector3 coverAreaStart = new Vector3();
+    private final Vector3 coverAreaEnd = new Vector3();
 
     /**
      * @param worldFunction function used to generate the world.
      * @param camera camera to use as the center.
      * @param chunkSizeMeters size of chunks in this detail level in meters.
+     * @param chunkSize number of blocks along each side of the chunks in this detail level.
      * @param chunkManager manager used to generate and release chunks.
      * @param layerSize visible size of this detail level along the edges, in number of chunks.  Includes eventual hole size.
      * @param holeSize size of hole left in the middle of this detail layer for higher detail layers,
      * @param cacheMargin size of the margin around the visible area potentially containing cached chunks, in number of chunks.
-     * @param chunkMeshGenerator used to create meshes for chunks.
+     * @param chunkMeshGenerator determines how the meshes of the chunks are built.  The chunk manager builds them in the background.
      */
     public DetailLevel(WorldFunction worldFunction,
                        Camera camera,
                        float chunkSizeMeters,
+                       int chunkSize,
                        ChunkManager chunkManager,
                        int layerSize,
                        int holeSize,
@@ -77,17 +175,22 @@ public class DetailLevel {
         notNull(chunkMeshGenerator, "chunkMeshGenerator");
 
         Check.positive(chunkSizeMeters, "chunkSizeMeters");
+        Chunk.checkChunkSize(chunkSize, "chunkSize");
         Check.positive(layerSize, "layerSize");
         Check.positiveOrZero(holeSize, "holeSize");
         Check.positiveOrZero(cacheMargin, "cacheMargin");
         Check.positiveOrZero(levelOfDetailMargin, "levelOfDetailMargin");
         Check.greater(layerSize, "layerSize", holeSize, "holeSize");
 
+        // The hole is covered by the higher detail level
+        if (holeSize > 0) notNull(higherDetailLevel, "higherDetailLevel");
+
         this.chunkMeshGenerator = chunkMeshGenerator;
         this.higherDetailLevel = higherDetailLevel;
         this.worldFunction = worldFunction;
         this.camera = camera;
         this.chunkSizeMeters = chunkSizeMeters;
+        this.chunkSize = chunkSize;
         this.chunkManager = chunkManager;
         this.holeSize = holeSize;
         this.layerSize = layerSize;
@@ -96,18 +199,39 @@ public class DetailLevel {
 
         storageSize = layerSize + 2 * cacheMargin + 2 * levelOfDetailMargin;
         chunks = new Chunk[storageSize * storageSize * storageSize];
-        tempChunks = new Chunk[storageSize * storageSize * storageSize];
+        reachableStamps = new int[storageSize * storageSize * storageSize];
+        enteredSides = new byte[storageSize * storageSize * storageSize];
+        exitSides = new byte[storageSize * storageSize * storageSize];
+        holeCoverStamps = new int[storageSize * storageSize * storageSize];
+        holeOverlapStamps = new int[storageSize * storageSize * storageSize];
+        if (higherDetailLevel != null) {
+            higherDetailLevel.lowerDetailLevel = this;
+        }
 
         debugColor1 = new Color(1 - ((chunkSizeMeters) / (chunkSizeMeters + 10f)),
                                 0.5f,
                                 (chunkSizeMeters) / (chunkSizeMeters + 100f), 1f) ;
         debugColor2 = debugColor1.cpy().lerp(Color.WHITE, 0.25f);
 
+        regionSize = ChunkRegion.getRegionSizeInChunks(chunkSize);
+        if (regionSize > 1) {
+            // The stored chunks span at most this many regions along each axis, so the regions in use never share a grid cell
+            regionGridSize = storageSize / regionSize + 2;
+            regions = new ChunkRegion[regionGridSize * regionGridSize * regionGridSize];
+            for (int i = 0; i < regions.length; i++) {
+                regions[i] = new ChunkRegion(chunkSize, chunkSizeMeters);
+            }
+        }
+        else {
+            regionGridSize = 0;
+            regions = null;
+        }
+
         // Initialize position
         final Vector3 cameraPos = camera.position;
         setCenter(cameraPos);
 
-        generateMissingChunks();
+        queueMissingChunks(0, 0, 0, true);
     }
 
     public void update(double secondsSinceLastUpdate) {
@@ -122,7 +246,7 @@ public class DetailLevel {
             cameraChunkY != centerChunkY ||
             cameraChunkZ != centerChunkZ) {
 
-            // Center on the new chunk, move existing chunks, release cached chunks that scroll out, and generate new visible chunks that scroll in
+            // Center on the new chunk, move existing chunks, release cached chunks that scroll out, and queue new visible chunks that scroll in
             long deltaX = cameraChunkX - centerChunkX;
             long deltaY = cameraChunkY - centerChunkY;
             long deltaZ = cameraChunkZ - centerChunkZ;
@@ -131,10 +255,154 @@ public class DetailLevel {
 
             updateHoleExtent();
 
-            moveChunks(deltaX, deltaY, deltaZ);
+            final boolean allReleased = moveChunks(deltaX, deltaY, deltaZ);
+
+            queueMissingChunks((int) deltaX, (int) deltaY, (int) deltaZ, allReleased);
+        }
+    }
+
+    /**
+     * Determines which chunks in the hole are still rendered, because the higher detail level has not yet generated and meshed
+     * all the chunks in their area.  Chunks in the hole are not generated, but the chunks that the hole moved over
+     * are kept until they scroll out, so after a move the area of the new chunks of the higher detail level is still covered.
+     * The higher detail level leaves out its chunks in the covered area.
+     * Once they are ready, the higher detail level renders them, but the chunks of this level still overlap them until
+     * they have been drawn, as merged region meshes may be rebuilt in later frames, so that no gaps open in between.
+     * Should be called after all detail levels have been updated.
+     */
+    void updateHoleCover() {
+        if (holeCoverStamp == Integer.MAX_VALUE) {
+            Arrays.fill(holeCoverStamps, 0);
+            Arrays.fill(holeOverlapStamps, 0);
+            holeCoverStamp = 0;
+        }
+        holeCoverStamp++;
+
+        if (higherDetailLevel == null) return;
+
+        final float halfChunkSizeMeters = 0.5f * chunkSizeMeters;
+        getHoleBox(holeCoverBox);
+        for (int z = holeCoverBox[2]; z < holeCoverBox[5]; z++) {
+            for (int y = holeCoverBox[1]; y < holeCoverBox[4]; y++) {
+                for (int x = holeCoverBox[0]; x < holeCoverBox[3]; x++) {
+                    final Chunk chunk = getChunk(x, y, z);
+                    if (chunk != null && chunk.isReadyToRender() && isInHole(x, y, z)) {
+                        getChunkCenter(x, y, z, coverCenter);
+                        coverAreaStart.set(coverCenter).sub(halfChunkSizeMeters);
+                        coverAreaEnd.set(coverCenter).add(halfChunkSizeMeters);
+                        if (!higherDetailLevel.isAreaReady(coverAreaStart, coverAreaEnd, false)) {
+                            holeCoverStamps[x + y * storageSize + z * storageSize * storageSize] = holeCoverStamp;
+                        }
+                        else if (!higherDetailLevel.isAreaReady(coverAreaStart, coverAreaEnd, true)) {
+                            holeOverlapStamps[x + y * storageSize + z * storageSize * storageSize] = holeCoverStamp;
+                        }
+                    }
+                }
+            }
+        }
+    }
 
-            generateMissingChunks();
+    /**
+     * @param drawn if true, the meshes of the chunks should also be drawn, see Chunk.isMeshDrawn.
+     * @return true if all the chunks with their centers in the specified area have been generated and meshed,
+     *         or their area is ready in a higher detail level.
+     */
+    private boolean isAreaReady(Vector3 areaStart, Vector3 areaEnd, boolean drawn) {
+        final float halfChunkSizeMeters = 0.5f * chunkSizeMeters;
+        final int startX = worldPosToStorage(areaStart.x + halfChunkSizeMeters, centerChunkX);
+        final int startY = worldPosToStorage(areaStart.y + halfChunkSizeMeters, centerChunkY);
+        final int startZ = worldPosToStorage(areaStart.z + halfChunkSizeMeters, centerChunkZ);
+        final int endX = worldPosToStorage(areaEnd.x - halfChunkSizeMeters, centerChunkX);
+        final int endY = worldPosToStorage(areaEnd.y - halfChunkSizeMeters, centerChunkY);
+        final int endZ = worldPosToStorage(areaEnd.z - halfChunkSizeMeters, centerChunkZ);
+
+        for (int z = startZ; z <= endZ; z++) {
+            for (int y = startY; y <= endY; y++) {
+                for (int x = startX; x <= endX; x++) {
+                    if (!isLocationReady(x, y, z, drawn)) return false;
+                }
+            }
         }
+        return true;
+    }
+
+    /**
+     * @return true if the chunk at the location has been generated and meshed, or does not need a mesh.
+     *         Chunks whose calculation was aborted or whose meshing failed are counted as ready, as they are not
+     *         calculated or meshed again, and would otherwise keep the lower detail level covering them.
+     *         If drawn is true, the mesh should also be drawn, see Chunk.isMeshDrawn.
+     *         In the hole it is enough if the area is ready in the higher detail level instead.
+     */
+    private boolean isLocationReady(int x, int y, int z, boolean drawn) {
+        final Chunk chunk = getChunk(x, y, z);
+        final boolean chunkReady = chunk != null &&
+                                   (chunk.isCalculationAborted() || chunk.isMeshingFailed() ||
+                                    (chunk.isCalculated() &&
+                                     ((chunk.isReadyToRender() && (!drawn || chunk.isMeshDrawn())) ||
+                                      isSolidChunkSurroundedBySolidChunks(z, y, x, chunk))));
+        if (chunkReady || !isInHole(x, y, z)) {
+            return chunkReady;
+        }
+        else {
+            // The chunk of this level is not rendered over the area if the higher detail level is ready
+            final float halfChunkSizeMeters = 0.5f * chunkSizeMeters;
+            getChunkCenter(x, y, z, coverCenter);
+            coverAreaStart.set(coverCenter).sub(halfChunkSizeMeters);
+            coverAreaEnd.set(coverCenter).add(halfChunkSizeMeters);
+            return higherDetailLevel.isAreaReady(coverAreaStart, coverAreaEnd, drawn);
+        }
+    }
+
+    /**
+     * @return true if the chunk at the specified coordinates is in the hole, but still rendered by this level,
+     *         as the higher detail level is not ready to render its area.
+     */
+    private boolean isCoveringHole(int x, int y, int z) {
+        return holeCoverStamps[x + y * storageSize + z * storageSize * storageSize] == holeCoverStamp;
+    }
+
+    /**
+     * @return true if the chunk at the specified coordinates is in the hole, but still rendered by this level,
+     *         either covering or overlapping the area of the higher detail level.
+     */
+    private boolean isRenderedInHole(int x, int y, int z) {
+        final int index = x + y * storageSize + z * storageSize * storageSize;
+        return holeCoverStamps[index] == holeCoverStamp || holeOverlapStamps[index] == holeCoverStamp;
+    }
+
+    /**
+     * @return true if the chunk of this level that contains the world position is in the hole, but still rendered,
+     *         as the higher detail level is not ready to render its area.
+     */
+    private boolean isCoveringHole(Vector3 worldPos) {
+        final int x = worldPosToStorage(worldPos.x, centerChunkX);
+        final int y = worldPosToStorage(worldPos.y, centerChunkY);
+        final int z = worldPosToStorage(worldPos.z, centerChunkZ);
+        return getChunkIndex(x, y, z) >= 0 && isCoveringHole(x, y, z);
+    }
+
+    /**
+     * @return true if the area of the chunk at the specified coordinates is still rendered by the lower detail level.
+     */
+    private boolean isCoveredByLowerDetailLevel(int x, int y, int z) {
+        if (lowerDetailLevel == null) return false;
+
+        getChunkCenter(x, y, z, coverCenter);
+        return lowerDetailLevel.isCoveringHole(coverCenter);
+    }
+
+    /**
+     * @return size of the chunks in this detail level in meters.
+     */
+    public float getChunkSizeMeters() {
+        return chunkSizeMeters;
+    }
+
+    /**
+     * @return number of blocks along each side of the chunks in this detail level.
+     */
+    public int getChunkSize() {
+        return chunkSize;
     }
 
     private void updateHoleExtent() {
@@ -158,25 +426,376 @@ public class DetailLevel {
         this.boundingVolumeEnd = boundingVolumeEnd;
     }
 
+    /**
+     * Renders the visible chunks.  Unless the chunks are too large, the meshes of neighbouring chunks are merged into regions,
+     * which are rebuilt when the chunks rendered in them change.
+     * Chunks and regions outside the view frustum of the camera, or that can not be seen from the camera through open blocks,
+     * are not drawn, but their meshes are still kept up to date, so that they are ready when the camera turns or moves.
+     */
     public void render(ModelBatch modelBatch, Environment environment) {
+        culledChunkCount = 0;
+        occludedChunkCount = 0;
 
-        for (int z = 0; z < storageSize; z++) {
-            for (int y = 0; y < storageSize; y++) {
-                for (int x = 0; x < storageSize; x++) {
-                    if (isVisible(x, y, z)) {
-                        final Chunk chunk = getChunk(x, y, z);
-                        // Do not render all-air chunks
-                        if (chunk != null && !chunk.isAllAir()) {
-                            // Do not render solid chunks that are surrounded by solid chunks on all sides
-                            if (!isSolidChunkSurroundedBySolidChunks(z, y, x, chunk)) {
-                                chunk.render(modelBatch, environment, chunkMeshGenerator);
+        updateReachableChunks();
+
+        if (regions != null) {
+            for (ChunkRegion region : regions) {
+                region.begin();
+            }
+        }
+
+        // Test blocks of chunks against the frustum first, so that the chunks of blocks completely inside or outside
+        // do not need to be tested.  Regions are tested when they are rendered instead.
+        for (int blockZ = 0; blockZ < storageSize; blockZ += CULLING_BLOCK_SIZE) {
+            for (int blockY = 0; blockY < storageSize; blockY += CULLING_BLOCK_SIZE) {
+                for (int blockX = 0; blockX < storageSize; blockX += CULLING_BLOCK_SIZE) {
+                    final int blockVisibility = regions != null ? INSIDE_FRUSTUM : testBlockInFrustum(blockX, blockY, blockZ);
+
+                    final int endZ = Math.min(blockZ + CULLING_BLOCK_SIZE, storageSize);
+                    final int endY = Math.min(blockY + CULLING_BLOCK_SIZE, storageSize);
+                    final int endX = Math.min(blockX + CULLING_BLOCK_SIZE, storageSize);
+                    for (int z = blockZ; z < endZ; z++) {
+                        for (int y = blockY; y < endY; y++) {
+                            for (int x = blockX; x < endX; x++) {
+                                if (isVisible(x, y, z) || isRenderedInHole(x, y, z)) {
+                                    renderChunk(x, y, z, blockVisibility, modelBatch, environment);
+                                }
                             }
                         }
+                    }
+                }
+            }
+        }
+
+        if (regions != null) {
+            renderRegions(modelBatch, environment);
+        }
+    }
 
+    /**
+     * @return number of chunks with a surface that were left out of the latest rendered frame,
+     *         as they were outside the view frustum of the camera.
+     */
+    public int getCulledChunkCount() {
+        return culledChunkCount;
+    }
+
+    /**
+     * @return number of chunks with a surface that were left out of the latest rendered frame,
+     *         as they could not be seen from the camera through open blocks.
+     */
+    public int getOccludedChunkCount() {
+        return occludedChunkCount;
+    }
+
+    private void renderChunk(int x, int y, int z, int blockVisibility, ModelBatch modelBatch, Environment environment) {
+        final Chunk chunk = getChunk(x, y, z);
+        // Do not render all-air chunks
+        if (chunk != null && !chunk.isAllAir()) {
+            // Do not render solid chunks that are surrounded by solid chunks on all sides
+            if (!isSolidChunkSurroundedBySolidChunks(z, y, x, chunk)) {
+                // Build the mesh in the background, the previous mesh is rendered until it is uploaded.
+                // Also rebuild it if neighbours that cover its edges have been calculated since,
+                // or if the sides next to other detail levels changed.
+                // Chunks still rendered in the hole keep the mesh they had when the hole moved over them.
+                if (!isRenderedInHole(x, y, z)) {
+                    final MeshingMode meshingMode = chunkMeshGenerator.getMeshingMode();
+                    chunk.setDetailLevelBorderSides(getDetailLevelBorderSides(x, y, z), meshingMode.addsSkirts());
+                    final int calculatedNeighbours = getCalculatedNeighbours(x, y, z, meshingMode.getBorderNeighbours(), neighbours);
+                    if (chunk.isModelNeedsRegeneration() || (calculatedNeighbours & ~chunk.getMeshedNeighbours()) != 0) {
+                        chunkManager.requestMesh(chunk, meshingMode, neighbours, camera.position);
                     }
                 }
+
+                // The area is rendered by the lower detail level until all the chunks of this level in it are ready
+                if (isCoveredByLowerDetailLevel(x, y, z)) return;
+
+                final boolean reachable = isReachable(x, y, z);
+                if (regions != null) {
+                    addToRegion(chunk, x, y, z, reachable);
+                }
+                else if (!reachable) {
+                    occludedChunkCount++;
+                }
+                else if (blockVisibility == INSIDE_FRUSTUM ||
+                         (blockVisibility == INTERSECTS_FRUSTUM && isChunkInFrustum(x, y, z))) {
+                    chunk.render(modelBatch, environment);
+                }
+                else {
+                    culledChunkCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the chunks that may be seen from the camera through open blocks, by traversing from the chunk of the camera
+     * to the neighbouring chunks along the sides that are connected through each chunk.
+     * The traversal never turns back towards the camera, so that chunks are not reached around corners through caves
+     * that lead behind the camera.  Chunks that are not calculated, including the locations that are not stored because
+     * a higher detail level renders them, are treated as open.
+     * A chunk entered again from another side is traversed again if that opens sides not left through before,
+     * so that paths through a chunk are not lost depending on which side the traversal happened to reach first.
+     */
+    private void updateReachableChunks() {
+        if (reachableStamp == Integer.MAX_VALUE) {
+            Arrays.fill(reachableStamps, 0);
+            reachableStamp = 0;
+        }
+        reachableStamp++;
+        traversalQueue.clear();
+
+        final int center = storageSize / 2;
+        markReachable(center, center, center, NO_SIDE, 0);
+
+        // Each queued chunk has its coordinates, the sides to leave it through, and the directions moved so far
+        final int[] pos = traversalPos;
+        int next = 0;
+        while (next < traversalQueue.size) {
+            final int index = traversalQueue.get(next++);
+            final int exits = traversalQueue.get(next++);
+            final int directions = traversalQueue.get(next++);
+            final int x = index % storageSize;
+            final int y = (index / storageSize) % storageSize;
+            final int z = index / (storageSize * storageSize);
+
+            for (int side = 0; side < ChunkBorder.SIDE_COUNT; side++) {
+                if ((exits & (1 << side)) == 0) continue;
+
+                pos[0] = x;
+                pos[1] = y;
+                pos[2] = z;
+                pos[side / 2] += (side & 1) != 0 ? 1 : -1;
+                if (pos[side / 2] >= 0 && pos[side / 2] < storageSize) {
+                    markReachable(pos[0], pos[1], pos[2], side ^ 1, directions | (1 << side));
+                }
+            }
+        }
+    }
+
+    private void markReachable(int x, int y, int z, int enteredSide, int directions) {
+        final int index = x + y * storageSize + z * storageSize * storageSize;
+        final boolean firstEntry = reachableStamps[index] != reachableStamp;
+        if (firstEntry) {
+            reachableStamps[index] = reachableStamp;
+            enteredSides[index] = 0;
+            exitSides[index] = 0;
+        }
+        else if (enteredSide == NO_SIDE || (enteredSides[index] & (1 << enteredSide)) != 0) {
+            return;
+        }
+
+        if (enteredSide != NO_SIDE) enteredSides[index] |= 1 << enteredSide;
+
+        // Continue only through the sides that were not already left through from the sides entered before
+        final int exits = getExitSides(getChunk(x, y, z), enteredSide, directions) & ~exitSides[index];
+        if (exits != 0) {
+            exitSides[index] |= exits;
+            traversalQueue.add(index);
+            traversalQueue.add(exits);
+            traversalQueue.add(directions);
+        }
+    }
+
+    /**
+     * @return bit flags of the sides the traversal can leave the chunk through, when entered from the specified side
+     *         after moving in the specified directions.
+     */
+    private static int getExitSides(Chunk chunk, int enteredSide, int directions) {
+        int exits = 0;
+        for (int side = 0; side < ChunkBorder.SIDE_COUNT; side++) {
+            // Do not turn back towards the camera
+            if ((directions & (1 << (side ^ 1))) != 0) continue;
+
+            // Only leave through sides connected to the side the chunk was entered from
+            if (enteredSide != NO_SIDE && chunk != null && !chunk.isFaceConnected(enteredSide, side)) continue;
+
+            exits |= 1 << side;
+        }
+        return exits;
+    }
+
+    private boolean isReachable(int x, int y, int z) {
+        return reachableStamps[x + y * storageSize + z * storageSize * storageSize] == reachableStamp;
+    }
+
+    private boolean isChunkInFrustum(int x, int y, int z) {
+        getChunkCenter(x, y, z, cullingCenter);
+        final float halfSize = 0.5f * chunkSizeMeters;
+        return testFrustum(cullingCenter, halfSize, halfSize, halfSize) != OUTSIDE_FRUSTUM;
+    }
+
+    /**
+     * @return whether the block of chunks starting at the specified chunk is outside, partially inside,
+     *         or completely inside the view frustum.  Blocks at the far edges of the storage may be smaller.
+     */
+    private int testBlockInFrustum(int blockX, int blockY, int blockZ) {
+        final int sizeX = Math.min(CULLING_BLOCK_SIZE, storageSize - blockX);
+        final int sizeY = Math.min(CULLING_BLOCK_SIZE, storageSize - blockY);
+        final int sizeZ = Math.min(CULLING_BLOCK_SIZE, storageSize - blockZ);
+
+        // Center of the block, from the center of its first chunk
+        getChunkCenter(blockX, blockY, blockZ, cullingCenter);
+        cullingCenter.add((sizeX - 1) * 0.5f * chunkSizeMeters,
+                          (sizeY - 1) * 0.5f * chunkSizeMeters,
+                          (sizeZ - 1) * 0.5f * chunkSizeMeters);
+
+        return testFrustum(cullingCenter,
+                           sizeX * 0.5f * chunkSizeMeters,
+                           sizeY * 0.5f * chunkSizeMeters,
+                           sizeZ * 0.5f * chunkSizeMeters);
+    }
+
+    /**
+     * @return whether the axis aligned box is outside, partially inside, or completely inside the view frustum of the camera.
+     */
+    private int testFrustum(Vector3 center, float halfSizeX, float halfSizeY, float halfSizeZ) {
+        int result = INSIDE_FRUSTUM;
+        for (Plane plane : camera.frustum.planes) {
+            // The planes face into the frustum, compare the distance of the center to the extent of the box towards the plane
+            final Vector3 normal = plane.normal;
+            final float distance = normal.x * center.x + normal.y * center.y + normal.z * center.z + plane.d;
+            final float extent = Math.abs(normal.x) * halfSizeX + Math.abs(normal.y) * halfSizeY + Math.abs(normal.z) * halfSizeZ;
+            if (distance < -extent) return OUTSIDE_FRUSTUM;
+            if (distance < extent) result = INTERSECTS_FRUSTUM;
+        }
+        return result;
+    }
+
+    private void addToRegion(Chunk chunk, int x, int y, int z, boolean reachable) {
+        final long chunkX = centerChunkX + x - storageSize / 2;
+        final long chunkY = centerChunkY + y - storageSize / 2;
+        final long chunkZ = centerChunkZ + z - storageSize / 2;
+        final long regionX = floorDiv(chunkX, regionSize);
+        final long regionY = floorDiv(chunkY, regionSize);
+        final long regionZ = floorDiv(chunkZ, regionSize);
+
+        final ChunkRegion region = regions[wrapToRegionGrid(regionX) +
+                                           wrapToRegionGrid(regionY) * regionGridSize +
+                                           wrapToRegionGrid(regionZ) * regionGridSize * regionGridSize];
+        region.setLocation(regionX, regionY, regionZ);
+        region.add(chunk,
+                   (int) (chunkX - regionX * regionSize),
+                   (int) (chunkY - regionY * regionSize),
+                   (int) (chunkZ - regionZ * regionSize),
+                   reachable);
+    }
+
+    private void renderRegions(ModelBatch modelBatch, Environment environment) {
+        final ChunkMeshPool meshPool = chunkManager.getMeshPool();
+
+        changedRegions.clear();
+        for (ChunkRegion region : regions) {
+            region.end();
+            if (region.isRebuildNeeded()) changedRegions.add(region);
+        }
+        changedRegions.sort(regionDistanceComparator);
+
+        // Regions that moved or lost chunks are rebuilt right away, as they would otherwise keep drawing chunks that were
+        // released or are now rendered by another detail level.  Their uploads still count against the budget.
+        for (int i = 0; i < changedRegions.size; i++) {
+            final ChunkRegion region = changedRegions.get(i);
+            if (region.isChunksRemoved()) rebuildRegion(region, meshPool);
+        }
+
+        // Rebuild the other changed regions within the mesh upload budget, the rest keep their previous meshes until a later frame.
+        // Regions without chunks this frame return their meshes to the pool without uploading anything.
+        for (int i = 0; i < changedRegions.size; i++) {
+            final ChunkRegion region = changedRegions.get(i);
+            if (!region.isRebuildNeeded()) continue;
+
+            final int sizeBytes = region.getListedSizeBytes();
+            if (sizeBytes > 0 && !chunkManager.isWithinMeshUploadBudget(sizeBytes)) continue;
+
+            rebuildRegion(region, meshPool);
+        }
+        changedRegions.clear();
+
+        for (ChunkRegion region : regions) {
+            if (region.getMeshCount() > 0) {
+                final float halfSize = 0.5f * region.getSizeMeters();
+                if (region.getReachableChunkCount() <= 0) {
+                    occludedChunkCount += region.getChunkCount();
+                }
+                else if (testFrustum(region.getCenter(cullingCenter), halfSize, halfSize, halfSize) != OUTSIDE_FRUSTUM) {
+                    modelBatch.render(region, environment);
+                }
+                else {
+                    culledChunkCount += region.getChunkCount();
+                }
+            }
+        }
+    }
+
+    private void rebuildRegion(ChunkRegion region, ChunkMeshPool meshPool) {
+        final long startTime = System.nanoTime();
+        region.rebuild(meshPool, mergedMeshData);
+        chunkManager.meshUploaded(region.getListedSizeBytes(), System.nanoTime() - startTime);
+    }
+
+    private int wrapToRegionGrid(long regionCoordinate) {
+        return (int) (regionCoordinate - floorDiv(regionCoordinate, regionGridSize) * regionGridSize);
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        final long quotient = value / divisor;
+        return value % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Gets the visible chunks next to the specified chunk, indexed by neighbour as in ChunkBorder.
+     * Chunks that are not rendered by this detail level are left out, as they do not cover the sides of their neighbours.
+     *
+     * @param neighbourMask the neighbours to get, as bit flags.  The other neighbours are set to null.
+     * @return the neighbours that have been calculated, as bit flags.
+     */
+    private int getCalculatedNeighbours(int x, int y, int z, int neighbourMask, Chunk[] neighboursOut) {
+        int calculatedNeighbours = 0;
+        for (int neighbour = 0; neighbour < ChunkBorder.NEIGHBOUR_COUNT; neighbour++) {
+            if ((neighbourMask & (1 << neighbour)) == 0) {
+                neighboursOut[neighbour] = null;
+                continue;
+            }
+
+            final Chunk chunk = getVisibleChunk(x + ChunkBorder.getNeighbourOffset(neighbour, 0),
+                                                y + ChunkBorder.getNeighbourOffset(neighbour, 1),
+                                                z + ChunkBorder.getNeighbourOffset(neighbour, 2));
+            neighboursOut[neighbour] = chunk;
+            if (chunk != null && chunk.isCalculated()) {
+                calculatedNeighbours |= 1 << neighbour;
             }
         }
+        return calculatedNeighbours;
+    }
+
+    /**
+     * @return the chunk at the specified coordinates if it is rendered by this detail level, otherwise null.
+     */
+    private Chunk getVisibleChunk(int x, int y, int z) {
+        return isVisible(x, y, z) ? getChunk(x, y, z) : null;
+    }
+
+    /**
+     * @return sides of the specified chunk that are next to the area of a more or less detailed level, as bit flags
+     *         indexed by side as in ChunkBorder.
+     */
+    private int getDetailLevelBorderSides(int x, int y, int z) {
+        int sides = 0;
+        if (isOtherDetailLevel(x - 1, y, z)) sides |= 1;
+        if (isOtherDetailLevel(x + 1, y, z)) sides |= 1 << 1;
+        if (isOtherDetailLevel(x, y - 1, z)) sides |= 1 << 2;
+        if (isOtherDetailLevel(x, y + 1, z)) sides |= 1 << 3;
+        if (isOtherDetailLevel(x, y, z - 1)) sides |= 1 << 4;
+        if (isOtherDetailLevel(x, y, z + 1)) sides |= 1 << 5;
+        return sides;
+    }
+
+    /**
+     * @return true if the chunk location is rendered by the higher detail level in the hole, or by the lower detail level
+     *         outside the bounding volume of this level, or where the lower detail level still covers its hole.
+     */
+    private boolean isOtherDetailLevel(int x, int y, int z) {
+        return isInHole(x, y, z) || isOutsideBoundingVolume(x, y, z) || isCoveredByLowerDetailLevel(x, y, z);
     }
 
     private boolean isSolidChunkSurroundedBySolidChunks(int z, int y, int x, Chunk chunk) {
@@ -191,19 +810,24 @@ public class DetailLevel {
 
     private boolean isVisible(int x, int y, int z) {
         // Check which edges overlap the lower detail level and leave them out
+        if (isOutsideBoundingVolume(x, y, z)) return false;
+
+        // Don't render any chunks that should be rendered by a higher detail level
+        if (isInHole(x, y, z)) return false;
+
+        return true;
+    }
+
+    private boolean isOutsideBoundingVolume(int x, int y, int z) {
         if (boundingVolumeStart != null && boundingVolumeEnd != null) {
             getChunkCenter(x, y, z, temp);
             if (temp.x < boundingVolumeStart.x || temp.x >= boundingVolumeEnd.x ||
                 temp.y < boundingVolumeStart.y || temp.y >= boundingVolumeEnd.y ||
                 temp.z < boundingVolumeStart.z || temp.z >= boundingVolumeEnd.z) {
-                return false;
+                return true;
             }
         }
-
-        // Don't render any chunks that should be rendered by a higher detail level
-        if (isInHole(x, y, z)) return false;
-
-        return true;
+        return false;
     }
 
     private boolean isInHole(int x, int y, int z) {
@@ -227,51 +851,52 @@ public class DetailLevel {
         return getHoleStartChunk() + holeSize;
     }
 
-    private void moveChunks(long deltaX, long deltaY, long deltaZ) {
+    /**
+     * Releases the chunks that scrolled out when the center moved by the specified number of chunks.
+     * Should be called after the new center has been set.  The chunks that stay keep their place in the storage,
+     * the slots of the released chunks are reused by the chunks that scroll in on the opposite side.
+     *
+     * @return true if all chunks were released, as the move was longer than the stored area.
+     */
+    private boolean moveChunks(long deltaX, long deltaY, long deltaZ) {
         // If we moved too much, just clear all chunks
         if (Math.abs(deltaX) >= storageSize ||
             Math.abs(deltaY) >= storageSize ||
             Math.abs(deltaZ) >= storageSize) {
             clearAllChunks();
+            return true;
         }
         else {
-            // We use a temporary array when copying chunks, it's not optimal but it's not a significant memory hit and makes things simpler
-            for (int z = 0; z < storageSize; z++) {
-                for (int y = 0; y < storageSize; y++) {
-                    for (int x = 0; x < storageSize; x++) {
-
-                        // Get source to move
-                        final int sourceChunkIndex = getChunkIndex(x + (int) deltaX,
-                                                                   y + (int) deltaY,
-                                                                   z + (int) deltaZ);
-
-                        if (sourceChunkIndex >= 0) {
-                            // Move it
-                            tempChunks[getChunkIndex(x, y, z)] = chunks[sourceChunkIndex];
-
-                            // Clear the source so that we know it was moved
-                            chunks[sourceChunkIndex] = null;
-                        }
-                    }
-                }
-            }
+            // The slots of the slab that scrolled in along each axis still hold the chunks of the slab that scrolled out
+            releaseSlab(0, (int) deltaX);
+            releaseSlab(1, (int) deltaY);
+            releaseSlab(2, (int) deltaZ);
+            return false;
+        }
+    }
 
-            // Release any unmoved blocks
-            for (Chunk chunk : chunks) {
-                if (chunk != null) {
-                    chunkManager.releaseChunk(chunk);
+    /**
+     * Releases the chunks in the slab of the storage that scrolled in along the specified axis when the center moved by delta chunks.
+     */
+    private void releaseSlab(int axis, int delta) {
+        if (delta == 0) return;
+
+        final int slabStart = delta > 0 ? storageSize - delta : 0;
+        final int slabEnd = delta > 0 ? storageSize : -delta;
+
+        final int[] pos = slabPos;
+        final int u = (axis + 1) % 3;
+        final int v = (axis + 2) % 3;
+        for (pos[axis] = slabStart; pos[axis] < slabEnd; pos[axis]++) {
+            for (pos[v] = 0; pos[v] < storageSize; pos[v]++) {
+                for (pos[u] = 0; pos[u] < storageSize; pos[u]++) {
+                    final int chunkIndex = getChunkIndex(pos[0], pos[1], pos[2]);
+                    if (chunks[chunkIndex] != null) {
+                        chunkManager.releaseChunk(chunks[chunkIndex]);
+                        chunks[chunkIndex] = null;
+                    }
                 }
             }
-
-            // Copy results over
-            for (int i = 0; i < chunks.length; i++) {
-                chunks[i] = tempChunks[i];
-            }
-
-            // Clear temp array
-            for (int i = 0; i < tempChunks.length; i++) {
-                tempChunks[i] = null;
-            }
         }
     }
 
@@ -286,7 +911,8 @@ public class DetailLevel {
     }
 
     /**
-     * @return index for the chunk with the specified coordinates, or -1 if the coordinates are outside the chunk array.
+     * @return index for the chunk with the specified coordinates relative to the lowest corner of the stored area,
+     *         or -1 if the coordinates are outside the stored area.
      */
     private int getChunkIndex(int x, int y, int z) {
         if (x < 0 || x >= storageSize ||
@@ -295,22 +921,24 @@ public class DetailLevel {
             return -1;
         }
         else {
-            return x + y * storageSize + z * storageSize * storageSize;
+            final int halfStorageSize = storageSize / 2;
+            return wrapToStorage(centerChunkX + x - halfStorageSize) +
+                   wrapToStorage(centerChunkY + y - halfStorageSize) * storageSize +
+                   wrapToStorage(centerChunkZ + z - halfStorageSize) * storageSize * storageSize;
         }
     }
 
     /**
-     * @return the chunk with the specified coordinates, or null if the coordinates are outside the chunk array.
+     * @return the chunk with the specified coordinates relative to the lowest corner of the stored area,
+     *         or null if the coordinates are outside the stored area.
      */
     private Chunk getChunk(int x, int y, int z) {
-        if (x < 0 || x >= storageSize ||
-            y < 0 || y >= storageSize ||
-            z < 0 || z >= storageSize) {
-            return null;
-        }
-        else {
-            return chunks[x + y * storageSize + z * storageSize * storageSize];
-        }
+        final int chunkIndex = getChunkIndex(x, y, z);
+        return chunkIndex >= 0 ? chunks[chunkIndex] : null;
+    }
+
+    private int wrapToStorage(long chunkCoordinate) {
+        return (int) (chunkCoordinate - floorDiv(chunkCoordinate, storageSize) * storageSize);
     }
 
     /**
@@ -333,41 +961,256 @@ public class DetailLevel {
         }
     }
 
-    private void generateMissingChunks() {
-        // TODO: This could be done in threads in the background maybe?  Ideally in that case we should keep showing a lower detail
-        // chunk until all the higher detail chunks in its area have been geneated.  Also generate chunks from the center out.
+    /**
+     * Queues the visible chunks that are missing after a move, in order from the camera outwards,
+     * so that nearby holes are filled first.  Only the locations that became visible since the previous call are checked:
+     * the slabs that scrolled in, the slabs that the hole for the higher detail level moved away from,
+     * and the slabs that the bounding volume given by the lower detail level moved over.
+     * Chunks still queued from earlier moves are kept, unless they scrolled out.
+     *
+     * @param deltaX number of chunks that the center moved along the x axis since the previous call.
+     * @param deltaY number of chunks that the center moved along the y axis since the previous call.
+     * @param deltaZ number of chunks that the center moved along the z axis since the previous call.
+     * @param checkAll if true, all stored locations are checked, e.g. when no chunks have been generated yet.
+     */
+    private void queueMissingChunks(int deltaX, int deltaY, int deltaZ, boolean checkAll) {
+        getVisibleBox(visibleBox);
+        getHoleBox(holeBox);
+
+        // Move the chunks still in the queue to the new coordinates, all stored locations are checked again if checkAll is set
+        int queuedCount = 0;
+        if (!checkAll) {
+            for (int i = nextQueuedChunk; i < queuedChunkCount; i++) {
+                final int storageIndex = (int) queuedChunkKeys[i];
+                final int x = storageIndex % storageSize - deltaX;
+                final int y = (storageIndex / storageSize) % storageSize - deltaY;
+                final int z = storageIndex / (storageSize * storageSize) - deltaZ;
+                if (getChunkIndex(x, y, z) >= 0) {
+                    queuedChunkKeys[queuedCount++] = getQueueKey(x, y, z);
+                }
+            }
+        }
+        queuedChunkCount = queuedCount;
+        nextQueuedChunk = 0;
+
+        if (checkAll) {
+            collectMissingChunks(visibleBox);
+        }
+        else {
+            // Newly visible locations inside the stored area and bounding volume, the previous box is moved to the new coordinates
+            setShiftedBox(previousVisibleBox, -deltaX, -deltaY, -deltaZ, shiftedBox);
+            collectMissingChunks(visibleBox, shiftedBox);
+
+            // Locations that were in the hole before the move, and are still visible
+            setShiftedBox(previousHoleBox, -deltaX, -deltaY, -deltaZ, shiftedBox);
+            intersectBox(shiftedBox, visibleBox);
+            collectMissingChunks(shiftedBox, holeBox);
+        }
+        System.arraycopy(visibleBox, 0, previousVisibleBox, 0, BOX_SIZE);
+        System.arraycopy(holeBox, 0, previousHoleBox, 0, BOX_SIZE);
+
+        // Order the missing chunks by the distance from the camera in chunks, and the neighbours in each shell next to each other.
+        // A location can be collected twice if it both scrolled in and left the hole, or was already queued.
+        Arrays.sort(queuedChunkKeys, 0, queuedChunkCount);
+        queuedCount = 0;
+        for (int i = 0; i < queuedChunkCount; i++) {
+            if (i == 0 || queuedChunkKeys[i] != queuedChunkKeys[i - 1]) {
+                queuedChunkKeys[queuedCount++] = queuedChunkKeys[i];
+            }
+        }
+        queuedChunkCount = queuedCount;
+    }
+
+    /**
+     * @return number of missing chunks waiting to be generated.
+     */
+    int getQueuedChunkCount() {
+        return queuedChunkCount - nextQueuedChunk;
+    }
+
+    /**
+     * @return distance in chunks from the camera to the next queued chunk, or -1 if no chunks are queued.
+     *         As the chunks of all detail levels span about the same angle at the same distance in chunks,
+     *         chunks with a smaller distance cover a larger part of the screen.
+     */
+    int getNextQueuedChunkDistance() {
+        return nextQueuedChunk < queuedChunkCount ? (int) (queuedChunkKeys[nextQueuedChunk] >>> 32) : -1;
+    }
 
-        Vector3 chunkCenter = new Vector3();
+    /**
+     * Starts generating the next queued chunks, skipping the queued locations that are no longer visible.
+     *
+     * @param maxChunkCount maximum number of chunks to take from the queue.
+     */
+    void generateQueuedChunks(int maxChunkCount) {
+        final int end = Math.min(queuedChunkCount, nextQueuedChunk + maxChunkCount);
+        for (int i = nextQueuedChunk; i < end; i++) {
+            final int storageIndex = (int) queuedChunkKeys[i];
+            final int x = storageIndex % storageSize;
+            final int y = (storageIndex / storageSize) % storageSize;
+            final int z = storageIndex / (storageSize * storageSize);
+
+            // The hole or bounding volume may have moved over the location since it was queued
+            final int chunkIndex = getChunkIndex(x, y, z);
+            if (chunks[chunkIndex] == null && isVisible(x, y, z)) {
+                final Vector3 chunkCenter = freeChunkCenters.size > 0 ? freeChunkCenters.pop() : new Vector3();
+                getChunkCenter(x, y, z, chunkCenter);
+                missingChunkCenters.add(chunkCenter);
+                missingChunkIndexes.add(chunkIndex);
+            }
+        }
+        nextQueuedChunk = end;
+
+        if (missingChunkCenters.size <= 0) return;
+
+        chunkManager.generateChunks(missingChunkCenters, chunkSizeMeters, chunkSize, camera.position, generatedChunks);
+
+        for (int i = 0; i < generatedChunks.size; i++) {
+            final Chunk newChunk = generatedChunks.get(i);
+            newChunk.setMeshBatched(regions != null);
+
+            if (showDebugColor) {
+                final Vector3 chunkCenter = missingChunkCenters.get(i);
+                long chunkWorldX = worldPosToChunk(chunkCenter.x);
+                long chunkWorldY = worldPosToChunk(chunkCenter.y);
+                long chunkWorldZ = worldPosToChunk(chunkCenter.z);
+                boolean checkers3D = isEven(chunkWorldX) == isEven(chunkWorldY) == isEven(chunkWorldZ);
+                Color color = checkers3D ? debugColor1 : debugColor2;
+                newChunk.setDebugColor(color);
+            }
+
+            chunks[missingChunkIndexes.get(i)] = newChunk;
+        }
+
+        freeChunkCenters.addAll(missingChunkCenters);
+        missingChunkCenters.clear();
+        missingChunkIndexes.clear();
+        generatedChunks.clear();
+    }
 
-        for (int z = 0; z < storageSize; z++) {
-            for (int y = 0; y < storageSize; y++) {
-                for (int x = 0; x < storageSize; x++) {
+    /**
+     * Collects the missing visible chunks in the box.
+     */
+    private void collectMissingChunks(int[] box) {
+        for (int z = box[2]; z < box[5]; z++) {
+            for (int y = box[1]; y < box[4]; y++) {
+                for (int x = box[0]; x < box[3]; x++) {
                     final int chunkIndex = getChunkIndex(x, y, z);
-                    if (chunkIndex > 0 &&
+                    if (chunkIndex >= 0 &&
                         chunks[chunkIndex] == null &&
                         isVisible(x, y, z)) {
-
-                        // Generate new chunk if we didn't have any at this location
-                        getChunkCenter(x, y, z, chunkCenter);
-                        final Chunk newChunk = chunkManager.generateChunk(chunkCenter, chunkSizeMeters);
-
-                        if (showDebugColor) {
-                            long chunkWorldX = worldPosToChunk(chunkCenter.x);
-                            long chunkWorldY = worldPosToChunk(chunkCenter.y);
-                            long chunkWorldZ = worldPosToChunk(chunkCenter.z);
-                            boolean checkers3D = isEven(chunkWorldX) == isEven(chunkWorldY) == isEven(chunkWorldZ);
-                            Color color = checkers3D ? debugColor1 : debugColor2;
-                            newChunk.setDebugColor(color);
-                        }
-
-                        chunks[chunkIndex] = newChunk;
+                        addMissingChunk(x, y, z);
                     }
-
                 }
             }
         }
     }
 
+    /**
+     * Collects the missing visible chunks in the part of the box that is outside the excluded box.
+     */
+    private void collectMissingChunks(int[] box, int[] excludedBox) {
+        // Along each axis in turn, collect the slabs before and after the excluded box, and continue with the part between them
+        System.arraycopy(box, 0, remainingBox, 0, BOX_SIZE);
+        for (int axis = 0; axis < 3; axis++) {
+            final int start = remainingBox[axis];
+            final int end = remainingBox[axis + 3];
+            final int excludedStart = Math.max(start, Math.min(end, excludedBox[axis]));
+            final int excludedEnd = Math.max(excludedStart, Math.min(end, excludedBox[axis + 3]));
+
+            System.arraycopy(remainingBox, 0, slabBox, 0, BOX_SIZE);
+            slabBox[axis + 3] = excludedStart;
+            collectMissingChunks(slabBox);
+
+            slabBox[axis] = excludedEnd;
+            slabBox[axis + 3] = end;
+            collectMissingChunks(slabBox);
+
+            remainingBox[axis] = excludedStart;
+            remainingBox[axis + 3] = excludedEnd;
+        }
+    }
+
+    private void addMissingChunk(int x, int y, int z) {
+        if (queuedChunkCount >= queuedChunkKeys.length) {
+            queuedChunkKeys = Arrays.copyOf(queuedChunkKeys, queuedChunkKeys.length * 2);
+        }
+
+        queuedChunkKeys[queuedChunkCount++] = getQueueKey(x, y, z);
+    }
+
+    /**
+     * @return the key of the location in the queue of missing chunks, sorting by the distance from the camera in chunks.
+     */
+    private long getQueueKey(int x, int y, int z) {
+        final int center = storageSize / 2;
+        final int distance = Math.max(Math.abs(x - center), Math.max(Math.abs(y - center), Math.abs(z - center)));
+        return ((long) distance << 32) | (x + y * storageSize + z * storageSize * storageSize);
+    }
+
+    /**
+     * Gets the stored area limited to the bounding volume given by the lower detail level.  The camera is in the middle of both,
+     * so the extent is found along the axes through the middle.
+     */
+    private void getVisibleBox(int[] boxOut) {
+        for (int axis = 0; axis < 3; axis++) {
+            int start = 0;
+            int end = storageSize;
+            while (start < end && isOutsideBoundingVolume(getAxisPosition(axis, start, 0), getAxisPosition(axis, start, 1), getAxisPosition(axis, start, 2))) start++;
+            while (end > start && isOutsideBoundingVolume(getAxisPosition(axis, end - 1, 0), getAxisPosition(axis, end - 1, 1), getAxisPosition(axis, end - 1, 2))) end--;
+            boxOut[axis] = start;
+            boxOut[axis + 3] = end;
+        }
+    }
+
+    /**
+     * Gets the area left for the higher detail level, or an empty box if there is no hole.
+     * The camera is in the middle of the hole, so the extent is found along the axes through the middle.
+     */
+    private void getHoleBox(int[] boxOut) {
+        for (int axis = 0; axis < 3; axis++) {
+            int start = 0;
+            int end = storageSize;
+            while (start < end && !isInHole(getAxisPosition(axis, start, 0), getAxisPosition(axis, start, 1), getAxisPosition(axis, start, 2))) start++;
+            while (end > start && !isInHole(getAxisPosition(axis, end - 1, 0), getAxisPosition(axis, end - 1, 1), getAxisPosition(axis, end - 1, 2))) end--;
+            boxOut[axis] = start;
+            boxOut[axis + 3] = end;
+        }
+    }
+
+    /**
+     * @return the coordinate along the requested axis of the chunk that is at the specified coordinate along the axis,
+     *         and in the middle of the stored area along the other axes.
+     */
+    private int getAxisPosition(int axis, int coordinate, int requestedAxis) {
+        return requestedAxis == axis ? coordinate : storageSize / 2;
+    }
+
+    private static void setBox(int startX, int startY, int startZ, int endX, int endY, int endZ, int[] boxOut) {
+        boxOut[0] = startX;
+        boxOut[1] = startY;
+        boxOut[2] = startZ;
+        boxOut[3] = endX;
+        boxOut[4] = endY;
+        boxOut[5] = endZ;
+    }
+
+    private static void setShiftedBox(int[] box, int deltaX, int deltaY, int deltaZ, int[] boxOut) {
+        setBox(box[0] + deltaX, box[1] + deltaY, box[2] + deltaZ,
+               box[3] + deltaX, box[4] + deltaY, box[5] + deltaZ,
+               boxOut);
+    }
+
+    /**
+     * Limits the box to the part inside the other box.
+     */
+    private static void intersectBox(int[] box, int[] otherBox) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[axis] = Math.max(box[axis], otherBox[axis]);
+            box[axis + 3] = Math.min(box[axis + 3], otherBox[axis + 3]);
+        }
+    }
+
     private void setCenter(Vector3 pos) {
         centerChunkX = worldPosToChunk(pos.x);
         centerChunkY = worldPosToChunk(pos.y);
@@ -385,6 +1228,14 @@ public class DetailLevel {
         chunkCenterOut.z = (0.5f + centerChunkZ + z - storageSize / 2) * chunkSizeMeters;
     }
 
+    /**
+     * @return the coordinate relative to the lowest corner of the stored area of the chunk containing the world position,
+     *         along the axis with the specified center chunk coordinate.  May be outside the stored area.
+     */
+    private int worldPosToStorage(float v, long centerChunk) {
+        return (int) (worldPosToChunk(v) - centerChunk) + storageSize / 2;
+    }
+
     private long worldPosToChunk(final float v) {
         float value = v / chunkSizeMeters;
         long chunkCoordinate = value < 0.0f ? (long)(value - 1) : (long) value;
@@ -405,6 +1256,19 @@ public class DetailLevel {
     }
 
 
+    /**
+     * @return approximate number of bytes used for the voxel data of the chunks in this detail level.
+     */
+    public long getVoxelMemoryUsageBytes() {
+        long bytes = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk != null) {
+                bytes += chunk.getVoxelMemoryUsageBytes();
+            }
+        }
+        return bytes;
+    }
+
     public void dispose() {
 
         for (Chunk chunk : chunks) {
@@ -417,6 +1281,11 @@ public class DetailLevel {
             chunks[i] = null;
         }
 
+        if (regions != null) {
+            for (ChunkRegion region : regions) {
+                region.dispose();
+            }
+        }
 
     }
 }
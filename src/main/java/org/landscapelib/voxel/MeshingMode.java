@@ -0,0 +1,61 @@
+package org.landscapelib.voxel;
+
+/**
+ * Ways the ChunkMeshGenerator can build the mesh of a chunk.
+ */
+public enum MeshingMode {
+
+    /**
+     * Two triangles for each exposed side of each solid block.
+     */
+    BLOCK_FACES(ChunkBorder.ALL_SIDES, false),
+
+    /**
+     * Exposed block sides facing the same way in the same plane, with the same material,
+     * are merged into as large rectangles as possible.  Looks the same as BLOCK_FACES with far fewer triangles.
+     */
+    GREEDY(ChunkBorder.ALL_SIDES, false),
+
+    /**
+     * A smooth surface at the middle of the volume range, extracted with surface nets.
+     * One vertex is placed in each cell between block centers that the surface passes through, and shared by the
+     * surrounding quads, so coarse chunks need far fewer triangles than with block sides.
+     * The cells between the chunk and its neighbours, including those only touching its edges and corners, are sampled
+     * from the neighbouring blocks, so that the surfaces of neighbouring chunks meet without cracks.
+     * Chunk sides next to another detail level get skirts that hide the cracks between the differently detailed surfaces.
+     */
+    SURFACE_NETS(ChunkBorder.ALL_NEIGHBOURS, true);
+
+    private final int borderNeighbours;
+    private final boolean addsSkirts;
+
+    MeshingMode(int borderNeighbours, boolean addsSkirts) {
+        this.borderNeighbours = borderNeighbours;
+        this.addsSkirts = addsSkirts;
+    }
+
+    /**
+     * @return true if the mesh depends on the blocks of the neighbouring chunks, see ChunkBorder.
+     *         The mesh should then be rebuilt when a neighbour finishes calculating.
+     */
+    public boolean usesChunkBorder() {
+        return borderNeighbours != 0;
+    }
+
+    /**
+     * @return the neighbours whose blocks the mesh depends on, as bit flags indexed by neighbour as in ChunkBorder.
+     */
+    public int getBorderNeighbours() {
+        return borderNeighbours;
+    }
+
+    /**
+     * @return true if the mesh depends on which sides of the chunk are next to another detail level.
+     *         The blocks of the other detail level are not known, see ChunkBorder, so smooth surfaces hang skirts
+     *         into the terrain along those sides to hide the crack between the two surfaces.
+     *         Block side meshes do not need this, as sides without known neighbouring blocks are always closed with walls.
+     */
+    public boolean addsSkirts() {
+        return addsSkirts;
+    }
+}
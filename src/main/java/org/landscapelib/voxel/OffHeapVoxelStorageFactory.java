@@ -0,0 +1,132 @@
+package org.landscapelib.voxel;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.flowutils.Check.positive;
+
+/**
+ * Stores the voxel data of chunks off-heap, in large direct buffers handed out by a VoxelSlabAllocator.
+ * The values for each voxel are interleaved in one record (primary material, secondary material, material ratio, volume),
+ * so that all data for a voxel is in the same cache line.
+ *
+ * This avoids keeping a large number of small arrays on the heap for the garbage collector to track.
+ */
+public final class OffHeapVoxelStorageFactory implements VoxelStorageFactory {
+
+    /**
+     * Default size of the slabs allocated, in bytes.
+     */
+    public static final int DEFAULT_SLAB_SIZE_BYTES = 1024 * 1024;
+
+    private static final int RECORD_SIZE = 4;
+    private static final int PRIMARY_MATERIAL_OFFSET = 0;
+    private static final int SECONDARY_MATERIAL_OFFSET = 1;
+    private static final int MATERIAL_RATIO_OFFSET = 2;
+    private static final int VOLUME_OFFSET = 3;
+
+    private final int slabSizeBytes;
+
+    /**
+     * Allocators by the number of blocks in the chunks they store, as each allocator hands out regions of one size.
+     */
+    private final Map<Integer, VoxelSlabAllocator> allocators = new HashMap<Integer, VoxelSlabAllocator>();
+
+    public OffHeapVoxelStorageFactory() {
+        this(DEFAULT_SLAB_SIZE_BYTES);
+    }
+
+    /**
+     * @param slabSizeBytes size of the direct buffers to allocate for the voxel data.
+     */
+    public OffHeapVoxelStorageFactory(int slabSizeBytes) {
+        positive(slabSizeBytes, "slabSizeBytes");
+
+        this.slabSizeBytes = slabSizeBytes;
+    }
+
+    @Override public VoxelStorage createStorage(VoxelBuffer data) {
+        final VoxelSlabAllocator allocator = getAllocator(data.getBlockCount());
+
+        final int regionId = allocator.allocate();
+        final ByteBuffer slab = allocator.getSlab(regionId);
+        final int regionOffset = allocator.getRegionOffset(regionId);
+
+        // Interleave the data
+        final byte[] primaryMaterial = data.getPrimaryMaterial();
+        final byte[] secondaryMaterial = data.getSecondaryMaterial();
+        final byte[] materialRatio = data.getMaterialRatio();
+        final byte[] volume = data.getVolume();
+        int offset = regionOffset;
+        for (int i = 0; i < volume.length; i++) {
+            slab.put(offset + PRIMARY_MATERIAL_OFFSET, primaryMaterial[i]);
+            slab.put(offset + SECONDARY_MATERIAL_OFFSET, secondaryMaterial[i]);
+            slab.put(offset + MATERIAL_RATIO_OFFSET, materialRatio[i]);
+            slab.put(offset + VOLUME_OFFSET, volume[i]);
+            offset += RECORD_SIZE;
+        }
+
+        return new OffHeapVoxelStorage(allocator, regionId, slab, regionOffset);
+    }
+
+    /**
+     * @return number of bytes allocated off-heap for voxel data.
+     */
+    public synchronized long getAllocatedBytes() {
+        long bytes = 0;
+        for (VoxelSlabAllocator allocator : allocators.values()) {
+            bytes += allocator.getAllocatedBytes();
+        }
+        return bytes;
+    }
+
+    private synchronized VoxelSlabAllocator getAllocator(int blockCount) {
+        VoxelSlabAllocator allocator = allocators.get(blockCount);
+        if (allocator == null) {
+            // Large chunks may not fit in the default slab size
+            allocator = new VoxelSlabAllocator(blockCount * RECORD_SIZE, Math.max(slabSizeBytes, blockCount * RECORD_SIZE));
+            allocators.put(blockCount, allocator);
+        }
+
+        return allocator;
+    }
+
+    private static final class OffHeapVoxelStorage implements VoxelStorage {
+        private final VoxelSlabAllocator allocator;
+        private final int regionId;
+        private final ByteBuffer slab;
+        private final int regionOffset;
+
+        private OffHeapVoxelStorage(VoxelSlabAllocator allocator, int regionId, ByteBuffer slab, int regionOffset) {
+            this.allocator = allocator;
+            this.regionId = regionId;
+            this.slab = slab;
+            this.regionOffset = regionOffset;
+        }
+
+        @Override public byte getPrimaryMaterial(int blockIndex) {
+            return slab.get(regionOffset + blockIndex * RECORD_SIZE + PRIMARY_MATERIAL_OFFSET);
+        }
+
+        @Override public byte getSecondaryMaterial(int blockIndex) {
+            return slab.get(regionOffset + blockIndex * RECORD_SIZE + SECONDARY_MATERIAL_OFFSET);
+        }
+
+        @Override public byte getMaterialRatio(int blockIndex) {
+            return slab.get(regionOffset + blockIndex * RECORD_SIZE + MATERIAL_RATIO_OFFSET);
+        }
+
+        @Override public byte getVolume(int blockIndex) {
+            return slab.get(regionOffset + blockIndex * RECORD_SIZE + VOLUME_OFFSET);
+        }
+
+        @Override public int getMemoryUsageBytes() {
+            return allocator.getRegionSizeBytes();
+        }
+
+        @Override public void release() {
+            allocator.free(regionId);
+        }
+    }
+}
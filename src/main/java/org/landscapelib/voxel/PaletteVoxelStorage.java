@@ -0,0 +1,96 @@
+package org.landscapelib.voxel;
+
+/**
+ * Storage for chunks with a small number of different voxels.
+ * Each distinct voxel is stored once in a palette, and the voxels refer to it with bit-packed palette indexes.
+ * Immutable.
+ */
+final class PaletteVoxelStorage implements VoxelStorage {
+
+    /**
+     * Maximum number of entries in a palette.
+     */
+    static final int MAX_PALETTE_SIZE = 256;
+
+    private static final int WORD_BITS_SHIFT = 6;
+    private static final int WORD_BITS_MASK = (1 << WORD_BITS_SHIFT) - 1;
+
+    private final int[] palette;
+    private final long[] indexes;
+    private final int bitsPerIndex;
+    private final int bitsPerIndexShift;
+    private final long indexMask;
+
+    /**
+     * @param palette the distinct voxels, packed with UniformVoxelStorage.packVoxel.
+     * @param paletteSize number of used entries in the palette.
+     * @param voxelPaletteIndexes index in the palette for each voxel.
+     * @param blockCount number of voxels.
+     */
+    PaletteVoxelStorage(int[] palette, int paletteSize, int[] voxelPaletteIndexes, int blockCount) {
+        this.palette = new int[paletteSize];
+        System.arraycopy(palette, 0, this.palette, 0, paletteSize);
+
+        bitsPerIndexShift = getBitsPerIndexShift(paletteSize);
+        bitsPerIndex = 1 << bitsPerIndexShift;
+        indexMask = (1L << bitsPerIndex) - 1;
+
+        // Pack indexes.  The number of bits per index is a power of two, so indexes never straddle two words.
+        indexes = new long[getIndexWordCount(blockCount, bitsPerIndex)];
+        for (int i = 0; i < blockCount; i++) {
+            final int bitPosition = i << bitsPerIndexShift;
+            indexes[bitPosition >> WORD_BITS_SHIFT] |= ((long) voxelPaletteIndexes[i]) << (bitPosition & WORD_BITS_MASK);
+        }
+    }
+
+    /**
+     * @return number of bytes a palette storage with the specified number of palette entries uses.
+     */
+    static int calculateMemoryUsageBytes(int paletteSize, int blockCount) {
+        return paletteSize * 4 + getIndexWordCount(blockCount, 1 << getBitsPerIndexShift(paletteSize)) * 8;
+    }
+
+    @Override public byte getPrimaryMaterial(int blockIndex) {
+        return (byte) getVoxel(blockIndex);
+    }
+
+    @Override public byte getSecondaryMaterial(int blockIndex) {
+        return (byte) (getVoxel(blockIndex) >> 8);
+    }
+
+    @Override public byte getMaterialRatio(int blockIndex) {
+        return (byte) (getVoxel(blockIndex) >> 16);
+    }
+
+    @Override public byte getVolume(int blockIndex) {
+        return (byte) (getVoxel(blockIndex) >> 24);
+    }
+
+    @Override public int getMemoryUsageBytes() {
+        return palette.length * 4 + indexes.length * 8;
+    }
+
+    @Override public void release() {
+        // Nothing to reuse, the storage is small
+    }
+
+    private int getVoxel(int blockIndex) {
+        final int bitPosition = blockIndex << bitsPerIndexShift;
+        final int paletteIndex = (int) ((indexes[bitPosition >> WORD_BITS_SHIFT] >>> (bitPosition & WORD_BITS_MASK)) & indexMask);
+        return palette[paletteIndex];
+    }
+
+    /**
+     * @return base two logarithm of the bits needed per index, for 1, 2, 4 or 8 bits per index.
+     */
+    private static int getBitsPerIndexShift(int paletteSize) {
+        if (paletteSize <= 2) return 0;
+        else if (paletteSize <= 4) return 1;
+        else if (paletteSize <= 16) return 2;
+        else return 3;
+    }
+
+    private static int getIndexWordCount(int blockCount, int bitsPerIndex) {
+        return (blockCount * bitsPerIndex + WORD_BITS_MASK) >> WORD_BITS_SHIFT;
+    }
+}
@@ -0,0 +1,137 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.math.Vector3;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.flowutils.Check.notNull;
+import static org.flowutils.Check.positive;
+
+/**
+ * Calculates a single chunk in parallel, by splitting its data points into z-slabs that are calculated on an executor.
+ * The calling thread calculates the first slab itself, and then waits for the rest.
+ *
+ * As each data point is calculated by the same code regardless of the slab it is in,
+ * the result is identical to calculating the chunk serially.
+ */
+public final class ParallelSlabWorldFunction implements WorldFunction {
+
+    private final SlabWorldFunction worldFunction;
+    private final Executor slabExecutor;
+    private final int slabCount;
+
+    /**
+     * @param worldFunction function to calculate the slabs with.
+     * @param slabExecutor executor to calculate the slabs on.  Should not be the executor that calls calculateChunk,
+     *                     as the calling thread blocks until all slabs are ready.
+     * @param slabCount number of slabs to split each chunk into, at most one per data point along the z axis.
+     */
+    public ParallelSlabWorldFunction(SlabWorldFunction worldFunction, Executor slabExecutor, int slabCount) {
+        notNull(worldFunction, "worldFunction");
+        notNull(slabExecutor, "slabExecutor");
+        positive(slabCount, "slabCount");
+
+        this.worldFunction = worldFunction;
+        this.slabExecutor = slabExecutor;
+        this.slabCount = slabCount;
+    }
+
+    @Override public Vector3 getGravitationCenter() {
+        return worldFunction.getGravitationCenter();
+    }
+
+    @Override public void calculateChunk(final byte[] primaryMaterial,
+                                         final byte[] secondaryMaterial,
+                                         final byte[] materialRatio,
+                                         final byte[] volume,
+                                         final double centerX,
+                                         final double centerY,
+                                         final double centerZ,
+                                         final int dataPointsAlongEachAxis,
+                                         final double dataPointDistanceMeters,
+                                         final WorldGenerationListener listener) {
+
+        final int slabs = Math.min(slabCount, dataPointsAlongEachAxis);
+
+        final CountDownLatch remainingSlabs = new CountDownLatch(slabs - 1);
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+        // Start the other slabs on the executor
+        for (int i = 1; i < slabs; i++) {
+            final int startZ = i * dataPointsAlongEachAxis / slabs;
+            final int endZ = (i + 1) * dataPointsAlongEachAxis / slabs;
+            final Runnable slabCalculation = new Runnable() {
+                @Override public void run() {
+                    try {
+                        if (!aborted.get() &&
+                            !worldFunction.calculateChunkSlabs(primaryMaterial, secondaryMaterial, materialRatio, volume,
+                                                               centerX, centerY, centerZ,
+                                                               dataPointsAlongEachAxis, dataPointDistanceMeters,
+                                                               startZ, endZ,
+                                                               listener)) {
+                            aborted.set(true);
+                        }
+                    }
+                    catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                        aborted.set(true);
+                    }
+                    finally {
+                        remainingSlabs.countDown();
+                    }
+                }
+            };
+
+            try {
+                slabExecutor.execute(slabCalculation);
+            }
+            catch (RejectedExecutionException e) {
+                // Executor is shutting down, calculate the slab here instead
+                slabCalculation.run();
+            }
+        }
+
+        // Calculate the first slab in this thread
+        try {
+            if (!worldFunction.calculateChunkSlabs(primaryMaterial, secondaryMaterial, materialRatio, volume,
+                                                   centerX, centerY, centerZ,
+                                                   dataPointsAlongEachAxis, dataPointDistanceMeters,
+                                                   0, dataPointsAlongEachAxis / slabs,
+                                                   listener)) {
+                aborted.set(true);
+            }
+        }
+        catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            aborted.set(true);
+        }
+
+        // Wait for the other slabs, they write into the same arrays
+        try {
+            remainingSlabs.await();
+        }
+        catch (InterruptedException e) {
+            // Only happens when the generator threads are shut down, give up on the chunk
+            Thread.currentThread().interrupt();
+            aborted.set(true);
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        if (listener != null) {
+            if (aborted.get()) {
+                listener.calculationAborted();
+            }
+            else {
+                listener.calculationReady();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.landscapelib.voxel;
+
+/**
+ * A world function that can calculate a range of z-slabs of a chunk independently of the rest of the chunk,
+ * allowing the slabs of one chunk to be calculated in parallel.
+ */
+public interface SlabWorldFunction extends WorldFunction {
+
+    /**
+     * Calculates the data points with z coordinates from startZ (inclusive) to endZ (exclusive).
+     * The data points are stored at the same indexes as calculateChunk would store them at.
+     * The result for a data point should not depend on which slab range it was calculated in.
+     *
+     * Implementations should call listener.calculationProgress regularly and stop if it returns false,
+     * but should not call calculationReady or calculationAborted, that is left to the caller.
+     * May be called from several threads at the same time for different slabs of the same chunk.
+     *
+     * @return true if the slabs were completed, false if the calculation was aborted.
+     */
+    boolean calculateChunkSlabs(byte[] primaryMaterial,
+                                byte[] secondaryMaterial,
+                                byte[] materialRatio,
+                                byte[] volume,
+                                double centerX,
+                                double centerY,
+                                double centerZ,
+                                int dataPointsAlongEachAxis,
+                                double dataPointDistanceMeters,
+                                int startZ,
+                                int endZ,
+                                WorldGenerationListener listener);
+
+}
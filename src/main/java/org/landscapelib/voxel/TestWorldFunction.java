@@ -3,21 +3,107 @@ package org.landscapelib.voxel;
 import com.badlogic.gdx.math.Vector3;
 import org.flowutils.SimplexGradientNoise;
 
+import static org.flowutils.Check.positiveOrZero;
+
 /**
  *
  */
-public class TestWorldFunction implements WorldFunction {
+public class TestWorldFunction implements SlabWorldFunction, BoundedWorldFunction {
+
+    /**
+     * Default largest error allowed in the density when interpolating low frequency noise octaves, in meters.
+     */
+    public static final double DEFAULT_MAX_INTERPOLATION_ERROR_METERS = 0.01;
 
+    /**
+     * Number of rows of data points to calculate between progress notifications.
+     */
     private static final int LISTENER_UPDATE_INTERVALL = 4;
+
+    private static final int OCTAVE_COUNT = 3;
+
+    private static final double SCALE_1 = 2000;
+    private static final double SCALE_2 = 100;
+    private static final double SCALE_3 = 17;
+
+    private static final double[] OCTAVE_SCALES = {SCALE_1, SCALE_2, SCALE_3};
+
+    private static final double AMPLITUDE_1 = 400;
+    private static final double AMPLITUDE_2 = 10;
+    private static final double AMPLITUDE_3 = 3;
+
+    // Scales of the noise that modulates the amplitude of the second octave, along each axis
+    private static final double AMPLITUDE_2_SCALE_X = SCALE_2 * 20;
+    private static final double AMPLITUDE_2_SCALE_Y = SCALE_2 * 32.3;
+    private static final double AMPLITUDE_2_SCALE_Z = SCALE_2 * 13.32;
+
+    /**
+     * Largest absolute value returned by the noise function, with a small margin to keep density bounds conservative.
+     */
+    static final double MAX_NOISE_MAGNITUDE = 1.1;
+
+    // The noise is simplex noise: the sum of the kernels 28 * (0.6 - r^2)^4 * dot(g, d) of the four corners of the simplex
+    // containing the location, where d is the offset from the corner, r the length of d, and g the gradient of the corner,
+    // which has two components that are 1 or -1 and one that is 0.
+    private static final int NOISE_CORNER_COUNT = 4;
+    private static final double NOISE_KERNEL_SCALE = 28;
+    private static final double NOISE_KERNEL_RADIUS_SQUARED = 0.6;
+
+    /**
+     * Upper bound for the first derivative of the noise function along one axis, in noise coordinates.
+     */
+    static final double MAX_NOISE_SLOPE = NOISE_CORNER_COUNT * NOISE_KERNEL_SCALE * calculateMaxKernelDerivative(1);
+
+    /**
+     * Upper bound for the second derivative of the noise function along one axis, in noise coordinates.
+     * Used to determine how far apart noise samples can be interpolated within the error bound.
+     */
+    static final double MAX_NOISE_CURVATURE = NOISE_CORNER_COUNT * NOISE_KERNEL_SCALE * calculateMaxKernelDerivative(2);
+
     private final SimplexGradientNoise noise = new SimplexGradientNoise();
 
+    private final double maxInterpolationErrorMeters;
+
     private float planetRadiusMeters = 10000;
     private Vector3 planetCenter = new Vector3(0, -planetRadiusMeters, 0);
 
+    /**
+     * Creates a world function that interpolates low frequency octaves with the default error bound.
+     */
+    public TestWorldFunction() {
+        this(DEFAULT_MAX_INTERPOLATION_ERROR_METERS);
+    }
+
+    /**
+     * @param maxInterpolationErrorMeters largest error allowed in the density when noise octaves that change slowly
+     *                                    compared to the data point distance are sampled on a coarse lattice and
+     *                                    interpolated, instead of being calculated for each data point.
+     *                                    Zero to calculate all octaves for each data point.
+     */
+    public TestWorldFunction(double maxInterpolationErrorMeters) {
+        positiveOrZero(maxInterpolationErrorMeters, "maxInterpolationErrorMeters");
+
+        this.maxInterpolationErrorMeters = maxInterpolationErrorMeters;
+    }
+
+    /**
+     * @return largest error allowed in the density when interpolating low frequency noise octaves, in meters.
+     */
+    public double getMaxInterpolationErrorMeters() {
+        return maxInterpolationErrorMeters;
+    }
+
     @Override public Vector3 getGravitationCenter() {
         return planetCenter;
     }
 
+    /**
+     * @return distance from the planet center to the surface before the noise is added, in meters.
+     */
+    public float getPlanetRadiusMeters() {
+        return planetRadiusMeters;
+    }
+
     @Override public final void calculateChunk(final byte[] primaryMaterial,
                                                final byte[] secondaryMaterial,
                                                final byte[] materialRatio,
@@ -29,28 +115,86 @@ public class TestWorldFunction implements WorldFunction {
                                                final double dataPointDistanceMeters,
                                                final WorldGenerationListener listener) {
 
-        // Loop all datapoints
+        final boolean completed = calculateChunkSlabs(primaryMaterial, secondaryMaterial, materialRatio, volume,
+                                                      centerX, centerY, centerZ,
+                                                      dataPointsAlongEachAxis, dataPointDistanceMeters,
+                                                      0, dataPointsAlongEachAxis,
+                                                      listener);
+
+        // Notify listener we are ready, or that we stopped
+        if (listener != null) {
+            if (completed) listener.calculationReady();
+            else listener.calculationAborted();
+        }
+    }
+
+    @Override public final boolean calculateChunkSlabs(final byte[] primaryMaterial,
+                                                       final byte[] secondaryMaterial,
+                                                       final byte[] materialRatio,
+                                                       final byte[] volume,
+                                                       final double centerX,
+                                                       final double centerY,
+                                                       final double centerZ,
+                                                       final int dataPointsAlongEachAxis,
+                                                       final double dataPointDistanceMeters,
+                                                       final int startZ,
+                                                       final int endZ,
+                                                       final WorldGenerationListener listener) {
+
+        // Loop the datapoints in the slabs.
+        // Positions are calculated from the data point coordinates instead of accumulated,
+        // so that the values do not depend on where the slab range starts.
 
         final double centerOffset = 0.5 * (dataPointsAlongEachAxis - 1) * dataPointDistanceMeters;
 
         final double startX = centerX - centerOffset;
         final double startY = centerY - centerOffset;
+        final double startZPos = centerZ - centerOffset;
+
+        // Octaves that change slowly compared to the data point distance are sampled on a coarse lattice and interpolated.
+        // The lattice is aligned with the first data point of the chunk, so the result does not depend on the slab range either.
+        final boolean[] octaveUsed = new boolean[OCTAVE_COUNT];
+        final OctaveLattice[] lattices = new OctaveLattice[OCTAVE_COUNT];
+        for (int octave = 0; octave < OCTAVE_COUNT; octave++) {
+            octaveUsed[octave] = dataPointDistanceMeters < OCTAVE_SCALES[octave];
+            if (octaveUsed[octave]) {
+                final int latticeStep = getLatticeStep(octave, dataPointsAlongEachAxis, dataPointDistanceMeters);
+                if (latticeStep >= 2) {
+                    lattices[octave] = new OctaveLattice(octave, latticeStep,
+                                                         startX, startY, startZPos,
+                                                         dataPointsAlongEachAxis, dataPointDistanceMeters,
+                                                         startZ, endZ);
+                }
+            }
+        }
 
         double xPos;
         double yPos;
-        double zPos = centerZ - centerOffset;
+        double zPos;
 
-        int index = 0;
-        for (int z = 0; z < dataPointsAlongEachAxis; z++) {
-            yPos = startY;
+        int index = startZ * dataPointsAlongEachAxis * dataPointsAlongEachAxis;
+        int rowsDone = 0;
+        for (int z = startZ; z < endZ; z++) {
+            zPos = startZPos + z * dataPointDistanceMeters;
             for (int y = 0; y < dataPointsAlongEachAxis; y++) {
-                xPos = startX;
+                yPos = startY + y * dataPointDistanceMeters;
                 for (int x = 0; x < dataPointsAlongEachAxis; x++) {
+                    xPos = startX + x * dataPointDistanceMeters;
 
                     //index = Chunk.calculateBlockIndex(x, y, z);
 
                     // Determine density at the location
-                    int density = (int) (0xFF * getDensity(xPos, yPos, zPos, dataPointDistanceMeters));
+                    double densityMeters = getPlanetDensity(xPos, yPos, zPos);
+                    for (int octave = 0; octave < OCTAVE_COUNT; octave++) {
+                        if (lattices[octave] != null) {
+                            densityMeters += lattices[octave].interpolate(x, y, z);
+                        }
+                        else if (octaveUsed[octave]) {
+                            densityMeters += getOctave(octave, xPos, yPos, zPos);
+                        }
+                    }
+
+                    int density = (int) (0xFF * densityMeters);
                     if (density < 0) density = 0;
                     else if (density > 0xFF) density = 0xFF;
 
@@ -62,71 +206,282 @@ public class TestWorldFunction implements WorldFunction {
                     //volume[index] = (centerY > 0) ? 0 : (byte) 1;
 
                     index++;
-                    xPos += dataPointDistanceMeters;
                 }
-                yPos += dataPointDistanceMeters;
-            }
-            zPos += dataPointDistanceMeters;
-
-            // Notify listener now and then
-            /*
-            if (listener != null && (zPos % LISTENER_UPDATE_INTERVALL) == 0) {
-                final boolean continueCalculation = listener.calculationProgress((float) z / dataPointsAlongEachAxis);
-                if (!continueCalculation) {
-                    // Abort requested, stop calculation
-                    listener.calculationAborted();
-                    return;
+
+                // Notify listener now and then, and stop if the chunk is no longer needed
+                rowsDone++;
+                if (listener != null && rowsDone % LISTENER_UPDATE_INTERVALL == 0) {
+                    final float progress = (float) rowsDone / ((endZ - startZ) * dataPointsAlongEachAxis);
+                    if (!listener.calculationProgress(progress)) {
+                        // Abort requested, stop calculation
+                        return false;
+                    }
                 }
             }
-            */
         }
 
-        // Notify listener we are ready
-        if (listener != null) {
-            listener.calculationReady();
-        }
+        return true;
     }
 
 
-    private double getDensity(final double worldX,
-                              final double worldY,
-                              final double worldZ,
-                              final double smallestFeatureScale) {
-        double scale1 = 2000;
-        double scale2 = 100;
-        double scale3 = 17;
+    @Override public void calculateDensityBounds(final double minX,
+                                                 final double minY,
+                                                 final double minZ,
+                                                 final double maxX,
+                                                 final double maxY,
+                                                 final double maxZ,
+                                                 final double dataPointDistanceMeters,
+                                                 final double[] boundsOut) {
+        // Closest and farthest distance from the planet center to the box
+        final double closestA = planetCenter.x - clamp(planetCenter.x, minX, maxX);
+        final double closestB = planetCenter.y - clamp(planetCenter.y, minY, maxY);
+        final double closestC = planetCenter.z - clamp(planetCenter.z, minZ, maxZ);
+        final double farthestA = Math.max(Math.abs(planetCenter.x - minX), Math.abs(planetCenter.x - maxX));
+        final double farthestB = Math.max(Math.abs(planetCenter.y - minY), Math.abs(planetCenter.y - maxY));
+        final double farthestC = Math.max(Math.abs(planetCenter.z - minZ), Math.abs(planetCenter.z - maxZ));
+        final double closestDistance = Math.sqrt(closestA * closestA + closestB * closestB + closestC * closestC);
+        final double farthestDistance = Math.sqrt(farthestA * farthestA + farthestB * farthestB + farthestC * farthestC);
+
+        // The noise can move the surface by at most the sum of the amplitudes of the included octaves,
+        // and interpolation of the octaves by at most the allowed error.
+        final double noiseAmplitude = getMaxNoiseAmplitude(dataPointDistanceMeters) + maxInterpolationErrorMeters;
+
+        boundsOut[0] = planetRadiusMeters - farthestDistance - noiseAmplitude;
+        boundsOut[1] = planetRadiusMeters - closestDistance + noiseAmplitude;
+    }
 
+    private double getPlanetDensity(final double worldX,
+                                    final double worldY,
+                                    final double worldZ) {
         final double a = planetCenter.x - worldX;
         final double b = planetCenter.y - worldY;
         final double c = planetCenter.z - worldZ;
         double distance = Math.sqrt(a * a + b * b + c * c);
 
-        double planetDensity = planetRadiusMeters - distance;
+        return planetRadiusMeters - distance;
+    }
+
+    /**
+     * @return the density contribution of the specified noise octave at the location.
+     */
+    private double getOctave(final int octave,
+                             final double worldX,
+                             final double worldY,
+                             final double worldZ) {
+        switch (octave) {
+            case 0:
+                return AMPLITUDE_1 * noise.sdnoise3(worldX / SCALE_1,
+                                                    worldY / SCALE_1,
+                                                    worldZ / SCALE_1);
+            case 1:
+                double amplitude = AMPLITUDE_2 * noise.sdnoise3(worldX / AMPLITUDE_2_SCALE_X + 98213.123,
+                                                                worldY / AMPLITUDE_2_SCALE_Y + 0123.123,
+                                                                worldZ / AMPLITUDE_2_SCALE_Z + 9432.23);
+
+                return amplitude * amplitude * noise.sdnoise3(worldX / SCALE_2 + 3123,
+                                                              worldY / SCALE_2 + 434.3,
+                                                              worldZ / SCALE_2 + 123.321);
+            case 2:
+                return AMPLITUDE_3 * noise.sdnoise3(worldX / SCALE_3 + 543,
+                                                    worldY / SCALE_3 + 5434.3,
+                                                    worldZ / SCALE_3 + 63.41);
+            default:
+                throw new IllegalArgumentException("Unknown octave " + octave);
+        }
+    }
+
+    /**
+     * @return largest absolute value the specified noise octave can have.
+     */
+    private static double getOctaveMaxMagnitude(final int octave) {
+        switch (octave) {
+            case 0:
+                return AMPLITUDE_1 * MAX_NOISE_MAGNITUDE;
+            case 1:
+                // The octave amplitude is itself a noise value, squared
+                final double maxOctaveAmplitude = AMPLITUDE_2 * MAX_NOISE_MAGNITUDE;
+                return maxOctaveAmplitude * maxOctaveAmplitude * MAX_NOISE_MAGNITUDE;
+            case 2:
+                return AMPLITUDE_3 * MAX_NOISE_MAGNITUDE;
+            default:
+                throw new IllegalArgumentException("Unknown octave " + octave);
+        }
+    }
+
+    /**
+     * @return upper bound for the second derivative of the specified noise octave along one axis, in meters per square meter.
+     */
+    private static double getOctaveMaxCurvature(final int octave) {
+        switch (octave) {
+            case 0:
+                return AMPLITUDE_1 * MAX_NOISE_CURVATURE / (SCALE_1 * SCALE_1);
+            case 1:
+                // The octave is a * a * b, where a is the amplitude noise and b the detail noise,
+                // so the second derivative is 2 a'^2 b + 2 a a'' b + 4 a a' b' + a^2 b''.
+                // The amplitude noise changes fastest along the axis with the smallest scale.
+                final double amplitudeScale = Math.min(AMPLITUDE_2_SCALE_X, Math.min(AMPLITUDE_2_SCALE_Y, AMPLITUDE_2_SCALE_Z));
+                final double a = AMPLITUDE_2 * MAX_NOISE_MAGNITUDE;
+                final double da = AMPLITUDE_2 * MAX_NOISE_SLOPE / amplitudeScale;
+                final double dda = AMPLITUDE_2 * MAX_NOISE_CURVATURE / (amplitudeScale * amplitudeScale);
+                final double b = MAX_NOISE_MAGNITUDE;
+                final double db = MAX_NOISE_SLOPE / SCALE_2;
+                final double ddb = MAX_NOISE_CURVATURE / (SCALE_2 * SCALE_2);
+                return 2 * da * da * b + 2 * a * dda * b + 4 * a * da * db + a * a * ddb;
+            case 2:
+                return AMPLITUDE_3 * MAX_NOISE_CURVATURE / (SCALE_3 * SCALE_3);
+            default:
+                throw new IllegalArgumentException("Unknown octave " + octave);
+        }
+    }
+
+    /**
+     * Calculates an upper bound for the first or second derivative along the x axis of the kernel of one simplex corner,
+     * (0.6 - r^2)^4 * dot(g, d), over all offsets d and gradients g.
+     * The derivatives are polynomials in the offset, they are maximized over the offset along x and the distance from
+     * the x axis, with the other offset components placed to make dot(g, d) as large as possible.
+     * The polynomials are smooth, so a fine sampling with a small margin gives a bound.
+     *
+     * @param order 1 for the first derivative, 2 for the second derivative.
+     */
+    private static double calculateMaxKernelDerivative(final int order) {
+        final int steps = 200;
+        final double radius = Math.sqrt(NOISE_KERNEL_RADIUS_SQUARED);
+        double max = 0;
+        for (int i = 0; i <= steps; i++) {
+            final double x = radius * i / steps;
+            for (int j = 0; j <= steps; j++) {
+                final double distanceFromAxis = radius * j / steps;
+                final double t = NOISE_KERNEL_RADIUS_SQUARED - x * x - distanceFromAxis * distanceFromAxis;
+                if (t <= 0) continue;
 
-        double density = planetDensity;
+                // Gradients with an x component of 1, with the other component along the offset or against it
+                max = Math.max(max, Math.abs(getKernelDerivative(order, x, t, 1, x + distanceFromAxis)));
+                max = Math.max(max, Math.abs(getKernelDerivative(order, x, t, 1, x - distanceFromAxis)));
 
-        if (smallestFeatureScale < scale1) {
-            density += 400 * noise.sdnoise3(worldX / scale1,
-                                            worldY / scale1,
-                                            worldZ / scale1);
+                // Gradients with an x component of 0, with both components along the offset
+                max = Math.max(max, Math.abs(getKernelDerivative(order, x, t, 0, Math.sqrt(2) * distanceFromAxis)));
+            }
         }
 
-        if (smallestFeatureScale < scale2) {
-            double amplitude = 10 * noise.sdnoise3(worldX / (scale2 * 20) + 98213.123,
-                                           worldY / (scale2 *32.3)+ 0123.123,
-                                           worldZ / (scale2 * 13.32) + 9432.23);
+        // Gradients with an x component of -1 mirror the ones above
+        return max * 1.01;
+    }
 
-            density += amplitude *amplitude * noise.sdnoise3(worldX / scale2 + 3123,
-                                          worldY / scale2 + 434.3,
-                                          worldZ / scale2 + 123.321);
+    /**
+     * @return first or second derivative along x of the kernel t^4 * dot(g, d), where t = 0.6 - r^2,
+     *         gradientX is the x component of the gradient g, and dot is the value of dot(g, d).
+     */
+    private static double getKernelDerivative(final int order, final double x, final double t, final double gradientX, final double dot) {
+        if (order == 1) {
+            return t * t * t * (t * gradientX - 8 * x * dot);
         }
+        else {
+            return t * t * (-8 * t * dot + 48 * x * x * dot - 16 * x * t * gradientX);
+        }
+    }
 
-        if (smallestFeatureScale < scale3) {
-            density += 3 * noise.sdnoise3(worldX / scale3 + 543,
-                                            worldY / scale3 + 5434.3,
-                                            worldZ / scale3 + 63.41);
+    /**
+     * @return largest amount the noise octaves used with the specified feature scale can change the density.
+     */
+    private static double getMaxNoiseAmplitude(final double smallestFeatureScale) {
+        double amplitude = 0;
+        for (int octave = 0; octave < OCTAVE_COUNT; octave++) {
+            if (smallestFeatureScale < OCTAVE_SCALES[octave]) {
+                amplitude += getOctaveMaxMagnitude(octave);
+            }
         }
+        return amplitude;
+    }
+
+    /**
+     * @return number of data points between the lattice points the octave can be interpolated from within the error bound,
+     *         or one or less if the octave should be calculated for each data point.
+     */
+    private int getLatticeStep(final int octave, final int dataPointsAlongEachAxis, final double dataPointDistanceMeters) {
+        if (maxInterpolationErrorMeters <= 0) return 1;
 
-        return density;
+        // The error of trilinear interpolation is at most spacing^2 / 8 times the second derivative, for each axis.
+        // The error budget is split evenly between the octaves.
+        final double maxCurvature = getOctaveMaxCurvature(octave);
+        final double maxOctaveError = maxInterpolationErrorMeters / OCTAVE_COUNT;
+        final double latticeSpacing = Math.sqrt(8 * maxOctaveError / (3 * maxCurvature));
+
+        // No need for lattice points further apart than the chunk
+        return (int) Math.min(latticeSpacing / dataPointDistanceMeters, dataPointsAlongEachAxis - 1);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        if (value < min) return min;
+        else if (value > max) return max;
+        else return value;
+    }
+
+    /**
+     * Values of one noise octave sampled on a coarse lattice over the data points of a range of z-slabs of a chunk.
+     */
+    private final class OctaveLattice {
+        private final int step;
+        private final int pointsAlongXY;
+        private final int firstZPoint;
+        private final double[] values;
+
+        OctaveLattice(int octave,
+                      int step,
+                      double startX,
+                      double startY,
+                      double startZ,
+                      int dataPointsAlongEachAxis,
+                      double dataPointDistanceMeters,
+                      int startZDataPoint,
+                      int endZDataPoint) {
+            this.step = step;
+
+            // One extra lattice point, so that the last data point always has a lattice point on both sides
+            pointsAlongXY = (dataPointsAlongEachAxis - 1) / step + 2;
+            firstZPoint = startZDataPoint / step;
+            final int pointsAlongZ = (endZDataPoint - 1) / step + 2 - firstZPoint;
+
+            values = new double[pointsAlongXY * pointsAlongXY * pointsAlongZ];
+
+            final double latticeDistance = step * dataPointDistanceMeters;
+            int index = 0;
+            for (int z = 0; z < pointsAlongZ; z++) {
+                final double zPos = startZ + (firstZPoint + z) * latticeDistance;
+                for (int y = 0; y < pointsAlongXY; y++) {
+                    final double yPos = startY + y * latticeDistance;
+                    for (int x = 0; x < pointsAlongXY; x++) {
+                        final double xPos = startX + x * latticeDistance;
+                        values[index++] = getOctave(octave, xPos, yPos, zPos);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the octave value at the specified data point, interpolated from the surrounding lattice points.
+         */
+        double interpolate(int x, int y, int z) {
+            final int lx = x / step;
+            final int ly = y / step;
+            final int lz = z / step - firstZPoint;
+            final double fx = (double) (x - lx * step) / step;
+            final double fy = (double) (y - ly * step) / step;
+            final double fz = (double) (z - (lz + firstZPoint) * step) / step;
+
+            final int dy = pointsAlongXY;
+            final int dz = pointsAlongXY * pointsAlongXY;
+            final int i = lx + ly * dy + lz * dz;
+
+            final double v00 = mix(values[i], values[i + 1], fx);
+            final double v10 = mix(values[i + dy], values[i + dy + 1], fx);
+            final double v01 = mix(values[i + dz], values[i + dz + 1], fx);
+            final double v11 = mix(values[i + dy + dz], values[i + dy + dz + 1], fx);
+
+            return mix(mix(v00, v10, fy), mix(v01, v11, fy), fz);
+        }
+
+        private double mix(double a, double b, double t) {
+            return a + (b - a) * t;
+        }
     }
 }
@@ -0,0 +1,76 @@
+package org.landscapelib.voxel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Storage for chunks where all voxels have the same values, e.g. chunks completely filled with air or rock.
+ * Instances are immutable and shared between all chunks with the same content.
+ */
+public final class UniformVoxelStorage implements VoxelStorage {
+
+    private static final ConcurrentMap<Integer, UniformVoxelStorage> INSTANCES = new ConcurrentHashMap<Integer, UniformVoxelStorage>();
+
+    private final byte primaryMaterial;
+    private final byte secondaryMaterial;
+    private final byte materialRatio;
+    private final byte volume;
+
+    /**
+     * @return the shared storage where all voxels have the specified values.
+     */
+    public static UniformVoxelStorage get(byte primaryMaterial, byte secondaryMaterial, byte materialRatio, byte volume) {
+        final Integer key = packVoxel(primaryMaterial, secondaryMaterial, materialRatio, volume);
+
+        UniformVoxelStorage storage = INSTANCES.get(key);
+        if (storage == null) {
+            storage = new UniformVoxelStorage(primaryMaterial, secondaryMaterial, materialRatio, volume);
+            final UniformVoxelStorage previous = INSTANCES.putIfAbsent(key, storage);
+            if (previous != null) storage = previous;
+        }
+
+        return storage;
+    }
+
+    /**
+     * @return the values of a voxel packed into one int, primary material in the lowest byte and volume in the highest.
+     */
+    static int packVoxel(byte primaryMaterial, byte secondaryMaterial, byte materialRatio, byte volume) {
+        return (primaryMaterial & 0xFF) |
+               ((secondaryMaterial & 0xFF) << 8) |
+               ((materialRatio & 0xFF) << 16) |
+               ((volume & 0xFF) << 24);
+    }
+
+    private UniformVoxelStorage(byte primaryMaterial, byte secondaryMaterial, byte materialRatio, byte volume) {
+        this.primaryMaterial = primaryMaterial;
+        this.secondaryMaterial = secondaryMaterial;
+        this.materialRatio = materialRatio;
+        this.volume = volume;
+    }
+
+    @Override public byte getPrimaryMaterial(int blockIndex) {
+        return primaryMaterial;
+    }
+
+    @Override public byte getSecondaryMaterial(int blockIndex) {
+        return secondaryMaterial;
+    }
+
+    @Override public byte getMaterialRatio(int blockIndex) {
+        return materialRatio;
+    }
+
+    @Override public byte getVolume(int blockIndex) {
+        return volume;
+    }
+
+    @Override public int getMemoryUsageBytes() {
+        // Shared by all chunks with the same content
+        return 0;
+    }
+
+    @Override public void release() {
+        // Shared, nothing to release
+    }
+}
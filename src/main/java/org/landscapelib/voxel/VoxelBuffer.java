@@ -0,0 +1,44 @@
+package org.landscapelib.voxel;
+
+/**
+ * Scratch arrays that a world function writes the data of one chunk into,
+ * before it is stored in the chunk with a VoxelStorageFactory.
+ * Buffers are reused between calculations, so only chunks that are being calculated need one.
+ */
+public final class VoxelBuffer {
+
+    private final byte[] primaryMaterial;
+    private final byte[] secondaryMaterial;
+    private final byte[] materialRatio;
+    private final byte[] volume;
+
+    /**
+     * @param blockCount number of blocks in the chunks the buffer is used for.
+     */
+    public VoxelBuffer(int blockCount) {
+        primaryMaterial = new byte[blockCount];
+        secondaryMaterial = new byte[blockCount];
+        materialRatio = new byte[blockCount];
+        volume = new byte[blockCount];
+    }
+
+    public int getBlockCount() {
+        return volume.length;
+    }
+
+    public byte[] getPrimaryMaterial() {
+        return primaryMaterial;
+    }
+
+    public byte[] getSecondaryMaterial() {
+        return secondaryMaterial;
+    }
+
+    public byte[] getMaterialRatio() {
+        return materialRatio;
+    }
+
+    public byte[] getVolume() {
+        return volume;
+    }
+}
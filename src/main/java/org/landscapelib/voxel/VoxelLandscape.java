@@ -27,8 +27,19 @@ public class VoxelLandscape implements LandscapeRenderer {
     private static final int DEFAULT_DETAIL_LEVELS = 15;
     private static final float DEFAULT_MOST_DETAILED_BLOCK_SIZE_METERS = 0.5f;
 
+    /**
+     * Default maximum time spent starting the generation of queued chunks per update.
+     */
+    public static final float DEFAULT_GENERATION_MILLISECONDS_PER_FRAME = 2f;
+
+    private long generationNanosPerFrame = (long) (DEFAULT_GENERATION_MILLISECONDS_PER_FRAME * 1000000);
+
+    // Batches of chunks kept generating for each generator thread.  The rest stay in the queues of the detail levels,
+    // so that they are started in the order of the queues when the camera has moved on.
+    private static final int GENERATING_BATCHES_PER_THREAD = 2;
+
     private final ModelBuilder modelBuilder = new ModelBuilder();
-    private final ChunkMeshGenerator chunkMeshGenerator = new ChunkMeshGenerator();
+    private final ChunkMeshGenerator chunkMeshGenerator;
 
 
 
@@ -44,58 +55,257 @@ public class VoxelLandscape implements LandscapeRenderer {
                           WorldFunction worldFunction,
                           Camera camera,
                           ChunkManager chunkManager) {
+        this(numDetailLevels, mostDetailedBlockSizeMeters, Chunk.DEFAULT_CHUNK_SIZE, worldFunction, camera, chunkManager);
+    }
 
-        Check.positive(numDetailLevels, "numDetailLevels");
+    /**
+     * @param chunkSize number of blocks along each side of the chunks in all detail levels.
+     *                  A power of two between Chunk.MIN_CHUNK_SIZE and Chunk.MAX_CHUNK_SIZE.
+     *                  Larger chunks mean fewer meshes and draw calls, but more work when a chunk is regenerated.
+     */
+    public VoxelLandscape(int numDetailLevels,
+                          float mostDetailedBlockSizeMeters,
+                          int chunkSize,
+                          WorldFunction worldFunction,
+                          Camera camera,
+                          ChunkManager chunkManager) {
+        this(createUniformChunkSizes(numDetailLevels, chunkSize), mostDetailedBlockSizeMeters, worldFunction, camera, chunkManager);
+    }
+
+    /**
+     * @param chunkSizes number of blocks along each side of the chunks for each detail level, starting from the most detailed level.
+     *                   Each a power of two between Chunk.MIN_CHUNK_SIZE and Chunk.MAX_CHUNK_SIZE,
+     *                   and either the same or twice the chunk size of the previous level.
+     *                   The number of detail levels is the length of the array.
+     */
+    public VoxelLandscape(int[] chunkSizes,
+                          float mostDetailedBlockSizeMeters,
+                          WorldFunction worldFunction,
+                          Camera camera,
+                          ChunkManager chunkManager) {
+        this(chunkSizes, mostDetailedBlockSizeMeters, worldFunction, camera, chunkManager, new ChunkMeshGenerator());
+    }
+
+    /**
+     * @param chunkSizes number of blocks along each side of the chunks for each detail level, starting from the most detailed level.
+     *                   Each a power of two between Chunk.MIN_CHUNK_SIZE and Chunk.MAX_CHUNK_SIZE,
+     *                   and either the same or twice the chunk size of the previous level.
+     *                   The number of detail levels is the length of the array.
+     * @param chunkMeshGenerator determines how the meshes of the chunks are built, e.g. with smooth surfaces.
+     *                           The meshes are built by the mesher threads of the chunk manager, each with its own generator.
+     */
+    public VoxelLandscape(int[] chunkSizes,
+                          float mostDetailedBlockSizeMeters,
+                          WorldFunction worldFunction,
+                          Camera camera,
+                          ChunkManager chunkManager,
+                          ChunkMeshGenerator chunkMeshGenerator) {
+
+        notNull(chunkSizes, "chunkSizes");
+        Check.positive(chunkSizes.length, "number of detail levels");
         Check.positive(mostDetailedBlockSizeMeters, "mostDetailedBlockSizeMeters");
         notNull(worldFunction, "worldFunction");
         notNull(camera, "camera");
         notNull(chunkManager, "chunkManager");
-
+        notNull(chunkMeshGenerator, "chunkMeshGenerator");
+        for (int i = 0; i < chunkSizes.length; i++) {
+            Chunk.checkChunkSize(chunkSizes[i], "chunkSizes[" + i + "]");
+            if (i > 0 && chunkSizes[i] != chunkSizes[i - 1] && chunkSizes[i] != 2 * chunkSizes[i - 1]) {
+                throw new IllegalArgumentException("The chunk size of each detail level should be the same or twice the chunk size of the previous level, " +
+                                                   "but chunkSizes[" + i + "] was " + chunkSizes[i] + " and chunkSizes[" + (i - 1) + "] was " + chunkSizes[i - 1]);
+            }
+        }
 
         this.worldFunction = worldFunction;
         this.camera = camera;
         this.chunkManager = chunkManager;
+        this.chunkMeshGenerator = chunkMeshGenerator;
 
-        float chunkSizeMeters = mostDetailedBlockSizeMeters * Chunk.CHUNK_SIZE;
-
-        float chunkSizeChange = (float)LAYER_SIZE / HOLE_SIZE;
-
-        int chunksPerLowerDetailLevelChunk = LAYER_SIZE / HOLE_SIZE;
-        int levelOfDetailMargin = chunksPerLowerDetailLevelChunk;
-
+        // The block size doubles for each detail level
+        float blockSizeMeters = mostDetailedBlockSizeMeters;
+        float blockSizeChange = (float)LAYER_SIZE / HOLE_SIZE;
 
         // Create detail levels
+        final int numDetailLevels = chunkSizes.length;
         detailLevels = new DetailLevel[numDetailLevels];
         DetailLevel detailLevel = null;
         for (int i = 0; i < numDetailLevels; i++) {
+            // The hole left for the higher detail level is as large as its layer, so it shrinks if the chunks grow
+            final int chunkSizeChange = i > 0 ? chunkSizes[i] / chunkSizes[i - 1] : 1;
+            final int holeSize = HOLE_SIZE / chunkSizeChange;
+
+            // A margin of one lower detail level chunk, so that the higher detail level covers the hole of the lower one
+            final int chunksPerLowerDetailLevelChunk = i < numDetailLevels - 1
+                                                       ? LAYER_SIZE / HOLE_SIZE * chunkSizes[i + 1] / chunkSizes[i]
+                                                       : LAYER_SIZE / HOLE_SIZE;
+            final int levelOfDetailMargin = chunksPerLowerDetailLevelChunk;
+
             detailLevel = new DetailLevel(worldFunction,
                                           camera,
-                                          chunkSizeMeters,
+                                          blockSizeMeters * chunkSizes[i],
+                                          chunkSizes[i],
                                           chunkManager,
                                           LAYER_SIZE,
-                                          i == 0 ? 0 : HOLE_SIZE,
+                                          i == 0 ? 0 : holeSize,
                                           levelOfDetailMargin,
                                           MARGIN_SIZE,
                                           detailLevel,
                                           chunkMeshGenerator);
             detailLevels[i] = detailLevel;
 
-            chunkSizeMeters *= chunkSizeChange;
+            blockSizeMeters *= blockSizeChange;
+        }
+    }
+
+    private static int[] createUniformChunkSizes(int numDetailLevels, int chunkSize) {
+        Check.positive(numDetailLevels, "numDetailLevels");
+
+        final int[] chunkSizes = new int[numDetailLevels];
+        for (int i = 0; i < numDetailLevels; i++) {
+            chunkSizes[i] = chunkSize;
         }
+        return chunkSizes;
     }
 
     public void update(double secondsSinceLastCall) {
+        // Take chunks that finished calculating in the background into use
+        chunkManager.update();
+
+        // Move the detail levels, the missing chunks are queued and generated within the frame budget
         for (int i = detailLevels.length - 1; i >= 0; i--) {
             detailLevels[i].update(secondsSinceLastCall);
         }
+
+        generateQueuedChunks();
+
+        // Keep rendering the lower detail chunks in the holes until the higher detail chunks in their area are ready
+        for (DetailLevel detailLevel : detailLevels) {
+            detailLevel.updateHoleCover();
+        }
+    }
+
+    /**
+     * Starts generating queued chunks of all detail levels, in batches taken from the level whose next queued chunk is
+     * closest to the camera in chunks, and so covers the largest part of the screen.
+     * Only keeps a few batches per generator thread generating at a time, and stops when the time budget is used up.
+     */
+    private void generateQueuedChunks() {
+        final long startTime = System.nanoTime();
+        final int batchSize = chunkManager.getMaxBatchSize();
+        final int maxGeneratingChunkCount = Math.max(1, chunkManager.getGeneratorThreadCount()) * GENERATING_BATCHES_PER_THREAD * batchSize;
+        while (chunkManager.getGeneratingChunkCount() < maxGeneratingChunkCount &&
+               System.nanoTime() - startTime < generationNanosPerFrame) {
+            DetailLevel nextDetailLevel = null;
+            int nextDistance = Integer.MAX_VALUE;
+            for (DetailLevel detailLevel : detailLevels) {
+                final int distance = detailLevel.getNextQueuedChunkDistance();
+                if (distance >= 0 && distance < nextDistance) {
+                    nextDetailLevel = detailLevel;
+                    nextDistance = distance;
+                }
+            }
+
+            if (nextDetailLevel == null) break;
+
+            nextDetailLevel.generateQueuedChunks(batchSize);
+        }
+    }
+
+    /**
+     * @return maximum time in milliseconds spent starting the generation of queued chunks in one call to update.
+     */
+    public float getGenerationMillisecondsPerFrame() {
+        return generationNanosPerFrame / 1000000f;
+    }
+
+    /**
+     * Sets how much time each call to update spends on starting the generation of the chunks that are missing after the camera moved.
+     * Chunks are also only started while a few batches per generator thread are in progress.
+     * The rest of the chunks stay queued for later frames, the closest ones are generated first.
+     * The chunks are calculated and meshed in the background.  Their meshes, and the merged meshes of chunk regions,
+     * are uploaded within the mesh upload budget of the ChunkManager.
+     * Releasing the chunks that leave a detail level when the camera moves, and moving the kept chunks, is not covered by
+     * this budget, it is done right away in update.
+     *
+     * @param maxMillisecondsPerFrame maximum time to spend per frame.
+     */
+    public void setGenerationBudget(float maxMillisecondsPerFrame) {
+        Check.positive(maxMillisecondsPerFrame, "maxMillisecondsPerFrame");
+        generationNanosPerFrame = (long) (maxMillisecondsPerFrame * 1000000);
+    }
+
+    /**
+     * @return number of detail levels, the most detailed level has index zero.
+     */
+    public int getDetailLevelCount() {
+        return detailLevels.length;
+    }
+
+    /**
+     * @return number of missing chunks of the specified detail level waiting to be generated.
+     */
+    public int getQueuedChunkCount(int detailLevel) {
+        Check.positiveOrZero(detailLevel, "detailLevel");
+        Check.greater(detailLevels.length, "number of detail levels", detailLevel, "detailLevel");
+        return detailLevels[detailLevel].getQueuedChunkCount();
+    }
+
+    /**
+     * @return number of missing chunks of all detail levels waiting to be generated.
+     */
+    public int getQueuedChunkCount() {
+        int count = 0;
+        for (DetailLevel detailLevel : detailLevels) {
+            count += detailLevel.getQueuedChunkCount();
+        }
+        return count;
     }
 
+    /**
+     * Renders the landscape.  The chunk meshes use a packed vertex format,
+     * so the model batch should be created with a {@link ChunkShaderProvider}.
+     */
     public void render(ModelBatch modelBatch, Environment environment) {
         for (DetailLevel detailLevel : detailLevels) {
             detailLevel.render(modelBatch, environment);
         }
     }
 
+    /**
+     * @return number of chunks with a surface that were left out of the latest rendered frame,
+     *         as they were outside the view frustum of the camera.
+     */
+    public int getCulledChunkCount() {
+        int count = 0;
+        for (DetailLevel detailLevel : detailLevels) {
+            count += detailLevel.getCulledChunkCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of chunks with a surface that were left out of the latest rendered frame,
+     *         as they could not be seen from the camera through open blocks.
+     */
+    public int getOccludedChunkCount() {
+        int count = 0;
+        for (DetailLevel detailLevel : detailLevels) {
+            count += detailLevel.getOccludedChunkCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return approximate number of bytes used for the voxel data of all chunks in the landscape.
+     */
+    public long getVoxelMemoryUsageBytes() {
+        long bytes = 0;
+        for (DetailLevel detailLevel : detailLevels) {
+            bytes += detailLevel.getVoxelMemoryUsageBytes();
+        }
+        return bytes;
+    }
+
     public void dispose() {
         for (int i = 0; i < detailLevels.length; i++) {
             detailLevels[i].dispose();
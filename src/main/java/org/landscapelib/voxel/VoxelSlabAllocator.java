@@ -0,0 +1,93 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.flowutils.Check.positive;
+
+/**
+ * Hands out fixed size regions of large direct (off-heap) byte buffers.
+ * Slabs are allocated as needed, and kept for reuse when regions are freed.
+ * Thread safe.
+ */
+public final class VoxelSlabAllocator {
+
+    private final int regionSizeBytes;
+    private final int regionsPerSlab;
+
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    private final IntArray freeRegions = new IntArray();
+
+    /**
+     * @param regionSizeBytes size of each region handed out, in bytes.
+     * @param slabSizeBytes approximate size of each allocated slab, in bytes.  At least one region fits in each slab.
+     */
+    public VoxelSlabAllocator(int regionSizeBytes, int slabSizeBytes) {
+        positive(regionSizeBytes, "regionSizeBytes");
+        positive(slabSizeBytes, "slabSizeBytes");
+
+        this.regionSizeBytes = regionSizeBytes;
+        this.regionsPerSlab = Math.max(1, slabSizeBytes / regionSizeBytes);
+    }
+
+    /**
+     * @return size of the regions handed out, in bytes.
+     */
+    public int getRegionSizeBytes() {
+        return regionSizeBytes;
+    }
+
+    /**
+     * @return id of a free region.  Use getSlab and getRegionOffset to access it.
+     */
+    public synchronized int allocate() {
+        if (freeRegions.size <= 0) {
+            allocateSlab();
+        }
+
+        return freeRegions.pop();
+    }
+
+    /**
+     * Returns a region for reuse.
+     */
+    public synchronized void free(int regionId) {
+        freeRegions.add(regionId);
+    }
+
+    /**
+     * @return the slab that the region is located in.  Use absolute get and put methods to access it,
+     *         as the same slab is shared by several regions.
+     */
+    public synchronized ByteBuffer getSlab(int regionId) {
+        return slabs.get(regionId / regionsPerSlab);
+    }
+
+    /**
+     * @return offset of the start of the region in its slab.
+     */
+    public int getRegionOffset(int regionId) {
+        return (regionId % regionsPerSlab) * regionSizeBytes;
+    }
+
+    /**
+     * @return total number of bytes allocated off-heap.
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) slabs.size() * regionsPerSlab * regionSizeBytes;
+    }
+
+    private void allocateSlab() {
+        final int slabIndex = slabs.size();
+        slabs.add(ByteBuffer.allocateDirect(regionsPerSlab * regionSizeBytes).order(ByteOrder.nativeOrder()));
+
+        // Add in reverse order, so that regions are handed out from the start of the slab
+        for (int i = regionsPerSlab - 1; i >= 0; i--) {
+            freeRegions.add(slabIndex * regionsPerSlab + i);
+        }
+    }
+}
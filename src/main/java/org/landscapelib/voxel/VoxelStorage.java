@@ -0,0 +1,41 @@
+package org.landscapelib.voxel;
+
+/**
+ * Read only storage for the voxel data of one chunk.  Blocks are indexed as returned by Chunk.calculateBlockIndex.
+ * Storages are created by a VoxelStorageFactory, and may be read from several threads.
+ */
+public interface VoxelStorage {
+
+    /**
+     * @return most abundant material type at the specified block.
+     */
+    byte getPrimaryMaterial(int blockIndex);
+
+    /**
+     * @return second most abundant material type at the specified block.
+     */
+    byte getSecondaryMaterial(int blockIndex);
+
+    /**
+     * @return distribution between primary and secondary materials at the specified block
+     *         (255 = 100% primary material, 0 = 50% primary material).
+     */
+    byte getMaterialRatio(int blockIndex);
+
+    /**
+     * @return volume of material at the specified block.  0 = no material, 255 = 100% of the block filled with materials.
+     */
+    byte getVolume(int blockIndex);
+
+    /**
+     * @return approximate number of bytes used by this storage for voxel data, excluding data shared with other chunks.
+     */
+    int getMemoryUsageBytes();
+
+    /**
+     * Returns the memory used by this storage back to the factory that created it.
+     * The storage should not be used after it has been released.
+     */
+    void release();
+
+}
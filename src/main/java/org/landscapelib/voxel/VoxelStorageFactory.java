@@ -0,0 +1,14 @@
+package org.landscapelib.voxel;
+
+/**
+ * Creates the storages that chunks keep their voxel data in.
+ */
+public interface VoxelStorageFactory {
+
+    /**
+     * Creates a storage with a copy of the data in the buffer.
+     * May be called from several generator threads at the same time.
+     */
+    VoxelStorage createStorage(VoxelBuffer data);
+
+}
@@ -9,6 +9,13 @@ public interface WorldFunction {
 
     Vector3 getGravitationCenter();
 
+    /**
+     * Calculates the data points of a chunk.  May be called from several generator threads at the same time.
+     *
+     * Implementations should call listener.calculationProgress regularly, at least every few thousand data points,
+     * and if it returns false, stop the calculation and call listener.calculationAborted.
+     * When the calculation completes, listener.calculationReady should be called.
+     */
     void calculateChunk(byte[] primaryMaterial,
                         byte[] secondaryMaterial,
                         byte[] materialRatio,
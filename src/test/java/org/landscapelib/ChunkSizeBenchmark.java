@@ -0,0 +1,91 @@
+package org.landscapelib;
+
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import org.landscapelib.voxel.Chunk;
+import org.landscapelib.voxel.ChunkManager;
+import org.landscapelib.voxel.TestWorldFunction;
+
+/**
+ * Generates the same area of the test landscape with different chunk sizes,
+ * and compares the number of draw calls needed for it, the generation throughput, and the voxel memory used.
+ *
+ * Chunks that contain a surface are counted as draw calls, as completely empty chunks and
+ * solid chunks surrounded by other solid chunks are not rendered.
+ */
+public class ChunkSizeBenchmark {
+
+    private static final int[] CHUNK_SIZES = {8, 16};
+    private static final float BLOCK_SIZE_METERS = 0.5f;
+
+    // Size of the generated area in blocks, divisible by all chunk sizes
+    private static final int AREA_BLOCKS_XZ = 256;
+    private static final int AREA_BLOCKS_Y = 128;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("chunk size\tchunks\tdraw calls\tgeneration ms\tmillion voxels/s\tvoxel memory KB");
+
+        for (int chunkSize : CHUNK_SIZES) {
+            runBenchmark(chunkSize);
+        }
+    }
+
+    private static void runBenchmark(int chunkSize) throws InterruptedException {
+        final ChunkManager chunkManager = new ChunkManager(new TestWorldFunction());
+
+        final float chunkSizeMeters = chunkSize * BLOCK_SIZE_METERS;
+        final int chunksXZ = AREA_BLOCKS_XZ / chunkSize;
+        final int chunksY = AREA_BLOCKS_Y / chunkSize;
+
+        // List the chunks so that neighbours are next to each other, centered on the planet surface
+        final Array<Vector3> chunkCenters = new Array<Vector3>();
+        for (int z = 0; z < chunksXZ; z++) {
+            for (int y = 0; y < chunksY; y++) {
+                for (int x = 0; x < chunksXZ; x++) {
+                    chunkCenters.add(new Vector3((x - chunksXZ * 0.5f + 0.5f) * chunkSizeMeters,
+                                                 (y - chunksY * 0.5f + 0.5f) * chunkSizeMeters,
+                                                 (z - chunksXZ * 0.5f + 0.5f) * chunkSizeMeters));
+                }
+            }
+        }
+
+        final Array<Chunk> chunks = new Array<Chunk>();
+        final long startTime = System.nanoTime();
+        chunkManager.generateChunks(chunkCenters, chunkSizeMeters, chunkSize, new Vector3(), chunks);
+        waitUntilCalculated(chunkManager, chunks);
+        final long durationNanos = System.nanoTime() - startTime;
+
+        int drawCalls = 0;
+        long voxelMemoryBytes = 0;
+        for (Chunk chunk : chunks) {
+            if (!chunk.isAllAir() && !chunk.isAllSolid()) drawCalls++;
+            voxelMemoryBytes += chunk.getVoxelMemoryUsageBytes();
+        }
+
+        final double voxels = (double) AREA_BLOCKS_XZ * AREA_BLOCKS_XZ * AREA_BLOCKS_Y;
+        System.out.println(chunkSize + "\t" +
+                           chunks.size + "\t" +
+                           drawCalls + "\t" +
+                           durationNanos / 1000000 + "\t" +
+                           String.format("%.2f", voxels / (durationNanos / 1000.0)) + "\t" +
+                           voxelMemoryBytes / 1024);
+
+        for (Chunk chunk : chunks) {
+            chunkManager.releaseChunk(chunk);
+        }
+        chunkManager.dispose();
+    }
+
+    private static void waitUntilCalculated(ChunkManager chunkManager, Array<Chunk> chunks) throws InterruptedException {
+        int firstOngoing = 0;
+        while (firstOngoing < chunks.size) {
+            chunkManager.update();
+
+            while (firstOngoing < chunks.size && !chunks.get(firstOngoing).isCalculationOngoing()) {
+                firstOngoing++;
+            }
+
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.landscapelib;
+
+import org.landscapelib.voxel.Chunk;
+import org.landscapelib.voxel.TestWorldFunction;
+
+import java.util.Random;
+
+/**
+ * Compares the speed of calculating chunks with every noise octave evaluated for each data point,
+ * to interpolating the low frequency octaves from a coarse lattice, and reports the resulting difference in volume.
+ */
+public class DensitySamplingBenchmark {
+
+    private static final int DATA_POINTS_ALONG_EACH_AXIS = Chunk.DEFAULT_CHUNK_SIZE;
+    private static final double[] DATA_POINT_DISTANCES_METERS = {0.5, 2, 8, 32, 128};
+    private static final int CHUNKS_PER_RUN = 2000;
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 3;
+
+    public static void main(String[] args) {
+        final TestWorldFunction exactFunction = new TestWorldFunction(0);
+        final TestWorldFunction interpolatingFunction = new TestWorldFunction();
+
+        System.out.println("Max interpolation error: " + interpolatingFunction.getMaxInterpolationErrorMeters() + " m");
+        System.out.println("data point distance m\texact ns/voxel\tinterpolated ns/voxel\tspeedup\tmax volume difference");
+
+        for (double dataPointDistance : DATA_POINT_DISTANCES_METERS) {
+            final double[] centers = createChunkCenters(dataPointDistance);
+
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                calculateChunks(exactFunction, centers, dataPointDistance, null, null);
+                calculateChunks(interpolatingFunction, centers, dataPointDistance, null, null);
+            }
+
+            long exactNanos = 0;
+            long interpolatedNanos = 0;
+            final int[] maxDifference = new int[1];
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                exactNanos += calculateChunks(exactFunction, centers, dataPointDistance, null, null);
+                interpolatedNanos += calculateChunks(interpolatingFunction, centers, dataPointDistance, null, null);
+            }
+            calculateChunks(interpolatingFunction, centers, dataPointDistance, exactFunction, maxDifference);
+
+            final double voxels = (double) MEASURED_RUNS * CHUNKS_PER_RUN *
+                                  DATA_POINTS_ALONG_EACH_AXIS * DATA_POINTS_ALONG_EACH_AXIS * DATA_POINTS_ALONG_EACH_AXIS;
+            final double exactNanosPerVoxel = exactNanos / voxels;
+            final double interpolatedNanosPerVoxel = interpolatedNanos / voxels;
+
+            System.out.println(dataPointDistance + "\t" +
+                               String.format("%.1f", exactNanosPerVoxel) + "\t" +
+                               String.format("%.1f", interpolatedNanosPerVoxel) + "\t" +
+                               String.format("%.2f", exactNanosPerVoxel / interpolatedNanosPerVoxel) + "\t" +
+                               maxDifference[0]);
+        }
+    }
+
+    /**
+     * @return chunk centers spread around the planet surface, where all octaves affect the volume.
+     */
+    private static double[] createChunkCenters(double dataPointDistance) {
+        final Random random = new Random(42);
+        final double chunkSize = dataPointDistance * DATA_POINTS_ALONG_EACH_AXIS;
+        final double[] centers = new double[CHUNKS_PER_RUN * 3];
+        for (int i = 0; i < CHUNKS_PER_RUN; i++) {
+            centers[i * 3] = (random.nextInt(2000) - 1000) * chunkSize;
+            centers[i * 3 + 1] = (random.nextInt(20) - 10) * chunkSize;
+            centers[i * 3 + 2] = (random.nextInt(2000) - 1000) * chunkSize;
+        }
+        return centers;
+    }
+
+    /**
+     * Calculates the chunks, optionally comparing the volumes to the ones calculated by a reference function.
+     *
+     * @return nanoseconds spent calculating the chunks with the world function.
+     */
+    private static long calculateChunks(TestWorldFunction worldFunction,
+                                        double[] centers,
+                                        double dataPointDistance,
+                                        TestWorldFunction referenceFunction,
+                                        int[] maxDifferenceOut) {
+        final int blockCount = DATA_POINTS_ALONG_EACH_AXIS * DATA_POINTS_ALONG_EACH_AXIS * DATA_POINTS_ALONG_EACH_AXIS;
+        final byte[] primaryMaterial = new byte[blockCount];
+        final byte[] secondaryMaterial = new byte[blockCount];
+        final byte[] materialRatio = new byte[blockCount];
+        final byte[] volume = new byte[blockCount];
+        final byte[] referenceVolume = new byte[blockCount];
+
+        long nanos = 0;
+        for (int i = 0; i < CHUNKS_PER_RUN; i++) {
+            final long start = System.nanoTime();
+            worldFunction.calculateChunk(primaryMaterial, secondaryMaterial, materialRatio, volume,
+                                         centers[i * 3], centers[i * 3 + 1], centers[i * 3 + 2],
+                                         DATA_POINTS_ALONG_EACH_AXIS, dataPointDistance, null);
+            nanos += System.nanoTime() - start;
+
+            if (referenceFunction != null) {
+                referenceFunction.calculateChunk(primaryMaterial, secondaryMaterial, materialRatio, referenceVolume,
+                                                 centers[i * 3], centers[i * 3 + 1], centers[i * 3 + 2],
+                                                 DATA_POINTS_ALONG_EACH_AXIS, dataPointDistance, null);
+                for (int j = 0; j < blockCount; j++) {
+                    final int difference = Math.abs((volume[j] & 0xFF) - (referenceVolume[j] & 0xFF));
+                    maxDifferenceOut[0] = Math.max(maxDifferenceOut[0], difference);
+                }
+            }
+        }
+
+        return nanos;
+    }
+}
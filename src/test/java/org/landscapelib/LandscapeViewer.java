@@ -16,6 +16,7 @@ import com.badlogic.gdx.graphics.g3d.utils.FirstPersonCameraController;
 import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
 import com.badlogic.gdx.math.Vector3;
 import org.landscapelib.voxel.ChunkManager;
+import org.landscapelib.voxel.ChunkShaderProvider;
 import org.landscapelib.voxel.TestWorldFunction;
 import org.landscapelib.voxel.VoxelLandscape;
 import org.landscapelib.voxel.WorldFunction;
@@ -45,8 +46,8 @@ public class LandscapeViewer implements ApplicationListener {
         // Create world
         worldFunction = new TestWorldFunction();
 
-        // Setup model batching
-        modelBatch = new ModelBatch();
+        // Setup model batching, with a shader for the packed vertexes of the chunk meshes
+        modelBatch = new ModelBatch(new ChunkShaderProvider());
 
         // Setup camera
         cam = new PerspectiveCamera(67, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
@@ -58,9 +59,7 @@ public class LandscapeViewer implements ApplicationListener {
 
         // Setup voxel landscape
         chunkManager = new ChunkManager(new TestWorldFunction());
-        System.out.println("Starting chunk generation");
         voxelLandscape = new VoxelLandscape(worldFunction, cam, chunkManager);
-        System.out.println("Chunk generation done");
 
 
         // Create reference test model
@@ -195,6 +194,7 @@ public class LandscapeViewer implements ApplicationListener {
         modelBatch.dispose();
         model.dispose();
         voxelLandscape.dispose();
+        chunkManager.dispose();
     }
 
 
@@ -0,0 +1,132 @@
+package org.landscapelib;
+
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import org.landscapelib.voxel.Chunk;
+import org.landscapelib.voxel.ChunkManager;
+import org.landscapelib.voxel.ChunkMeshGenerator;
+import org.landscapelib.voxel.MeshingMode;
+import org.landscapelib.voxel.TestWorldFunction;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Meshes an area of the test landscape with each meshing mode, and compares the meshing throughput and the mesh sizes.
+ * Uses the headless mesh generation, so it runs without a GL context.
+ */
+public class MeshingBenchmark {
+
+    private static final float BLOCK_SIZE_METERS = 0.5f;
+    private static final int CHUNK_SIZE = Chunk.DEFAULT_CHUNK_SIZE;
+
+    // Size of the meshed area in chunks
+    private static final int AREA_CHUNKS_XZ = 8;
+    private static final int AREA_CHUNKS_Y = 4;
+
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        final ChunkManager chunkManager = new ChunkManager(new TestWorldFunction());
+        final Array<Chunk> chunks = generateChunks(chunkManager);
+
+        // Buffers with room for the largest possible mesh, as a server or mesh baker would use
+        final FloatBuffer vertexBuffer = ByteBuffer.allocateDirect(0x10000 * ChunkMeshGenerator.VERTEX_ATTRIBUTE_DATA_SIZE * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        final ShortBuffer indexBuffer = ByteBuffer.allocateDirect(0x10000 * 6 * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+
+        System.out.println("meshing mode\tchunks\tms per run\tus per chunk\tvertexes\ttriangles\tmesh KB");
+
+        for (MeshingMode meshingMode : MeshingMode.values()) {
+            final ChunkMeshGenerator generator = new ChunkMeshGenerator(meshingMode);
+
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                meshChunks(generator, chunks, vertexBuffer, indexBuffer, null);
+            }
+
+            final long[] meshSize = new long[2];
+            long durationNanos = 0;
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                durationNanos += meshChunks(generator, chunks, vertexBuffer, indexBuffer, i == 0 ? meshSize : null);
+            }
+
+            final long vertexes = meshSize[0];
+            final long indexes = meshSize[1];
+            final double nanosPerRun = (double) durationNanos / MEASURED_RUNS;
+            System.out.println(meshingMode + "\t" +
+                               chunks.size + "\t" +
+                               String.format("%.1f", nanosPerRun / 1000000.0) + "\t" +
+                               String.format("%.1f", nanosPerRun / 1000.0 / chunks.size) + "\t" +
+                               vertexes + "\t" +
+                               indexes / 3 + "\t" +
+                               (vertexes * ChunkMeshGenerator.VERTEX_ATTRIBUTE_DATA_SIZE * 4 + indexes * 2) / 1024);
+        }
+
+        for (Chunk chunk : chunks) {
+            chunkManager.releaseChunk(chunk);
+        }
+        chunkManager.dispose();
+    }
+
+    /**
+     * Meshes the chunks, copying each mesh into the buffers.
+     *
+     * @param meshSizeOut if not null, the total number of vertexes and indexes is added to this.
+     * @return nanoseconds spent meshing.
+     */
+    private static long meshChunks(ChunkMeshGenerator generator,
+                                   Array<Chunk> chunks,
+                                   FloatBuffer vertexBuffer,
+                                   ShortBuffer indexBuffer,
+                                   long[] meshSizeOut) {
+        final long startTime = System.nanoTime();
+        for (Chunk chunk : chunks) {
+            final int vertexCount = generator.generateMesh(chunk, null);
+
+            vertexBuffer.clear();
+            indexBuffer.clear();
+            final int indexCount = generator.copyMeshData(vertexBuffer, indexBuffer);
+
+            if (meshSizeOut != null) {
+                meshSizeOut[0] += vertexCount;
+                meshSizeOut[1] += indexCount;
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static Array<Chunk> generateChunks(ChunkManager chunkManager) throws InterruptedException {
+        final float chunkSizeMeters = CHUNK_SIZE * BLOCK_SIZE_METERS;
+
+        // Centered on the planet surface, so that most chunks contain a surface
+        final Array<Vector3> chunkCenters = new Array<Vector3>();
+        for (int z = 0; z < AREA_CHUNKS_XZ; z++) {
+            for (int y = 0; y < AREA_CHUNKS_Y; y++) {
+                for (int x = 0; x < AREA_CHUNKS_XZ; x++) {
+                    chunkCenters.add(new Vector3((x - AREA_CHUNKS_XZ * 0.5f + 0.5f) * chunkSizeMeters,
+                                                 (y - AREA_CHUNKS_Y * 0.5f + 0.5f) * chunkSizeMeters,
+                                                 (z - AREA_CHUNKS_XZ * 0.5f + 0.5f) * chunkSizeMeters));
+                }
+            }
+        }
+
+        final Array<Chunk> chunks = new Array<Chunk>();
+        chunkManager.generateChunks(chunkCenters, chunkSizeMeters, CHUNK_SIZE, new Vector3(), chunks);
+
+        // Wait for the generator threads
+        int firstOngoing = 0;
+        while (firstOngoing < chunks.size) {
+            chunkManager.update();
+
+            while (firstOngoing < chunks.size && !chunks.get(firstOngoing).isCalculationOngoing()) {
+                firstOngoing++;
+            }
+
+            Thread.sleep(1);
+        }
+
+        return chunks;
+    }
+}
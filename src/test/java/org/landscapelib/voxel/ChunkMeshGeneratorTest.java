@@ -0,0 +1,342 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.math.Vector3;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChunkMeshGeneratorTest {
+
+    private static final int CHUNK_SIZE = 16;
+
+    // Chunks from -1 to 2 along each axis, so that the chunk at the origin and its positive neighbours have all their neighbours
+    private static final int GRID_START = -1;
+    private static final int GRID_SIZE = 4;
+
+    @Test
+    public void testSurfaceNetsOfAdjacentChunksMeet() {
+        final Chunk[] grid = createChunkGrid();
+        final ChunkMeshGenerator generator = new ChunkMeshGenerator(MeshingMode.SURFACE_NETS);
+
+        final List<Long> vertexes = new ArrayList<Long>();
+        final List<Long> neighbourVertexes = new ArrayList<Long>();
+        for (int axis = 0; axis < 3; axis++) {
+            // The vertexes on the positive side of the chunk at the origin should be the same as those on the negative
+            // side of the next chunk, including the vertexes along the edges and corners of the side
+            final int[] neighbourPos = new int[3];
+            neighbourPos[axis] = 1;
+            getSideVertexes(generator, grid, 0, 0, 0, axis, CHUNK_SIZE, vertexes);
+            getSideVertexes(generator, grid, neighbourPos[0], neighbourPos[1], neighbourPos[2], axis, 0, neighbourVertexes);
+
+            assertTrue("surface should cross the side along axis " + axis, vertexes.size() > CHUNK_SIZE);
+            assertEquals("vertexes on the side along axis " + axis, vertexes, neighbourVertexes);
+        }
+    }
+
+    @Test
+    public void testMeshesFitInLargestPooledMesh() {
+        // Every other block solid, the most block sides a chunk can have
+        final int chunkSize = Chunk.MAX_CHUNK_SIZE;
+        final VoxelBuffer buffer = new VoxelBuffer(chunkSize * chunkSize * chunkSize);
+        int solidBlockCount = 0;
+        for (int i = 0; i < buffer.getBlockCount(); i++) {
+            final int x = i % chunkSize;
+            final int y = (i / chunkSize) % chunkSize;
+            final int z = i / (chunkSize * chunkSize);
+            final boolean solid = (x + y + z) % 2 == 0;
+            buffer.getVolume()[i] = (byte) (solid ? 0xFF : 0);
+            if (solid) solidBlockCount++;
+        }
+        final Chunk chunk = createChunk(0, 0, 0, chunkSize, buffer);
+
+        // No block sides should be left out, every side of every solid block is exposed, including the walls at the chunk sides
+        final long steps = ChunkMeshGenerator.POSITION_STEPS_PER_BLOCK;
+        final long[] expectedArea = new long[6];
+        Arrays.fill(expectedArea, solidBlockCount * 2 * steps * steps);
+        assertArrayEquals("block face area facing each direction", expectedArea, calculateArea(chunk, MeshingMode.BLOCK_FACES));
+        assertArrayEquals("greedy area facing each direction", expectedArea, calculateArea(chunk, MeshingMode.GREEDY));
+
+        for (MeshingMode meshingMode : MeshingMode.values()) {
+            final ChunkMeshGenerator generator = new ChunkMeshGenerator(meshingMode);
+            final int vertexCount = generator.generateMesh(chunk, null);
+            assertTrue(meshingMode + " vertex count " + vertexCount, vertexCount <= ChunkMeshGenerator.MAX_VERTEXES);
+            assertTrue(meshingMode + " index count " + generator.getIndexCount(), generator.getIndexCount() <= ChunkMeshPool.MAX_INDEXES);
+
+            final short[] indexes = new short[generator.getIndexCount()];
+            generator.copyMeshData(new float[generator.getVertexDataSize()], indexes);
+            for (short index : indexes) {
+                assertTrue(meshingMode + " index " + (index & 0xFFFF), (index & 0xFFFF) < vertexCount);
+            }
+        }
+    }
+
+    @Test
+    public void testCopyToArraysAndBuffersGivesSameData() {
+        final ChunkMeshGenerator generator = new ChunkMeshGenerator(MeshingMode.GREEDY);
+        generator.generateMesh(createRandomChunk(new Random(1)), null);
+        final int vertexDataSize = generator.getVertexDataSize();
+        final int indexCount = generator.getIndexCount();
+        assertTrue(indexCount > 0);
+
+        final float[] vertexArray = new float[vertexDataSize];
+        final short[] indexArray = new short[indexCount];
+        assertEquals(indexCount, generator.copyMeshData(vertexArray, indexArray));
+
+        // The buffers are copied to at their current positions
+        final int offset = 5;
+        final FloatBuffer vertexBuffer = FloatBuffer.allocate(offset + vertexDataSize);
+        final ShortBuffer indexBuffer = ShortBuffer.allocate(offset + indexCount);
+        vertexBuffer.position(offset);
+        indexBuffer.position(offset);
+        assertEquals(indexCount, generator.copyMeshData(vertexBuffer, indexBuffer));
+        assertEquals(offset + vertexDataSize, vertexBuffer.position());
+        assertEquals(offset + indexCount, indexBuffer.position());
+
+        final float[] vertexBufferData = new float[vertexDataSize];
+        final short[] indexBufferData = new short[indexCount];
+        vertexBuffer.position(offset);
+        vertexBuffer.get(vertexBufferData);
+        indexBuffer.position(offset);
+        indexBuffer.get(indexBufferData);
+        assertArrayEquals(vertexArray, vertexBufferData, 0);
+        assertArrayEquals(indexArray, indexBufferData);
+    }
+
+    @Test
+    public void testBufferOverflowLeavesBuffersUnchanged() {
+        final ChunkMeshGenerator generator = new ChunkMeshGenerator(MeshingMode.BLOCK_FACES);
+        generator.generateMesh(createRandomChunk(new Random(2)), null);
+        final int vertexDataSize = generator.getVertexDataSize();
+        final int indexCount = generator.getIndexCount();
+
+        // Either buffer one short of the needed room
+        for (int tooSmall = 0; tooSmall < 2; tooSmall++) {
+            final FloatBuffer vertexBuffer = FloatBuffer.allocate(vertexDataSize + 2 - (tooSmall == 0 ? 1 : 0));
+            final ShortBuffer indexBuffer = ShortBuffer.allocate(indexCount + 2 - (tooSmall == 1 ? 1 : 0));
+            for (int i = 0; i < vertexBuffer.capacity(); i++) vertexBuffer.put(i, -1);
+            for (int i = 0; i < indexBuffer.capacity(); i++) indexBuffer.put(i, (short) -1);
+            vertexBuffer.position(2);
+            indexBuffer.position(2);
+
+            try {
+                generator.copyMeshData(vertexBuffer, indexBuffer);
+                fail("BufferOverflowException expected when buffer " + tooSmall + " is too small");
+            }
+            catch (BufferOverflowException e) {
+                // Expected
+            }
+
+            assertEquals(2, vertexBuffer.position());
+            assertEquals(2, indexBuffer.position());
+            for (int i = 0; i < vertexBuffer.capacity(); i++) assertEquals("vertex data " + i, -1, vertexBuffer.get(i), 0);
+            for (int i = 0; i < indexBuffer.capacity(); i++) assertEquals("index " + i, -1, indexBuffer.get(i));
+        }
+    }
+
+    @Test
+    public void testGreedyMeshCoversSameAreaAsBlockFaces() {
+        final Chunk chunk = createRandomChunk(new Random(3));
+
+        final long[] blockFaceArea = calculateArea(chunk, MeshingMode.BLOCK_FACES);
+        final long[] greedyArea = calculateArea(chunk, MeshingMode.GREEDY);
+        assertTrue(blockFaceArea[0] > 0);
+        assertArrayEquals("area facing each direction", blockFaceArea, greedyArea);
+    }
+
+    @Test
+    public void testSurfaceNetOfSphereIsClosed() {
+        final int chunkSize = 16;
+        final VoxelBuffer buffer = new VoxelBuffer(chunkSize * chunkSize * chunkSize);
+        int index = 0;
+        for (int z = 0; z < chunkSize; z++) {
+            for (int y = 0; y < chunkSize; y++) {
+                for (int x = 0; x < chunkSize; x++) {
+                    final double distance = Math.sqrt((x - 7.3) * (x - 7.3) + (y - 8.1) * (y - 8.1) + (z - 7.7) * (z - 7.7));
+                    buffer.getVolume()[index++] = (byte) Math.max(0, Math.min(255, 128 + 64 * (5.5 - distance)));
+                }
+            }
+        }
+
+        final ChunkMeshGenerator generator = new ChunkMeshGenerator(MeshingMode.SURFACE_NETS);
+        generator.generateMesh(createChunk(0, 0, 0, chunkSize, buffer), null);
+        final short[] indexes = new short[generator.getIndexCount()];
+        generator.copyMeshData(new float[generator.getVertexDataSize()], indexes);
+        assertTrue(indexes.length > 0);
+
+        // In a closed mesh with consistent winding each edge of a triangle is used in the opposite direction by another triangle
+        final Map<Long, Integer> edgeCounts = new HashMap<Long, Integer>();
+        for (int i = 0; i < indexes.length; i += 3) {
+            for (int corner = 0; corner < 3; corner++) {
+                final long from = indexes[i + corner] & 0xFFFF;
+                final long to = indexes[i + (corner + 1) % 3] & 0xFFFF;
+                assertTrue("degenerate triangle " + i / 3, from != to);
+
+                final long edge = from < to ? (from << 16) | to : (to << 16) | from;
+                final int direction = from < to ? 1 : -1;
+                final Integer count = edgeCounts.get(edge);
+                edgeCounts.put(edge, (count != null ? count : 0) + direction);
+            }
+        }
+        for (Map.Entry<Long, Integer> entry : edgeCounts.entrySet()) {
+            assertEquals("unmatched uses of edge " + (entry.getKey() >> 16) + " - " + (entry.getKey() & 0xFFFF), 0, (int) entry.getValue());
+        }
+    }
+
+    /**
+     * @return twice the area of the mesh of the chunk facing each direction, in squared position steps,
+     *         indexed by the normal directions of the ChunkMeshGenerator.
+     */
+    private static long[] calculateArea(Chunk chunk, MeshingMode meshingMode) {
+        final ChunkMeshGenerator generator = new ChunkMeshGenerator(meshingMode);
+        generator.generateMesh(chunk, null);
+        final float[] vertexData = new float[generator.getVertexDataSize()];
+        final short[] indexes = new short[generator.getIndexCount()];
+        generator.copyMeshData(vertexData, indexes);
+
+        final long[] area = new long[6];
+        final int[] a = new int[3];
+        final int[] b = new int[3];
+        final int[] c = new int[3];
+        for (int i = 0; i < indexes.length; i += 3) {
+            getPosition(vertexData, indexes[i] & 0xFFFF, a);
+            getPosition(vertexData, indexes[i + 1] & 0xFFFF, b);
+            getPosition(vertexData, indexes[i + 2] & 0xFFFF, c);
+
+            // Block sides are axis aligned, so the cross product of two edges is along one axis
+            for (int axis = 0; axis < 3; axis++) {
+                final int u = (axis + 1) % 3;
+                final int v = (axis + 2) % 3;
+                final long cross = (long) (b[u] - a[u]) * (c[v] - a[v]) - (long) (b[v] - a[v]) * (c[u] - a[u]);
+                if (cross != 0) area[axis * 2 + (cross > 0 ? 1 : 0)] += Math.abs(cross);
+            }
+        }
+        return area;
+    }
+
+    /**
+     * @return a chunk with randomly solid blocks of two materials.
+     */
+    private static Chunk createRandomChunk(Random random) {
+        final VoxelBuffer buffer = new VoxelBuffer(CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE);
+        for (int i = 0; i < buffer.getBlockCount(); i++) {
+            final boolean solid = random.nextFloat() < 0.6f;
+            buffer.getVolume()[i] = (byte) (solid ? 0xFF : 0);
+            buffer.getPrimaryMaterial()[i] = (byte) (solid ? 1 + random.nextInt(2) : 0);
+        }
+        return createChunk(0, 0, 0, CHUNK_SIZE, buffer);
+    }
+
+    /**
+     * Meshes the chunk at the grid coordinates with all its neighbours known,
+     * and gets the vertexes that are on the side perpendicular to the axis at the specified block coordinate,
+     * as sorted values with the position along the two other axes and the normal.
+     */
+    private static void getSideVertexes(ChunkMeshGenerator generator, Chunk[] grid, int x, int y, int z,
+                                        int axis, int sideCoordinate, List<Long> vertexesOut) {
+        final ChunkBorder border = new ChunkBorder();
+        border.clear(CHUNK_SIZE);
+        for (int neighbour = 0; neighbour < ChunkBorder.NEIGHBOUR_COUNT; neighbour++) {
+            border.setNeighbour(neighbour, getChunk(grid,
+                                                    x + ChunkBorder.getNeighbourOffset(neighbour, 0),
+                                                    y + ChunkBorder.getNeighbourOffset(neighbour, 1),
+                                                    z + ChunkBorder.getNeighbourOffset(neighbour, 2)));
+        }
+
+        generator.generateMesh(getChunk(grid, x, y, z), border);
+        final float[] vertexData = new float[generator.getVertexDataSize()];
+        generator.copyMeshData(vertexData, new short[generator.getIndexCount()]);
+
+        vertexesOut.clear();
+        final int range = ChunkMeshGenerator.PACKED_COMPONENT_RANGE;
+        final int[] position = new int[3];
+        for (int vertex = 0; vertex < generator.getVertexCount(); vertex++) {
+            final int normal = getPosition(vertexData, vertex, position);
+
+            if (position[axis] == sideCoordinate * ChunkMeshGenerator.POSITION_STEPS_PER_BLOCK) {
+                final long u = position[(axis + 1) % 3];
+                final long v = position[(axis + 2) % 3];
+                vertexesOut.add((u * range + v) * range + normal);
+            }
+        }
+        Collections.sort(vertexesOut);
+    }
+
+    /**
+     * Unpacks the position of the vertex in position steps from the lowest corner of the chunk.
+     *
+     * @return the packed normal of the vertex.
+     */
+    private static int getPosition(float[] vertexData, int vertex, int[] positionOut) {
+        final int range = ChunkMeshGenerator.PACKED_COMPONENT_RANGE;
+        final int packedXY = (int) vertexData[vertex * ChunkMeshGenerator.VERTEX_ATTRIBUTE_DATA_SIZE];
+        final int packedZNormal = (int) vertexData[vertex * ChunkMeshGenerator.VERTEX_ATTRIBUTE_DATA_SIZE + 1];
+        positionOut[0] = packedXY % range;
+        positionOut[1] = packedXY / range;
+        positionOut[2] = packedZNormal % range;
+        return packedZNormal / range;
+    }
+
+    private static Chunk[] createChunkGrid() {
+        final Chunk[] grid = new Chunk[GRID_SIZE * GRID_SIZE * GRID_SIZE];
+        for (int z = 0; z < GRID_SIZE; z++) {
+            for (int y = 0; y < GRID_SIZE; y++) {
+                for (int x = 0; x < GRID_SIZE; x++) {
+                    final int chunkX = x + GRID_START;
+                    final int chunkY = y + GRID_START;
+                    final int chunkZ = z + GRID_START;
+
+                    final VoxelBuffer buffer = new VoxelBuffer(CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE);
+                    int index = 0;
+                    for (int blockZ = 0; blockZ < CHUNK_SIZE; blockZ++) {
+                        for (int blockY = 0; blockY < CHUNK_SIZE; blockY++) {
+                            for (int blockX = 0; blockX < CHUNK_SIZE; blockX++) {
+                                buffer.getVolume()[index++] = (byte) getTerrainVolume(chunkX * CHUNK_SIZE + blockX,
+                                                                                      chunkY * CHUNK_SIZE + blockY,
+                                                                                      chunkZ * CHUNK_SIZE + blockZ);
+                            }
+                        }
+                    }
+
+                    grid[(z * GRID_SIZE + y) * GRID_SIZE + x] = createChunk(chunkX, chunkY, chunkZ, CHUNK_SIZE, buffer);
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return a calculated chunk with the voxels of the buffer, at the specified chunk coordinates with one meter blocks.
+     */
+    private static Chunk createChunk(int chunkX, int chunkY, int chunkZ, int chunkSize, VoxelBuffer buffer) {
+        final Chunk chunk = new Chunk();
+        chunk.initialize(new Vector3((chunkX + 0.5f) * chunkSize, (chunkY + 0.5f) * chunkSize, (chunkZ + 0.5f) * chunkSize),
+                         chunkSize, chunkSize);
+        chunk.setVoxels(new ArrayVoxelStorageFactory().createStorage(buffer));
+        return chunk;
+    }
+
+    private static Chunk getChunk(Chunk[] grid, int x, int y, int z) {
+        return grid[((z - GRID_START) * GRID_SIZE + (y - GRID_START)) * GRID_SIZE + (x - GRID_START)];
+    }
+
+    /**
+     * @return volume of a rolling terrain whose surface crosses the sides of the chunk at the origin, with a cave through its corner.
+     */
+    private static int getTerrainVolume(int x, int y, int z) {
+        final double height = 14 + 4 * Math.sin(x * 0.37) + 3 * Math.cos(z * 0.29) + 2 * Math.sin((x + z) * 0.11);
+        final double caveDistance = Math.sqrt((x - 15) * (x - 15) + (y - 11) * (y - 11) + (z - 14) * (z - 14));
+        final double volume = 128 + 40 * Math.min(height - y, caveDistance - 5);
+        return (int) Math.max(0, Math.min(255, volume));
+    }
+}
@@ -0,0 +1,148 @@
+package org.landscapelib.voxel;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.landscapelib.voxel.OffHeapVoxelStorageFactoryTest.assertStorageEquals;
+import static org.landscapelib.voxel.OffHeapVoxelStorageFactoryTest.createRandomBuffer;
+
+public class CompressingVoxelStorageFactoryTest {
+
+    private static final int BLOCK_COUNT = 16 * 16 * 16;
+
+    @Test
+    public void testUniformChunk() {
+        final VoxelBuffer buffer = createBuffer(1, new Random(1));
+        final VoxelStorage storage = new CompressingVoxelStorageFactory().createStorage(buffer);
+
+        assertTrue(storage instanceof UniformVoxelStorage);
+        assertEquals(0, storage.getMemoryUsageBytes());
+        assertStorageEquals(buffer, storage);
+    }
+
+    @Test
+    public void testPaletteWidths() {
+        // Palette sizes on both sides of the boundaries between 1, 2, 4 and 8 bits per index
+        final int[] paletteSizes = {2, 3, 4, 5, 16, 17, 255, 256};
+        final int[] bitsPerIndex = {1, 2, 2, 4, 4, 8, 8, 8};
+
+        final Random random = new Random(42);
+        for (int i = 0; i < paletteSizes.length; i++) {
+            final VoxelBuffer buffer = createBuffer(paletteSizes[i], random);
+            final VoxelStorage storage = new CompressingVoxelStorageFactory().createStorage(buffer);
+
+            assertTrue("palette storage expected for " + paletteSizes[i] + " distinct voxels", storage instanceof PaletteVoxelStorage);
+            assertEquals("memory usage for " + paletteSizes[i] + " distinct voxels",
+                         paletteSizes[i] * 4 + BLOCK_COUNT * bitsPerIndex[i] / 8,
+                         storage.getMemoryUsageBytes());
+            assertStorageEquals(buffer, storage);
+        }
+    }
+
+    @Test
+    public void testPaletteWithPartialLastWord() {
+        // The indexes of 67 blocks end partway through the last word for all index widths
+        final Random random = new Random(3);
+        for (int paletteSize = 2; paletteSize <= 17; paletteSize++) {
+            final VoxelBuffer buffer = createBuffer(paletteSize, 67, random);
+            final int[] voxelIndexes = new int[67];
+            final int[] palette = buildPalette(buffer, voxelIndexes);
+            assertEquals(paletteSize, palette.length);
+
+            assertStorageEquals(buffer, new PaletteVoxelStorage(palette, palette.length, voxelIndexes, 67));
+        }
+    }
+
+    @Test
+    public void testTooManyDistinctVoxels() {
+        final VoxelBuffer buffer = createBuffer(257, new Random(5));
+        final VoxelStorage storage = new CompressingVoxelStorageFactory(new OffHeapVoxelStorageFactory()).createStorage(buffer);
+
+        assertFalse(storage instanceof PaletteVoxelStorage);
+        assertEquals(BLOCK_COUNT * 4, storage.getMemoryUsageBytes());
+        assertStorageEquals(buffer, storage);
+    }
+
+    @Test
+    public void testRandomChunk() {
+        final VoxelBuffer buffer = createRandomBuffer(BLOCK_COUNT, new Random(9));
+        final VoxelStorage storage = new CompressingVoxelStorageFactory().createStorage(buffer);
+
+        assertStorageEquals(buffer, storage);
+    }
+
+    @Test
+    public void testBuilderIsReusedBetweenChunks() {
+        // The palette builder of the thread is reused, a small palette after a large one should not keep old entries
+        final CompressingVoxelStorageFactory factory = new CompressingVoxelStorageFactory();
+        final Random random = new Random(11);
+
+        final VoxelBuffer large = createBuffer(200, random);
+        assertStorageEquals(large, factory.createStorage(large));
+
+        final VoxelBuffer small = createBuffer(3, random);
+        final VoxelStorage storage = factory.createStorage(small);
+        assertEquals(3 * 4 + BLOCK_COUNT * 2 / 8, storage.getMemoryUsageBytes());
+        assertStorageEquals(small, storage);
+    }
+
+    private static VoxelBuffer createBuffer(int distinctVoxelCount, Random random) {
+        return createBuffer(distinctVoxelCount, BLOCK_COUNT, random);
+    }
+
+    /**
+     * @return a buffer with exactly the specified number of distinct voxels, in random order with runs of equal voxels.
+     */
+    private static VoxelBuffer createBuffer(int distinctVoxelCount, int blockCount, Random random) {
+        final Set<Integer> usedVoxels = new HashSet<Integer>();
+        final int[] voxels = new int[distinctVoxelCount];
+        for (int i = 0; i < distinctVoxelCount; i++) {
+            int voxel;
+            do {
+                voxel = random.nextInt();
+            } while (!usedVoxels.add(voxel));
+            voxels[i] = voxel;
+        }
+
+        final VoxelBuffer buffer = new VoxelBuffer(blockCount);
+        int i = 0;
+        while (i < blockCount) {
+            // Each voxel at least once, then random runs
+            final int voxel = i < distinctVoxelCount ? voxels[i] : voxels[random.nextInt(distinctVoxelCount)];
+            final int runLength = i < distinctVoxelCount ? 1 : 1 + random.nextInt(5);
+            for (int run = 0; run < runLength && i < blockCount; run++, i++) {
+                buffer.getPrimaryMaterial()[i] = (byte) voxel;
+                buffer.getSecondaryMaterial()[i] = (byte) (voxel >> 8);
+                buffer.getMaterialRatio()[i] = (byte) (voxel >> 16);
+                buffer.getVolume()[i] = (byte) (voxel >> 24);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @return the distinct voxels of the buffer packed with UniformVoxelStorage.packVoxel, with the palette index of each voxel.
+     */
+    private static int[] buildPalette(VoxelBuffer buffer, int[] voxelIndexesOut) {
+        final int[] palette = new int[PaletteVoxelStorage.MAX_PALETTE_SIZE];
+        int paletteSize = 0;
+        for (int i = 0; i < buffer.getBlockCount(); i++) {
+            final int voxel = UniformVoxelStorage.packVoxel(buffer.getPrimaryMaterial()[i],
+                                                            buffer.getSecondaryMaterial()[i],
+                                                            buffer.getMaterialRatio()[i],
+                                                            buffer.getVolume()[i]);
+            int index = 0;
+            while (index < paletteSize && palette[index] != voxel) index++;
+            if (index == paletteSize) palette[paletteSize++] = voxel;
+            voxelIndexesOut[i] = index;
+        }
+
+        final int[] usedPalette = new int[paletteSize];
+        System.arraycopy(palette, 0, usedPalette, 0, paletteSize);
+        return usedPalette;
+    }
+}
@@ -0,0 +1,111 @@
+package org.landscapelib.voxel;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OffHeapVoxelStorageFactoryTest {
+
+    private static final int BLOCK_COUNT = 16 * 16 * 16;
+
+    @Test
+    public void testRoundTrip() {
+        final OffHeapVoxelStorageFactory factory = new OffHeapVoxelStorageFactory();
+        final Random random = new Random(42);
+
+        // Several chunks share a slab, check that they do not overwrite each other
+        final VoxelBuffer[] buffers = new VoxelBuffer[5];
+        final VoxelStorage[] storages = new VoxelStorage[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = createRandomBuffer(BLOCK_COUNT, random);
+            storages[i] = factory.createStorage(buffers[i]);
+        }
+
+        for (int i = 0; i < buffers.length; i++) {
+            assertStorageEquals(buffers[i], storages[i]);
+            assertEquals(BLOCK_COUNT * 4, storages[i].getMemoryUsageBytes());
+        }
+    }
+
+    @Test
+    public void testChunkLargerThanSlab() {
+        final OffHeapVoxelStorageFactory factory = new OffHeapVoxelStorageFactory(1024);
+        final VoxelBuffer buffer = createRandomBuffer(BLOCK_COUNT, new Random(1));
+
+        assertStorageEquals(buffer, factory.createStorage(buffer));
+        assertEquals(BLOCK_COUNT * 4, factory.getAllocatedBytes());
+    }
+
+    @Test
+    public void testReleasedRegionIsReused() {
+        final OffHeapVoxelStorageFactory factory = new OffHeapVoxelStorageFactory(BLOCK_COUNT * 4 * 2);
+        final Random random = new Random(7);
+
+        final VoxelStorage first = factory.createStorage(createRandomBuffer(BLOCK_COUNT, random));
+        factory.createStorage(createRandomBuffer(BLOCK_COUNT, random));
+        final long allocatedBytes = factory.getAllocatedBytes();
+
+        // The slab is full, the released region should be used for the next chunk instead of allocating a new slab
+        first.release();
+        final VoxelBuffer buffer = createRandomBuffer(BLOCK_COUNT, random);
+        final VoxelStorage reused = factory.createStorage(buffer);
+
+        assertEquals(allocatedBytes, factory.getAllocatedBytes());
+        assertStorageEquals(buffer, reused);
+    }
+
+    @Test
+    public void testSlabAllocatorReusesFreedRegions() {
+        final VoxelSlabAllocator allocator = new VoxelSlabAllocator(100, 350);
+        assertEquals(0, allocator.getAllocatedBytes());
+
+        // Three regions fit in a slab
+        final int first = allocator.allocate();
+        final int second = allocator.allocate();
+        final int third = allocator.allocate();
+        assertEquals(300, allocator.getAllocatedBytes());
+        assertSame(allocator.getSlab(first), allocator.getSlab(third));
+        assertEquals(0, allocator.getRegionOffset(first));
+        assertEquals(100, allocator.getRegionOffset(second));
+        assertEquals(200, allocator.getRegionOffset(third));
+
+        allocator.free(second);
+        assertEquals(second, allocator.allocate());
+        assertEquals(300, allocator.getAllocatedBytes());
+
+        // A new slab is allocated when all regions are in use
+        final int fourth = allocator.allocate();
+        assertEquals(600, allocator.getAllocatedBytes());
+        assertNotSame(allocator.getSlab(first), allocator.getSlab(fourth));
+        assertEquals(0, allocator.getRegionOffset(fourth));
+    }
+
+    @Test
+    public void testSlabsAreDirect() {
+        final VoxelSlabAllocator allocator = new VoxelSlabAllocator(64, 1024);
+        final ByteBuffer slab = allocator.getSlab(allocator.allocate());
+        assertTrue(slab.isDirect());
+        assertEquals(1024, slab.capacity());
+    }
+
+    static VoxelBuffer createRandomBuffer(int blockCount, Random random) {
+        final VoxelBuffer buffer = new VoxelBuffer(blockCount);
+        random.nextBytes(buffer.getPrimaryMaterial());
+        random.nextBytes(buffer.getSecondaryMaterial());
+        random.nextBytes(buffer.getMaterialRatio());
+        random.nextBytes(buffer.getVolume());
+        return buffer;
+    }
+
+    static void assertStorageEquals(VoxelBuffer expected, VoxelStorage storage) {
+        for (int i = 0; i < expected.getBlockCount(); i++) {
+            assertEquals("primary material of block " + i, expected.getPrimaryMaterial()[i], storage.getPrimaryMaterial(i));
+            assertEquals("secondary material of block " + i, expected.getSecondaryMaterial()[i], storage.getSecondaryMaterial(i));
+            assertEquals("material ratio of block " + i, expected.getMaterialRatio()[i], storage.getMaterialRatio(i));
+            assertEquals("volume of block " + i, expected.getVolume()[i], storage.getVolume(i));
+        }
+    }
+}
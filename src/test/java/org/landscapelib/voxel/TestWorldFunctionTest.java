@@ -0,0 +1,143 @@
+package org.landscapelib.voxel;
+
+import com.badlogic.gdx.math.Vector3;
+import org.flowutils.SimplexGradientNoise;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestWorldFunctionTest {
+
+    private static final int DATA_POINTS_ALONG_EACH_AXIS = 16;
+    private static final int BLOCK_COUNT = DATA_POINTS_ALONG_EACH_AXIS * DATA_POINTS_ALONG_EACH_AXIS * DATA_POINTS_ALONG_EACH_AXIS;
+    private static final double[] DATA_POINT_DISTANCES_METERS = {0.5, 2, 8, 32, 128};
+    private static final int CHUNKS_PER_DISTANCE = 20;
+
+    @Test
+    public void testNoiseDerivativeBounds() {
+        final SimplexGradientNoise noise = new SimplexGradientNoise();
+        final Random random = new Random(42);
+
+        // Differences over a short distance are at most the largest derivative in between
+        final double step = 0.05;
+        final double[] offset = new double[3];
+        for (int i = 0; i < 20000; i++) {
+            final double x = (random.nextDouble() - 0.5) * 1000;
+            final double y = (random.nextDouble() - 0.5) * 1000;
+            final double z = (random.nextDouble() - 0.5) * 1000;
+            final double value = noise.sdnoise3(x, y, z);
+            assertTrue("noise magnitude at " + x + ", " + y + ", " + z, Math.abs(value) <= TestWorldFunction.MAX_NOISE_MAGNITUDE);
+
+            for (int axis = 0; axis < 3; axis++) {
+                offset[0] = offset[1] = offset[2] = 0;
+                offset[axis] = step;
+                final double next = noise.sdnoise3(x + offset[0], y + offset[1], z + offset[2]);
+                final double previous = noise.sdnoise3(x - offset[0], y - offset[1], z - offset[2]);
+
+                final double slope = (next - previous) / (2 * step);
+                final double curvature = (next - 2 * value + previous) / (step * step);
+                assertTrue("noise slope " + slope + " at " + x + ", " + y + ", " + z,
+                           Math.abs(slope) <= TestWorldFunction.MAX_NOISE_SLOPE);
+                assertTrue("noise curvature " + curvature + " at " + x + ", " + y + ", " + z,
+                           Math.abs(curvature) <= TestWorldFunction.MAX_NOISE_CURVATURE);
+            }
+        }
+    }
+
+    @Test
+    public void testInterpolationErrorWithinBound() {
+        final TestWorldFunction exactFunction = new TestWorldFunction(0);
+        final double[] maxErrors = {TestWorldFunction.DEFAULT_MAX_INTERPOLATION_ERROR_METERS, 0.1, 1};
+
+        final byte[] exactVolume = new byte[BLOCK_COUNT];
+        final byte[] volume = new byte[BLOCK_COUNT];
+        for (double maxError : maxErrors) {
+            final TestWorldFunction interpolatingFunction = new TestWorldFunction(maxError);
+
+            // The volume is the density in meters times 255, truncated
+            final int maxVolumeDifference = (int) (0xFF * maxError) + 1;
+
+            final Random random = new Random(7);
+            for (double dataPointDistance : DATA_POINT_DISTANCES_METERS) {
+                for (int i = 0; i < CHUNKS_PER_DISTANCE; i++) {
+                    final double[] center = createChunkCenterNearSurface(exactFunction, dataPointDistance, random);
+                    calculateVolume(exactFunction, center, dataPointDistance, exactVolume);
+                    calculateVolume(interpolatingFunction, center, dataPointDistance, volume);
+
+                    for (int j = 0; j < BLOCK_COUNT; j++) {
+                        final int difference = Math.abs((volume[j] & 0xFF) - (exactVolume[j] & 0xFF));
+                        assertTrue("volume difference " + difference + " with max error " + maxError + " m " +
+                                   "and data point distance " + dataPointDistance + " m",
+                                   difference <= maxVolumeDifference);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDensityBoundsContainVolume() {
+        final TestWorldFunction worldFunction = new TestWorldFunction();
+        final byte[] volume = new byte[BLOCK_COUNT];
+        final double[] bounds = new double[2];
+
+        final Random random = new Random(3);
+        for (double dataPointDistance : DATA_POINT_DISTANCES_METERS) {
+            for (int i = 0; i < CHUNKS_PER_DISTANCE * 5; i++) {
+                final double[] center = createChunkCenterNearSurface(worldFunction, dataPointDistance, random);
+                calculateVolume(worldFunction, center, dataPointDistance, volume);
+
+                // Bounds of the data points, as used by ChunkGenerationTask
+                final double halfSize = 0.5 * (DATA_POINTS_ALONG_EACH_AXIS - 1) * dataPointDistance;
+                worldFunction.calculateDensityBounds(center[0] - halfSize, center[1] - halfSize, center[2] - halfSize,
+                                                     center[0] + halfSize, center[1] + halfSize, center[2] + halfSize,
+                                                     dataPointDistance, bounds);
+
+                // Chunks that would be skipped as empty or filled should be empty or filled when calculated
+                for (int j = 0; j < BLOCK_COUNT; j++) {
+                    if (bounds[1] <= 0) assertEquals("volume in chunk bounded as empty", 0, volume[j] & 0xFF);
+                    if (bounds[0] >= 1) assertEquals("volume in chunk bounded as filled", 0xFF, volume[j] & 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return center of a chunk at most a few chunks above or below the surface, where all octaves affect the volume.
+     */
+    private static double[] createChunkCenterNearSurface(TestWorldFunction worldFunction, double dataPointDistance, Random random) {
+        final double chunkSize = dataPointDistance * DATA_POINTS_ALONG_EACH_AXIS;
+        final Vector3 planetCenter = worldFunction.getGravitationCenter();
+        final double radius = worldFunction.getPlanetRadiusMeters();
+
+        // A location on the upper half of the planet
+        final double x = planetCenter.x + (random.nextDouble() - 0.5) * radius;
+        final double z = planetCenter.z + (random.nextDouble() - 0.5) * radius;
+
+        // Find the surface with the noise by bisecting between points below and above it
+        double below = planetCenter.y;
+        double above = planetCenter.y + 2 * radius;
+        while (above - below > dataPointDistance) {
+            final double y = 0.5 * (below + above);
+            if (calculatePointVolume(worldFunction, x, y, z) > 0) below = y;
+            else above = y;
+        }
+
+        return new double[] {x, below + (random.nextInt(4) - 2 + random.nextDouble()) * chunkSize, z};
+    }
+
+    private static int calculatePointVolume(TestWorldFunction worldFunction, double x, double y, double z) {
+        final byte[] data = new byte[1];
+        worldFunction.calculateChunk(data, data, data, data, x, y, z, 1, 0.01, null);
+        return data[0] & 0xFF;
+    }
+
+    private static void calculateVolume(TestWorldFunction worldFunction, double[] center, double dataPointDistance, byte[] volumeOut) {
+        final byte[] materials = new byte[BLOCK_COUNT];
+        worldFunction.calculateChunk(materials, materials, materials, volumeOut,
+                                     center[0], center[1], center[2],
+                                     DATA_POINTS_ALONG_EACH_AXIS, dataPointDistance, null);
+    }
+}